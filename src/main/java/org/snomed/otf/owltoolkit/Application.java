@@ -6,6 +6,7 @@ import org.snomed.otf.owltoolkit.conversion.ConversionException;
 import org.snomed.otf.owltoolkit.conversion.RF2ToOWLService;
 import org.snomed.otf.owltoolkit.conversion.StatedRelationshipToOwlRefsetService;
 import org.snomed.otf.owltoolkit.ontology.OntologyService;
+import org.snomed.otf.owltoolkit.service.ClassificationOptions;
 import org.snomed.otf.owltoolkit.service.ReasonerServiceException;
 import org.snomed.otf.owltoolkit.service.SnomedReasonerService;
 import org.snomed.otf.owltoolkit.util.InputStreamSet;
@@ -39,9 +40,15 @@ public class Application {
 	private static final String ARG_RF2_SNAPSHOT_ARCHIVES = "-rf2-snapshot-archives";
 	private static final String ARG_RF2_AUTHORING_DELTA_ARCHIVE = "-rf2-authoring-delta-archive";
 	private static final String ARG_RF2_STATED_TO_COMPLETE_OWL_RECONCILE = "-rf2-stated-to-complete-owl-reconcile";
+	private static final String ARG_STREAMING_RECONCILE = "-streaming-reconcile";
 	private static final String ARG_URI = "-uri";
 	private static final String ARG_VERSION = "-version";
 	private static final String ARG_WITHOUT_ANNOTATIONS = "-without-annotations";
+	private static final String ARG_REASONER_THREADS = "-reasoner-threads";
+	private static final String ARG_REASONER_TIMEOUT = "-reasoner-timeout";
+	private static final String ARG_TAXONOMY_EXTRACTION_THREADS = "-taxonomy-extraction-threads";
+	private static final String ARG_NORMAL_FORM_THREADS = "-normal-form-threads";
+	private static final String ARG_AXIOM_CONVERSION_THREADS = "-axiom-conversion-threads";
 	private static final SimpleDateFormat DATETIME_FORMAT = new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss");
 	private static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("yyyyMMdd");
 
@@ -95,8 +102,30 @@ public class Application {
 		Set<File> snapshotFiles = getSnapshotFiles(args);
 		File deltaFile = getDeltaFiles(args);
 
+		ClassificationOptions options = new ClassificationOptions();
+		Integer reasonerThreads = getIntegerParameterValue(ARG_REASONER_THREADS, args);
+		if (reasonerThreads != null) {
+			options.setReasonerWorkerThreads(reasonerThreads);
+		}
+		Integer reasonerTimeoutSeconds = getIntegerParameterValue(ARG_REASONER_TIMEOUT, args);
+		if (reasonerTimeoutSeconds != null) {
+			options.setReasonerTimeoutMillis(reasonerTimeoutSeconds * 1000L);
+		}
+		Integer taxonomyExtractionThreads = getIntegerParameterValue(ARG_TAXONOMY_EXTRACTION_THREADS, args);
+		if (taxonomyExtractionThreads != null) {
+			options.setTaxonomyExtractionThreads(taxonomyExtractionThreads);
+		}
+		Integer normalFormThreads = getIntegerParameterValue(ARG_NORMAL_FORM_THREADS, args);
+		if (normalFormThreads != null) {
+			options.setNormalFormThreads(normalFormThreads);
+		}
+		Integer axiomConversionThreads = getIntegerParameterValue(ARG_AXIOM_CONVERSION_THREADS, args);
+		if (axiomConversionThreads != null) {
+			options.setAxiomConversionThreads(axiomConversionThreads);
+		}
+
 		File resultsFile = new File("classification-results-" + DATETIME_FORMAT.format(new Date()) + ZIP);
-		new SnomedReasonerService().classify(
+		new SnomedReasonerService(options).classify(
 				"command-line",
 				snapshotFiles,
 				deltaFile,
@@ -207,6 +236,7 @@ public class Application {
 		String outputFilePath = COMPLETE_OWL_AXIOM_DELTA + effectiveDate + ZIP;
 		File completeOwlDeltaZip = new File(outputFilePath);
 		StatedRelationshipToOwlRefsetService service = new StatedRelationshipToOwlRefsetService();
+		service.setStreamingReconcile(args.contains(ARG_STREAMING_RECONCILE));
 		
 		// Create zip stream
 		Iterator<File> iterator = snapshotFiles.iterator();
@@ -269,6 +299,11 @@ public class Application {
 						pad("") + " - Published OWL Axiom reference set uuid will be used for an updated axiom.\n" +
 						"\n" +
 
+						pad(ARG_STREAMING_RECONCILE) +
+						"(Optional) Flag to reconcile one concept at a time in concept id order \n" +
+						pad("") + "rather than converting all concepts first. Uses less memory.\n" +
+						"\n" +
+
 						pad(ARG_RF2_SNAPSHOT_ARCHIVES + " <path>") +
 						"Comma separated paths of zip files containing RF2 Snapshot files to be loaded. \n" +
 						pad("") + "At least one Snapshot archive is required.\n" +
@@ -282,6 +317,33 @@ public class Application {
 						"Additional output for debugging.\n" +
 						"\n" +
 						"\n" +
+						"Optional parameters for classification:\n" +
+
+						pad(ARG_REASONER_THREADS + " <threads>") +
+						"(Optional) Number of reasoner worker threads.\n" +
+						pad("") + "Defaults to the number of available processors.\n" +
+						"\n" +
+
+						pad(ARG_REASONER_TIMEOUT + " <seconds>") +
+						"(Optional) Reasoner timeout, if supported by the reasoner.\n" +
+						pad("") + "Defaults to no timeout.\n" +
+						"\n" +
+
+						pad(ARG_TAXONOMY_EXTRACTION_THREADS + " <threads>") +
+						"(Optional) Number of threads used to extract the inferred taxonomy from the reasoner.\n" +
+						pad("") + "Defaults to 1.\n" +
+						"\n" +
+
+						pad(ARG_NORMAL_FORM_THREADS + " <threads>") +
+						"(Optional) Number of threads used to generate the relationship normal form.\n" +
+						pad("") + "Defaults to 1.\n" +
+						"\n" +
+
+						pad(ARG_AXIOM_CONVERSION_THREADS + " <threads>") +
+						"(Optional) Number of threads used to convert axioms to relationships before generating the normal form.\n" +
+						pad("") + "Defaults to 1.\n" +
+						"\n" +
+						"\n" +
 						"Optional parameters for OWL conversion:\n" +
 
 						pad(ARG_URI + " <uri>") +
@@ -318,6 +380,15 @@ public class Application {
 		return null;
 	}
 
+	private Integer getIntegerParameterValue(String paramName, List<String> args) {
+		if (args.indexOf(paramName) > -1) {
+			String value = getRequiredParameterValue(paramName, args);
+			assertTrue("Expecting a positive whole number with parameter " + paramName, value.matches("[1-9][0-9]*") && value.length() < 10);
+			return Integer.parseInt(value);
+		}
+		return null;
+	}
+
 	private String getRequiredParameterValue(String paramName, List<String> args) {
 		assertTrue("Expecting parameter " + paramName, args.contains(paramName));
 		int valueIndex = args.indexOf(paramName) + 1;
@@ -18,7 +18,9 @@ package org.snomed.otf.owltoolkit.classification;
 
 import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongIterator;
 import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
 import org.snomed.otf.owltoolkit.domain.Relationship;
 
 import java.io.Serializable;
@@ -30,8 +32,8 @@ public class ReasonerTaxonomy implements Serializable {
 	
 	private final List<Set<Long>> equivalentConceptIds = new ArrayList<>();
 	private final Set<Long> unsatisfiableConceptIds = new LongOpenHashSet();
-	private final Map<Long, Set<Long>> parentIds = new Long2ObjectOpenHashMap<>();
-	private final Map<Long, Set<Long>> ancestorIds = new Long2ObjectOpenHashMap<>();
+	private final Long2ObjectOpenHashMap<LongSet> parentIds = new Long2ObjectOpenHashMap<>();
+	private final Long2ObjectOpenHashMap<LongSet> ancestorIds = new Long2ObjectOpenHashMap<>();
 	private final List<Long> insertionOrderedIds = new LongArrayList();
 	private final List<Long> insertionOrderedAttributeIds = new LongArrayList();
 
@@ -63,17 +65,62 @@ public class ReasonerTaxonomy implements Serializable {
 		}
 	}
 
-	private Set<Long> getOrCreateSet(final Map<Long, Set<Long>> map, final long key) {
+	/**
+	 * Restores the inferred parents of a concept without updating ancestors, for loading a saved taxonomy.
+	 * {@link #computeAncestors()} must be called once the parents of all concepts have been set.
+	 */
+	public void setParents(final long sourceId, final Set<Long> parents) {
+		getOrCreateSet(parentIds, sourceId).addAll(parents);
+	}
+
+	/**
+	 * @return ids of all concepts and attributes which have an entry, including those without parents.
+	 */
+	public Set<Long> getIdsWithEntries() {
+		return parentIds.keySet();
+	}
+
+	/**
+	 * Rebuilds the ancestors of every entry as the transitive closure of the parents.
+	 */
+	public void computeAncestors() {
+		ancestorIds.clear();
+		final LongIterator sourceIds = parentIds.keySet().iterator();
+		while (sourceIds.hasNext()) {
+			computeAncestors(sourceIds.nextLong());
+		}
+	}
+
+	private LongSet computeAncestors(final long sourceId) {
+		LongSet ancestors = ancestorIds.get(sourceId);
+		if (ancestors != null) {
+			return ancestors;
+		}
+		ancestors = new LongOpenHashSet();
+		ancestorIds.put(sourceId, ancestors);
+		final LongSet parents = parentIds.get(sourceId);
+		if (parents != null) {
+			final LongIterator parentIterator = parents.iterator();
+			while (parentIterator.hasNext()) {
+				final long parentId = parentIterator.nextLong();
+				ancestors.add(parentId);
+				ancestors.addAll(computeAncestors(parentId));
+			}
+		}
+		return ancestors;
+	}
+
+	private LongSet getOrCreateSet(final Long2ObjectOpenHashMap<LongSet> map, final long key) {
 		if (map.containsKey(key)) {
 			return map.get(key);
 		} else {
-			final Set<Long> newSet = new LongOpenHashSet();
+			final LongSet newSet = new LongOpenHashSet();
 			map.put(key, newSet);
 			return newSet;
 		}
 	}
 
-	private Set<Long> getOrReturnEmptySet(final Map<Long, Set<Long>> map, final long key) {
+	private Set<Long> getOrReturnEmptySet(final Long2ObjectOpenHashMap<LongSet> map, final long key) {
 		if (map.containsKey(key)) {
 			return map.get(key);
 		} else {
@@ -89,6 +136,18 @@ public class ReasonerTaxonomy implements Serializable {
 		return getOrReturnEmptySet(ancestorIds, sourceId);
 	}
 	
+	/**
+	 * Subsumption check which does not allocate, for use in redundancy checks.
+	 * @return true if the concept is the same as the ancestor or the ancestor is in the inferred ancestors of the concept.
+	 */
+	public boolean isSameOrDescendant(final long conceptId, final long ancestorId) {
+		if (conceptId == ancestorId) {
+			return true;
+		}
+		final LongSet ancestors = ancestorIds.get(conceptId);
+		return ancestors != null && ancestors.contains(ancestorId);
+	}
+
 	public List<Long> getConceptIds() {
 		return insertionOrderedIds;
 	}
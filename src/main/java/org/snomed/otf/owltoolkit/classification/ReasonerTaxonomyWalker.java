@@ -16,7 +16,7 @@
  */
 package org.snomed.otf.owltoolkit.classification;
 
-import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.*;
 import org.semanticweb.owlapi.model.*;
 import org.semanticweb.owlapi.reasoner.Node;
 import org.semanticweb.owlapi.reasoner.NodeSet;
@@ -26,8 +26,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.snomed.otf.owltoolkit.constants.Concepts;
 import org.snomed.otf.owltoolkit.ontology.OntologyHelper;
+import org.snomed.otf.owltoolkit.service.ReasonerServiceRuntimeException;
 
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
 
 public class ReasonerTaxonomyWalker {
@@ -43,13 +46,23 @@ public class ReasonerTaxonomyWalker {
 
 	private boolean nothingProcessed;
 
+	private final int extractionThreads;
+
 	private static final Logger LOGGER = LoggerFactory.getLogger(ReasonerTaxonomyWalker.class);
 
 	public ReasonerTaxonomyWalker(final OWLReasoner reasoner, final ReasonerTaxonomy changeSet) {
+		this(reasoner, changeSet, 1);
+	}
+
+	/**
+	 * @param extractionThreads when greater than one the direct parents of all classes are requested from the reasoner concurrently
+	 *                          and the breadth-first insertion order is computed afterwards. The reasoner must have precomputed the class hierarchy.
+	 */
+	public ReasonerTaxonomyWalker(final OWLReasoner reasoner, final ReasonerTaxonomy changeSet, final int extractionThreads) {
 		this.reasoner = reasoner;
 		this.owlOntology = reasoner.getRootOntology();
 		this.taxonomy = changeSet;
-		this.processedConceptIds = new LongOpenHashSet(600000);
+		this.extractionThreads = extractionThreads;
 	}
 
 	public ReasonerTaxonomy walk() {
@@ -57,6 +70,26 @@ public class ReasonerTaxonomyWalker {
 
 		extractProperties();
 
+		if (extractionThreads > 1) {
+			extractClassesInParallel();
+		} else {
+			walkClassHierarchy();
+		}
+
+		// Move attribute ids to after 'Concept model attribute' concept so they are processed in the correct order.
+		List<Long> attributeIds = taxonomy.getAttributeIds();
+		attributeIds.remove(Concepts.CONCEPT_MODEL_ATTRIBUTE_LONG);
+		List<Long> conceptIds = taxonomy.getConceptIds();
+		conceptIds.removeAll(attributeIds);
+		conceptIds.addAll(conceptIds.indexOf(Concepts.CONCEPT_MODEL_ATTRIBUTE_LONG) + 1, attributeIds);
+
+		LOGGER.info("<<< taxonomy extraction");
+		return taxonomy;
+	}
+
+	private void walkClassHierarchy() {
+		processedConceptIds = new LongOpenHashSet(600000);
+
 		// Now process the concepts
 		final Deque<Node<OWLClass>> nodesToProcess = new LinkedList<>();
 		nodesToProcess.add(reasoner.getTopClassNode());
@@ -75,16 +108,124 @@ public class ReasonerTaxonomyWalker {
 
 		processedConceptIds.clear();
 		processedConceptIds = null;
+	}
 
-		// Move attribute ids to after 'Concept model attribute' concept so they are processed in the correct order.
-		List<Long> attributeIds = taxonomy.getAttributeIds();
-		attributeIds.remove(Concepts.CONCEPT_MODEL_ATTRIBUTE_LONG);
-		List<Long> conceptIds = taxonomy.getConceptIds();
-		conceptIds.removeAll(attributeIds);
-		conceptIds.addAll(conceptIds.indexOf(Concepts.CONCEPT_MODEL_ATTRIBUTE_LONG) + 1, attributeIds);
+	private void extractClassesInParallel() {
+		LOGGER.info("Extracting class parents using {} threads", extractionThreads);
+
+		final List<OWLClass> conceptClasses = owlOntology.getClassesInSignature().stream()
+				.filter(OntologyHelper::isConceptClass)
+				.collect(Collectors.toList());
+
+		// Parents of each node representative, and of each equivalent concept which points to the representative
+		final Map<Long, Set<Long>> nodeParentIds = Long2ObjectMaps.synchronize(new Long2ObjectOpenHashMap<>(conceptClasses.size()));
+		final Map<Long, Set<Long>> representativeEquivalentIds = Long2ObjectMaps.synchronize(new Long2ObjectOpenHashMap<>());
+
+		final ForkJoinPool pool = new ForkJoinPool(extractionThreads);
+		try {
+			pool.submit(() -> conceptClasses.parallelStream().forEach(owlClass -> {
+				final Node<OWLClass> node = reasoner.getEquivalentClasses(owlClass);
+				if (node.isTopNode() || node.isBottomNode()) {
+					return;
+				}
+
+				final Set<Long> conceptIds = new LongOpenHashSet();
+				final long representativeConceptId = getConceptIds(node, conceptIds);
+
+				// Each node is only processed by the thread handling its representative
+				if (representativeConceptId != OntologyHelper.getConceptId(owlClass)) {
+					return;
+				}
+
+				final Set<Long> parentConceptIds = new LongOpenHashSet();
+				for (final Node<OWLClass> parentNode : reasoner.getSuperClasses(node.getRepresentativeElement(), true)) {
+
+					// No parents if we found the Top node
+					if (parentNode.isTopNode()) {
+						break;
+					}
+
+					parentConceptIds.add(getConceptIds(parentNode, new LongOpenHashSet()));
+				}
+				nodeParentIds.put(representativeConceptId, parentConceptIds);
+
+				if (conceptIds.size() > 1) {
+					representativeEquivalentIds.put(representativeConceptId, conceptIds);
+					final Set<Long> representativeOnly = LongSets.singleton(representativeConceptId);
+					for (Long conceptId : conceptIds) {
+						if (conceptId != representativeConceptId) {
+							nodeParentIds.put(conceptId, representativeOnly);
+						}
+					}
+				}
+			})).get();
+		} catch (InterruptedException | ExecutionException e) {
+			throw new ReasonerServiceRuntimeException("Failed to extract class parents from the reasoner.", e);
+		} finally {
+			pool.shutdown();
+		}
 
-		LOGGER.info("<<< taxonomy extraction");
-		return taxonomy;
+		final Set<Long> unsatisfiableConceptIds = new LongOpenHashSet();
+		collectConceptIds(reasoner.getBottomClassNode(), unsatisfiableConceptIds);
+		if (!unsatisfiableConceptIds.isEmpty()) {
+			registerEquivalentConceptIds(unsatisfiableConceptIds, true);
+		}
+
+		addEntriesInTopologicalOrder(nodeParentIds, representativeEquivalentIds);
+	}
+
+	/**
+	 * Adds taxonomy entries so that every concept follows all of its parents, as the ancestor sets are built incrementally.
+	 * Siblings are ordered by id to keep the result stable regardless of thread scheduling.
+	 */
+	private void addEntriesInTopologicalOrder(final Map<Long, Set<Long>> nodeParentIds, final Map<Long, Set<Long>> representativeEquivalentIds) {
+		final Long2IntOpenHashMap unprocessedParentCounts = new Long2IntOpenHashMap(nodeParentIds.size());
+		final Long2ObjectOpenHashMap<LongArrayList> childIds = new Long2ObjectOpenHashMap<>(nodeParentIds.size());
+		final LongArrayList rootIds = new LongArrayList();
+		for (Map.Entry<Long, Set<Long>> entry : nodeParentIds.entrySet()) {
+			final long conceptId = entry.getKey();
+			final Set<Long> parentIds = entry.getValue();
+			if (parentIds.isEmpty()) {
+				rootIds.add(conceptId);
+			} else {
+				unprocessedParentCounts.put(conceptId, parentIds.size());
+				for (Long parentId : parentIds) {
+					LongArrayList children = childIds.get((long) parentId);
+					if (children == null) {
+						children = new LongArrayList();
+						childIds.put((long) parentId, children);
+					}
+					children.add(conceptId);
+				}
+			}
+		}
+
+		rootIds.sort(null);
+		final LongArrayFIFOQueue queue = new LongArrayFIFOQueue(nodeParentIds.size());
+		for (int i = 0; i < rootIds.size(); i++) {
+			queue.enqueue(rootIds.getLong(i));
+		}
+
+		while (!queue.isEmpty()) {
+			final long conceptId = queue.dequeueLong();
+
+			final Set<Long> equivalentIds = representativeEquivalentIds.get(conceptId);
+			if (equivalentIds != null) {
+				registerEquivalentConceptIds(equivalentIds, false);
+			}
+			registerParentConceptIds(conceptId, nodeParentIds.get(conceptId));
+
+			final LongArrayList children = childIds.get(conceptId);
+			if (children != null) {
+				children.sort(null);
+				for (int i = 0; i < children.size(); i++) {
+					final long childId = children.getLong(i);
+					if (unprocessedParentCounts.addTo(childId, -1) == 1) {
+						queue.enqueue(childId);
+					}
+				}
+			}
+		}
 	}
 
 	private void extractProperties() {
@@ -247,6 +388,11 @@ public class ReasonerTaxonomyWalker {
 	}
 
 	private long getConceptIds(final Node<OWLClass> node, final Set<Long> conceptIds) {
+		collectConceptIds(node, conceptIds);
+		return conceptIds.iterator().next();
+	}
+
+	private void collectConceptIds(final Node<OWLClass> node, final Set<Long> conceptIds) {
 		for (final OWLClass owlClass : node) {
 			if (!OntologyHelper.isConceptClass(owlClass)) {
 				continue;
@@ -255,8 +401,6 @@ public class ReasonerTaxonomyWalker {
 			final long conceptId = OntologyHelper.getConceptId(owlClass);
 			conceptIds.add(conceptId);
 		}
-
-		return conceptIds.iterator().next();
 	}
 
 	private void registerEquivalentConceptIds(final Set<Long> conceptIds, final boolean unsatisfiable) {
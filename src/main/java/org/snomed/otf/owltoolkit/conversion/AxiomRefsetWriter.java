@@ -0,0 +1,186 @@
+package org.snomed.otf.owltoolkit.conversion;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrays;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.snomed.otf.owltoolkit.constants.Concepts;
+import org.snomed.otf.owltoolkit.ontology.render.SnomedAxiomRenderer;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+/**
+ * Writes rows of the OWL Axiom reference set in concept id order.
+ *
+ * Concepts are processed in batches. The rows of each batch, apart from the identifier column, are rendered by worker threads.
+ * Identifiers of new rows are taken from the identifier supplier by a single separate thread, in row order,
+ * so the supplier is never called concurrently and the output does not depend on the number of threads.
+ * The calling thread writes the batches in order.
+ */
+final class AxiomRefsetWriter {
+
+	private static final int BATCH_SIZE = 1000;
+	private static final char TAB = '\t';
+	private static final String LINE_SEPARATOR = System.lineSeparator();
+
+	private final Map<OWLAxiom, String> axiomsIdMap;
+	private final Map<Long, Set<OWLAxiom>> changes;
+	private final Set<Long> inactiveConcepts;
+	private final Set<Long> modelComponentIds;
+	private final String moduleId;
+	private final Supplier<String> identifierSupplier;
+	private final OWLOntology ontology;
+
+	/**
+	 * @param axiomsIdMap identifiers of existing axioms, other axioms are given a new identifier. May be null.
+	 * @param inactiveConcepts concepts with axioms to be written as inactive. May be null.
+	 * @param moduleId module of all rows, if null or empty the core or model component module is used depending on the concept.
+	 */
+	AxiomRefsetWriter(Map<OWLAxiom, String> axiomsIdMap, Map<Long, Set<OWLAxiom>> changes, Set<Long> inactiveConcepts,
+			Set<Long> modelComponentIds, String moduleId, Supplier<String> identifierSupplier, OWLOntology ontology) {
+		this.axiomsIdMap = axiomsIdMap;
+		this.changes = changes;
+		this.inactiveConcepts = inactiveConcepts;
+		this.modelComponentIds = modelComponentIds;
+		this.moduleId = moduleId;
+		this.identifierSupplier = identifierSupplier;
+		this.ontology = ontology;
+	}
+
+	/**
+	 * @param threads number of threads used to render rows, 1 does all the work on the calling thread
+	 */
+	void write(Writer writer, int threads) throws IOException {
+		final long[] conceptIds = new long[changes.size()];
+		int i = 0;
+		for (Long conceptId : changes.keySet()) {
+			conceptIds[i++] = conceptId;
+		}
+		LongArrays.quickSort(conceptIds);
+
+		if (threads <= 1) {
+			final SnomedAxiomRenderer axiomRenderer = new SnomedAxiomRenderer(ontology);
+			for (int from = 0; from < conceptIds.length; from += BATCH_SIZE) {
+				final int to = Math.min(from + BATCH_SIZE, conceptIds.length);
+				writeBatch(writer, takeIdentifiers(conceptIds, from, to), renderRows(conceptIds, from, to, axiomRenderer));
+			}
+			return;
+		}
+
+		final ExecutorService renderPool = Executors.newFixedThreadPool(threads, runnable -> newDaemonThread(runnable, "axiom-refset-render"));
+		final ExecutorService identifierPool = Executors.newSingleThreadExecutor(runnable -> newDaemonThread(runnable, "axiom-refset-identifiers"));
+		// The renderer is not thread safe so each worker has its own
+		final ThreadLocal<SnomedAxiomRenderer> axiomRenderers = ThreadLocal.withInitial(() -> new SnomedAxiomRenderer(ontology));
+		final Deque<Future<String[]>> pendingIdentifiers = new ArrayDeque<>();
+		final Deque<Future<Rows>> pendingRows = new ArrayDeque<>();
+		try {
+			for (int from = 0; from < conceptIds.length; from += BATCH_SIZE) {
+				final int batchFrom = from;
+				final int batchTo = Math.min(from + BATCH_SIZE, conceptIds.length);
+				pendingIdentifiers.addLast(identifierPool.submit(() -> takeIdentifiers(conceptIds, batchFrom, batchTo)));
+				pendingRows.addLast(renderPool.submit(() -> renderRows(conceptIds, batchFrom, batchTo, axiomRenderers.get())));
+				// Limit the number of batches held in memory
+				while (pendingRows.size() > threads * 2) {
+					writeBatch(writer, get(pendingIdentifiers.removeFirst()), get(pendingRows.removeFirst()));
+				}
+			}
+			while (!pendingRows.isEmpty()) {
+				writeBatch(writer, get(pendingIdentifiers.removeFirst()), get(pendingRows.removeFirst()));
+			}
+		} finally {
+			renderPool.shutdownNow();
+			identifierPool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Identifier column of each row in the batch, using the same iteration order as {@link #renderRows}.
+	 */
+	private String[] takeIdentifiers(long[] conceptIds, int from, int to) {
+		final List<String> identifiers = new ArrayList<>();
+		for (int i = from; i < to; i++) {
+			for (OWLAxiom owlAxiom : changes.get(conceptIds[i])) {
+				String identifier = axiomsIdMap != null ? axiomsIdMap.get(owlAxiom) : null;
+				identifiers.add(identifier != null ? identifier : identifierSupplier.get());
+			}
+		}
+		return identifiers.toArray(new String[identifiers.size()]);
+	}
+
+	/**
+	 * All columns after the identifier of each row in the batch.
+	 */
+	private Rows renderRows(long[] conceptIds, int from, int to, SnomedAxiomRenderer axiomRenderer) {
+		final StringBuilder builder = new StringBuilder();
+		final IntArrayList rowEnds = new IntArrayList();
+		for (int i = from; i < to; i++) {
+			final long conceptId = conceptIds[i];
+			final boolean inactive = inactiveConcepts != null && inactiveConcepts.contains(conceptId);
+			final String module = moduleId != null && !moduleId.isEmpty() ? moduleId :
+					modelComponentIds.contains(conceptId) ? Concepts.SNOMED_CT_MODEL_COMPONENT_MODULE : Concepts.SNOMED_CT_CORE_MODULE;
+			for (OWLAxiom owlAxiom : changes.get(conceptId)) {
+				// id	effectiveTime	active	moduleId	refsetId	referencedComponentId	owlExpression
+				// Blank effectiveTime
+				builder.append(TAB).append(TAB)
+						.append(inactive ? '0' : '1').append(TAB)
+						.append(module).append(TAB)
+						.append(Concepts.OWL_AXIOM_REFERENCE_SET).append(TAB)
+						.append(conceptId).append(TAB);
+				axiomRenderer.render(owlAxiom, builder);
+				builder.append(LINE_SEPARATOR);
+				rowEnds.add(builder.length());
+			}
+		}
+		final char[] chars = new char[builder.length()];
+		builder.getChars(0, chars.length, chars, 0);
+		return new Rows(chars, rowEnds.toIntArray());
+	}
+
+	private void writeBatch(Writer writer, String[] identifiers, Rows rows) throws IOException {
+		if (identifiers.length != rows.ends.length) {
+			throw new IllegalStateException("Axioms of the batch changed while writing, " + identifiers.length + " identifiers for " + rows.ends.length + " rows.");
+		}
+		int start = 0;
+		for (int i = 0; i < identifiers.length; i++) {
+			writer.write(identifiers[i]);
+			writer.write(rows.chars, start, rows.ends[i] - start);
+			start = rows.ends[i];
+		}
+	}
+
+	private static <T> T get(Future<T> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while rendering OWL Axiom reference set rows.");
+		} catch (ExecutionException e) {
+			throw new IOException("Failed to render OWL Axiom reference set rows.", e.getCause());
+		}
+	}
+
+	private static Thread newDaemonThread(Runnable runnable, String name) {
+		Thread thread = new Thread(runnable, name);
+		thread.setDaemon(true);
+		return thread;
+	}
+
+	private static final class Rows {
+
+		private final char[] chars;
+		private final int[] ends;
+
+		private Rows(char[] chars, int[] ends) {
+			this.chars = chars;
+			this.ends = ends;
+		}
+	}
+}
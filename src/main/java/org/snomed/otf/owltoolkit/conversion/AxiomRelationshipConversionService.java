@@ -1,5 +1,8 @@
 package org.snomed.otf.owltoolkit.conversion;
 
+import com.google.common.base.Throwables;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrays;
 import org.semanticweb.owlapi.model.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -8,27 +11,43 @@ import org.snomed.otf.owltoolkit.domain.AxiomRepresentation;
 import org.snomed.otf.owltoolkit.domain.Relationship;
 import org.snomed.otf.owltoolkit.ontology.OntologyHelper;
 import org.snomed.otf.owltoolkit.ontology.OntologyService;
-import org.snomed.otf.owltoolkit.taxonomy.SnomedTaxonomyLoader;
+import org.snomed.otf.owltoolkit.ontology.render.AxiomHash;
+import org.snomed.otf.owltoolkit.ontology.render.SnomedAxiomRenderer;
+import org.snomed.otf.owltoolkit.taxonomy.AxiomDeserialiser;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
-import static org.snomed.otf.owltoolkit.ontology.OntologyService.CORE_COMPONENT_NAMESPACE_PATTERN;
-
 import static org.snomed.otf.owltoolkit.ontology.OntologyService.SNOMED_ROLE_GROUP_FULL_URI;
 
+/**
+ * Converts between OWL Axiom expressions and relationships.
+ *
+ * Instances are thread safe and can be shared between request threads, there is no lock shared between threads.
+ * Each parse borrows a parser which no other thread is using, idle parsers are kept for reuse. Rendering in the short form keeps no state.
+ * The attribute collections given to the constructor must not be modified while the service is in use.
+ */
 public class AxiomRelationshipConversionService {
 
-	private final SnomedTaxonomyLoader snomedTaxonomyLoader;
 	private final OntologyService ontologyService;
+	private final SnomedAxiomRenderer axiomRenderer = new SnomedAxiomRenderer();
+	// The parser is not thread safe and slow to create. Idle parsers are kept, up to the larger of the processor count and batch conversion threads.
+	private final Queue<AxiomDeserialiser> idleAxiomDeserialisers = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger idleAxiomDeserialiserCount = new AtomicInteger();
+	private volatile int batchConversionThreads = Runtime.getRuntime().availableProcessors();
+	private volatile AxiomRepresentationCache axiomRepresentationCache;
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(AxiomRelationshipConversionService.class);
-	private Collection<Long> objectAttributes;
-	private Collection<Long> dataAttributes;
+	private final Collection<Long> objectAttributes;
+	private final Collection<Long> dataAttributes;
 
 	public AxiomRelationshipConversionService(Set<Long> ungroupedAttributes) {
-		snomedTaxonomyLoader = new SnomedTaxonomyLoader();
-		ontologyService = new OntologyService(ungroupedAttributes);
+		this(ungroupedAttributes, null, null);
 	}
 
 	/**
@@ -38,7 +57,6 @@ public class AxiomRelationshipConversionService {
 	 * @param dataAttributes A set of concept identifiers from the descendants of 762706009 |Concept model data attribute (attribute)|.
 	 */
 	public AxiomRelationshipConversionService(Set<Long> ungroupedAttributes, Collection<Long> objectAttributes, Collection<Long> dataAttributes) {
-		snomedTaxonomyLoader = new SnomedTaxonomyLoader();
 		ontologyService = new OntologyService(ungroupedAttributes);
 		this.objectAttributes = objectAttributes;
 		this.dataAttributes = dataAttributes;
@@ -48,13 +66,28 @@ public class AxiomRelationshipConversionService {
 	 * Converts an OWL Axiom expression String to an AxiomRepresentation containing a concept id or set of relationships for each side of the expression.
 	 * Currently supported axiom types are SubClassOf, EquivalentClasses and SubObjectPropertyOf.
 	 *
+	 * If a cache is set an expression found in the cache is not parsed and the representation is the read-only copy held by the cache,
+	 * shared with other callers, see {@link AxiomRepresentationCache}.
+	 *
 	 * @param axiomExpression The Axiom expression to convert.
 	 * @return AxiomRepresentation with the details of the expression or null if the axiom type is not supported.
 	 * @throws ConversionException if the Axiom expression is malformed or of an unexpected structure.
 	 */
 	public AxiomRepresentation convertAxiomToRelationships(String axiomExpression) throws ConversionException {
-		OWLAxiom owlAxiom = convertOwlExpressionToOWLAxiom(axiomExpression);
-		return convertAxiomToRelationships(owlAxiom);
+		AxiomRepresentationCache cache = axiomRepresentationCache;
+		if (cache == null) {
+			return convertAxiomToRelationships(convertOwlExpressionToOWLAxiom(axiomExpression));
+		}
+		AxiomHash key = cache.createKey(axiomExpression);
+		AxiomRepresentation representation = cache.get(key);
+		if (representation == null) {
+			representation = convertAxiomToRelationships(convertOwlExpressionToOWLAxiom(axiomExpression));
+			// Unsupported axiom types are not cached
+			if (representation != null) {
+				representation = cache.put(key, representation);
+			}
+		}
+		return representation;
 	}
 
 	/**
@@ -138,25 +171,128 @@ public class AxiomRelationshipConversionService {
 
 	/**
 	 * 	Currently supported axiom types are SubClassOf and EquivalentClasses - axioms of other types will be ignored.
+	 * 	Concepts are converted in parallel using the batch conversion threads, see {@link #setBatchConversionThreads(int)}.
 	 *
-	 * @param conceptAxiomMap
-	 * @return
-	 * @throws ConversionException
+	 * @param conceptAxiomMap axioms of each concept, must not be modified during the conversion
+	 * @return representations of each concept with at least one supported axiom
+	 * @throws ConversionException if the axioms of any concept could not be converted. All concepts are converted before failing,
+	 * the first failure in concept id order is the cause and the failures of other concepts are suppressed exceptions, in concept id order.
 	 */
 	public Map<Long, Set<AxiomRepresentation>> convertAxiomsToRelationships(Map<Long, Set<OWLAxiom>> conceptAxiomMap) throws ConversionException {
-		Map<Long, Set<AxiomRepresentation>> conceptAxiomStatements = new HashMap<>();
+		// Read on this thread so that the conversion threads do not share any lock held by the given map
+		final long[] conceptIds = new long[conceptAxiomMap.size()];
+		int index = 0;
 		for (Long conceptId : conceptAxiomMap.keySet()) {
-			Set<OWLAxiom> axioms = conceptAxiomMap.get(conceptId);
-			for (OWLAxiom axiom : axioms) {
-				AxiomRepresentation axiomRepresentation = convertAxiomToRelationships(axiom);
-				if (axiomRepresentation != null) {
-					conceptAxiomStatements.computeIfAbsent(conceptId, id -> new HashSet<>()).add(axiomRepresentation);
+			conceptIds[index++] = conceptId;
+		}
+		LongArrays.quickSort(conceptIds);
+		final List<Set<OWLAxiom>> conceptAxioms = new ArrayList<>(conceptIds.length);
+		for (long conceptId : conceptIds) {
+			conceptAxioms.add(conceptAxiomMap.get(conceptId));
+		}
+
+		final List<ConversionResult<Set<AxiomRepresentation>>> results = convertInParallel(conceptAxioms, axioms -> {
+			Set<AxiomRepresentation> representations = null;
+			try {
+				for (OWLAxiom axiom : axioms) {
+					AxiomRepresentation axiomRepresentation = convertAxiomToRelationships(axiom);
+					if (axiomRepresentation != null) {
+						if (representations == null) {
+							representations = new HashSet<>();
+						}
+						representations.add(axiomRepresentation);
+					}
 				}
+			} catch (ConversionException e) {
+				return ConversionResult.failure(e);
+			}
+			return ConversionResult.success(representations);
+		});
+
+		final Map<Long, Set<AxiomRepresentation>> conceptAxiomStatements = new Long2ObjectOpenHashMap<>(conceptIds.length);
+		final List<ConversionException> failures = new ArrayList<>();
+		for (int i = 0; i < conceptIds.length; i++) {
+			final ConversionResult<Set<AxiomRepresentation>> result = results.get(i);
+			if (!result.isSuccess()) {
+				failures.add(new ConversionException("Failed to convert axioms of concept " + conceptIds[i] + ". " + result.getError().getMessage(), result.getError()));
+			} else if (result.getValue() != null) {
+				conceptAxiomStatements.put(conceptIds[i], result.getValue());
+			}
+		}
+		if (!failures.isEmpty()) {
+			final ConversionException first = failures.get(0);
+			final ConversionException exception = new ConversionException(failures.size() == 1 ? first.getMessage() :
+					first.getMessage() + " Axioms of " + (failures.size() - 1) + " other concepts also failed.", first.getCause());
+			for (ConversionException failure : failures.subList(1, failures.size())) {
+				exception.addSuppressed(failure);
 			}
+			throw exception;
 		}
 		return conceptAxiomStatements;
 	}
 
+	/**
+	 * Converts a batch of OWL Axiom expression Strings, see {@link #convertAxiomToRelationships(String)}.
+	 * Expressions are converted in parallel, each thread using its own parser.
+	 *
+	 * @param axiomExpressions The Axiom expressions to convert.
+	 * @return A result for each expression, in the order given. The result holds the AxiomRepresentation, or null if the axiom type is not supported,
+	 * or the ConversionException if the expression is malformed or of an unexpected structure.
+	 * @throws ConversionException if the batch is interrupted.
+	 */
+	public List<ConversionResult<AxiomRepresentation>> convertAxiomsToRelationships(Collection<String> axiomExpressions) throws ConversionException {
+		return convertInParallel(axiomExpressions, axiomExpression -> {
+			try {
+				return ConversionResult.success(convertAxiomToRelationships(axiomExpression));
+			} catch (ConversionException e) {
+				return ConversionResult.failure(e);
+			} catch (RuntimeException e) {
+				return ConversionResult.failure(new ConversionException("Failed to convert axiom expression '" + axiomExpression + "'.", e));
+			}
+		});
+	}
+
+	/**
+	 * Converts a batch of AxiomRepresentations to OWL Axiom expression Strings, see {@link #convertRelationshipsToAxiom(AxiomRepresentation)}.
+	 * Representations are converted in parallel.
+	 *
+	 * @param representations The AxiomRepresentations to convert.
+	 * @return A result for each representation, in the order given. The result holds the Axiom expression
+	 * or a ConversionException if the representation could not be converted.
+	 * @throws ConversionException if the batch is interrupted.
+	 */
+	public List<ConversionResult<String>> convertRelationshipsToAxioms(Collection<AxiomRepresentation> representations) throws ConversionException {
+		return convertInParallel(representations, representation -> {
+			try {
+				return ConversionResult.success(convertRelationshipsToAxiom(representation));
+			} catch (RuntimeException e) {
+				Long conceptId = representation.getLeftHandSideNamedConcept() != null ? representation.getLeftHandSideNamedConcept() : representation.getRightHandSideNamedConcept();
+				return ConversionResult.failure(new ConversionException("Failed to convert relationships of concept " + conceptId + " to an axiom.", e));
+			}
+		});
+	}
+
+	private <I, O> List<ConversionResult<O>> convertInParallel(Collection<I> items, Function<I, ConversionResult<O>> conversion) throws ConversionException {
+		if (batchConversionThreads <= 1 || items.size() <= 1) {
+			return items.stream().map(conversion).collect(Collectors.toList());
+		}
+		// A new pool for each batch, the pool threads are released when the batch completes and their parsers are kept for reuse
+		ForkJoinPool pool = new ForkJoinPool(batchConversionThreads);
+		try {
+			List<I> itemList = items instanceof List ? (List<I>) items : new ArrayList<>(items);
+			return pool.submit(() -> itemList.parallelStream().map(conversion).collect(Collectors.toList())).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ConversionException("Batch conversion was interrupted.", e);
+		} catch (ExecutionException e) {
+			// Failures of single items are returned as results, anything else is thrown as it would be without threads
+			Throwables.propagateIfPossible(e.getCause());
+			throw new ConversionException("Batch conversion failed.", e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
 	public String convertRelationshipsToAxiom(AxiomRepresentation representation) {
 
 		// Identify and convert object and data property axioms
@@ -182,7 +318,9 @@ public class AxiomRelationshipConversionService {
 	}
 
 	public String axiomToString(OWLLogicalAxiom owlAxiom) {
-		return owlAxiom.toString().replaceAll(CORE_COMPONENT_NAMESPACE_PATTERN, ":$1").replace(") )", "))");
+		StringBuilder builder = new StringBuilder();
+		axiomRenderer.render(owlAxiom, builder);
+		return builder.toString();
 	}
 
 	/**
@@ -199,13 +337,23 @@ public class AxiomRelationshipConversionService {
 	}
 
 	private OWLAxiom convertOwlExpressionToOWLAxiom(String axiomExpression) throws ConversionException {
-		OWLAxiom owlAxiom;
+		AxiomDeserialiser axiomDeserialiser = idleAxiomDeserialisers.poll();
+		if (axiomDeserialiser != null) {
+			idleAxiomDeserialiserCount.decrementAndGet();
+		} else {
+			axiomDeserialiser = new AxiomDeserialiser();
+		}
 		try {
-			owlAxiom = snomedTaxonomyLoader.deserialiseAxiom(axiomExpression);
-		} catch (OWLOntologyCreationException e) {
-			throw new ConversionException("Failed to deserialise axiom expression '" + axiomExpression + "'.");
+			return axiomDeserialiser.deserialiseAxiom(axiomExpression, null);
+		} catch (OWLOntologyCreationException | OWLRuntimeException | IllegalArgumentException e) {
+			throw new ConversionException("Failed to deserialise axiom expression '" + axiomExpression + "'.", e);
+		} finally {
+			if (idleAxiomDeserialiserCount.incrementAndGet() <= Math.max(Runtime.getRuntime().availableProcessors(), batchConversionThreads)) {
+				idleAxiomDeserialisers.add(axiomDeserialiser);
+			} else {
+				idleAxiomDeserialiserCount.decrementAndGet();
+			}
 		}
-		return owlAxiom;
 	}
 
 	private Long getNamedClass(OWLAxiom owlAxiom, OWLClassExpression owlClassExpression, String side) throws ConversionException {
@@ -296,4 +444,18 @@ public class AxiomRelationshipConversionService {
 		OWLObjectProperty namedProperty = expression.getNamedProperty();
 		return SNOMED_ROLE_GROUP_FULL_URI.equals(namedProperty.getIRI().toString());
 	}
+
+	/**
+	 * @param batchConversionThreads threads used by the batch conversion methods, 1 converts on the calling thread. Defaults to the number of processors.
+	 */
+	public void setBatchConversionThreads(int batchConversionThreads) {
+		this.batchConversionThreads = batchConversionThreads;
+	}
+
+	/**
+	 * @param axiomRepresentationCache cache of converted axioms, may be shared between services and kept between runs. Null converts every axiom.
+	 */
+	public void setAxiomRepresentationCache(AxiomRepresentationCache axiomRepresentationCache) {
+		this.axiomRepresentationCache = axiomRepresentationCache;
+	}
 }
@@ -0,0 +1,140 @@
+package org.snomed.otf.owltoolkit.conversion;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.snomed.otf.owltoolkit.domain.AxiomRepresentation;
+import org.snomed.otf.owltoolkit.domain.Relationship;
+import org.snomed.otf.owltoolkit.ontology.render.AxiomHash;
+import org.snomed.otf.owltoolkit.ontology.render.AxiomHasher;
+
+import java.util.*;
+
+/**
+ * Bounded cache of AxiomRepresentations keyed by axiom expression, for use with {@link AxiomRelationshipConversionService#setAxiomRepresentationCache}.
+ * An expression found in the cache is not parsed again, so a long-running service or a later run skips converting unchanged axioms.
+ * The key is the {@link AxiomHash} of the expression as given. For an expression in the canonical short form this is the structural hash
+ * of the axiom, other renderings of the same axiom are cached separately. Only the hash is kept, not the expression.
+ * Once the maximum size is reached axioms are evicted, approximately least recently used first.
+ *
+ * Axioms which are already deserialised are not cached, hashing their canonical form takes longer than converting them.
+ *
+ * Each representation is copied once when it is cached and the same read-only copy is returned to every caller.
+ * Its setters throw UnsupportedOperationException and its relationship maps and lists are unmodifiable.
+ * The relationships are copies owned by the cache and must not be modified.
+ * Instances are thread safe and can be shared between conversion services.
+ */
+public class AxiomRepresentationCache {
+
+	private final Cache<AxiomHash, AxiomRepresentation> cache;
+
+	/**
+	 * @param maximumSize maximum number of axioms held
+	 */
+	public AxiomRepresentationCache(long maximumSize) {
+		cache = CacheBuilder.newBuilder()
+				.maximumSize(maximumSize)
+				.recordStats()
+				.build();
+	}
+
+	AxiomHash createKey(String axiomExpression) {
+		return AxiomHasher.hash(axiomExpression);
+	}
+
+	/**
+	 * @return the read-only cached representation or null if the axiom is not cached
+	 */
+	AxiomRepresentation get(AxiomHash key) {
+		return cache.getIfPresent(key);
+	}
+
+	/**
+	 * Caches a read-only copy of the representation, the representation given is not modified and is not referenced by the cache.
+	 * @return the read-only copy held by the cache
+	 */
+	AxiomRepresentation put(AxiomHash key, AxiomRepresentation representation) {
+		AxiomRepresentation readOnlyCopy = new ReadOnlyAxiomRepresentation(representation);
+		cache.put(key, readOnlyCopy);
+		return readOnlyCopy;
+	}
+
+	private static Map<Integer, List<Relationship>> copy(Map<Integer, List<Relationship>> relationshipGroups) {
+		if (relationshipGroups == null) {
+			return null;
+		}
+		Map<Integer, List<Relationship>> groupsCopy = new HashMap<>();
+		for (Map.Entry<Integer, List<Relationship>> group : relationshipGroups.entrySet()) {
+			List<Relationship> relationshipsCopy = new ArrayList<>(group.getValue().size());
+			for (Relationship relationship : group.getValue()) {
+				relationshipsCopy.add(new Relationship(relationship.getRelationshipId(), relationship.getEffectiveTime(), relationship.getModuleId(),
+						relationship.getTypeId(), relationship.getDestinationId(), relationship.isDestinationNegated(), relationship.getGroup(),
+						relationship.getUnionGroup(), relationship.isUniversal(), relationship.getCharacteristicTypeId()));
+			}
+			groupsCopy.put(group.getKey(), Collections.unmodifiableList(relationshipsCopy));
+		}
+		return Collections.unmodifiableMap(groupsCopy);
+	}
+
+	public long size() {
+		return cache.size();
+	}
+
+	public long getHitCount() {
+		return cache.stats().hitCount();
+	}
+
+	public long getMissCount() {
+		return cache.stats().missCount();
+	}
+
+	public long getEvictionCount() {
+		return cache.stats().evictionCount();
+	}
+
+	/**
+	 * @return hits divided by lookups since the cache was created, 1.0 if there have been no lookups
+	 */
+	public double getHitRate() {
+		return cache.stats().hitRate();
+	}
+
+	public void clear() {
+		cache.invalidateAll();
+	}
+
+	private static final class ReadOnlyAxiomRepresentation extends AxiomRepresentation {
+
+		private ReadOnlyAxiomRepresentation(AxiomRepresentation representation) {
+			super.setPrimitive(representation.isPrimitive());
+			super.setLeftHandSideNamedConcept(representation.getLeftHandSideNamedConcept());
+			super.setLeftHandSideRelationships(copy(representation.getLeftHandSideRelationships()));
+			super.setRightHandSideNamedConcept(representation.getRightHandSideNamedConcept());
+			super.setRightHandSideRelationships(copy(representation.getRightHandSideRelationships()));
+		}
+
+		@Override
+		public void setPrimitive(boolean primitive) {
+			throw new UnsupportedOperationException("Cached axiom representations are read only.");
+		}
+
+		@Override
+		public void setLeftHandSideNamedConcept(Long leftHandSideNamedConcept) {
+			throw new UnsupportedOperationException("Cached axiom representations are read only.");
+		}
+
+		@Override
+		public void setLeftHandSideRelationships(Map<Integer, List<Relationship>> leftHandSideRelationships) {
+			throw new UnsupportedOperationException("Cached axiom representations are read only.");
+		}
+
+		@Override
+		public void setRightHandSideNamedConcept(Long rightHandSideNamedConcept) {
+			throw new UnsupportedOperationException("Cached axiom representations are read only.");
+		}
+
+		@Override
+		public void setRightHandSideRelationships(Map<Integer, List<Relationship>> rightHandSideRelationships) {
+			throw new UnsupportedOperationException("Cached axiom representations are read only.");
+		}
+	}
+}
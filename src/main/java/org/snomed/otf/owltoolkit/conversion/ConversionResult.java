@@ -0,0 +1,50 @@
+package org.snomed.otf.owltoolkit.conversion;
+
+/**
+ * Result of converting one item of a batch, holding either the converted value or the error for that item.
+ * @param <T> type of the converted value
+ */
+public class ConversionResult<T> {
+
+	private final T value;
+	private final ConversionException error;
+
+	private ConversionResult(T value, ConversionException error) {
+		this.value = value;
+		this.error = error;
+	}
+
+	static <T> ConversionResult<T> success(T value) {
+		return new ConversionResult<>(value, null);
+	}
+
+	static <T> ConversionResult<T> failure(ConversionException error) {
+		return new ConversionResult<>(null, error);
+	}
+
+	/**
+	 * @return true if the item was converted, the value may still be null where the single item method would return null.
+	 */
+	public boolean isSuccess() {
+		return error == null;
+	}
+
+	/**
+	 * @return the converted value or null if the item could not be converted.
+	 */
+	public T getValue() {
+		return value;
+	}
+
+	/**
+	 * @return the reason the item could not be converted or null if it was converted.
+	 */
+	public ConversionException getError() {
+		return error;
+	}
+
+	@Override
+	public String toString() {
+		return isSuccess() ? "ConversionResult{value=" + value + "}" : "ConversionResult{error=" + error.getMessage() + "}";
+	}
+}
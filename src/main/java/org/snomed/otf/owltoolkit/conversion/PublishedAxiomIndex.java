@@ -0,0 +1,219 @@
+package org.snomed.otf.owltoolkit.conversion;
+
+import it.unimi.dsi.fastutil.Arrays;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrays;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.objects.ObjectArraySet;
+import org.ihtsdo.otf.snomedboot.factory.ImpotentComponentFactory;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLException;
+import org.semanticweb.owlapi.model.OWLRuntimeException;
+import org.snomed.otf.owltoolkit.constants.Concepts;
+import org.snomed.otf.owltoolkit.ontology.OntologyService;
+import org.snomed.otf.owltoolkit.ontology.render.AxiomHash;
+import org.snomed.otf.owltoolkit.ontology.render.AxiomHasher;
+import org.snomed.otf.owltoolkit.taxonomy.SnomedTaxonomyLoader;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static java.lang.Long.parseLong;
+
+/**
+ * Index of the active axioms of a published snapshot, streamed from the OWL Axiom reference set.
+ * Each axiom is deserialised once and kept only as a structural hash, see {@link AxiomHasher}.
+ * Concept ids and hashes are held in primitive arrays which are sorted by concept id once loading completes,
+ * so the axioms of a concept can be found by binary search or read in concept id order.
+ * The axioms themselves are kept only for concepts which are inactive in either the published or the current release,
+ * these are the axioms written again when a concept is inactivated or reactivated.
+ *
+ * Relies on concepts being loaded before reference set members.
+ */
+final class PublishedAxiomIndex extends ImpotentComponentFactory {
+
+	private static final String ACTIVE = "1";
+
+	private final Map<String, OWLAxiom> currentAxiomsById;
+	private final Set<Long> currentInactiveConcepts;
+
+	private final SnomedTaxonomyLoader axiomDeserialiser = new SnomedTaxonomyLoader();
+	private final AxiomHasher axiomHasher = new AxiomHasher();
+	private final Set<Long> inactiveConcepts = new LongOpenHashSet();
+	private final LongArrayList conceptIds = new LongArrayList();
+	private final LongArrayList hashHighs = new LongArrayList();
+	private final LongArrayList hashLows = new LongArrayList();
+	private long[] sortedConceptIds;
+	private long[] sortedHashHighs;
+	private long[] sortedHashLows;
+	private final Map<AxiomHash, String> axiomIds = new HashMap<>();
+	private final Map<Long, Set<OWLAxiom>> inactiveConceptAxioms = new Long2ObjectOpenHashMap<>();
+
+	private Exception owlParsingExceptionThrown;
+	private String owlParsingExceptionMemberId;
+
+	/**
+	 * @param currentAxiomsById axioms of the current release, published axioms with these ids are not indexed by hash
+	 * @param currentInactiveConcepts inactive concepts of the current release
+	 */
+	PublishedAxiomIndex(Map<String, OWLAxiom> currentAxiomsById, Set<Long> currentInactiveConcepts) {
+		this.currentAxiomsById = currentAxiomsById;
+		this.currentInactiveConcepts = currentInactiveConcepts;
+	}
+
+	@Override
+	public synchronized void newConceptState(String conceptId, String effectiveTime, String active, String moduleId, String definitionStatusId) {
+		if (!ACTIVE.equals(active)) {
+			inactiveConcepts.add(parseLong(conceptId));
+		}
+	}
+
+	@Override
+	public synchronized void newReferenceSetMemberState(String[] fieldNames, String id, String effectiveTime, String active, String moduleId, String refsetId, String referencedComponentId, String... otherValues) {
+		if (refsetId.equals(Concepts.OWL_AXIOM_REFERENCE_SET) && ACTIVE.equals(active) && owlParsingExceptionThrown == null) {
+			try {
+				OWLAxiom owlAxiom = axiomDeserialiser.deserialiseAxiom(otherValues[0]
+						// Replace any remaining outdated role group constants
+						.replace(OntologyService.ROLE_GROUP_OUTDATED_CONSTANT, OntologyService.ROLE_GROUP_SCTID));
+				AxiomHash axiomHash = axiomHasher.hash(owlAxiom);
+				long conceptId = parseLong(referencedComponentId);
+				conceptIds.add(conceptId);
+				hashHighs.add(axiomHash.getHigh());
+				hashLows.add(axiomHash.getLow());
+				if (!currentAxiomsById.containsKey(id)) {
+					axiomIds.put(axiomHash, id);
+				}
+				if (inactiveConcepts.contains(conceptId) || currentInactiveConcepts.contains(conceptId)) {
+					inactiveConceptAxioms.computeIfAbsent(conceptId, k -> new ObjectArraySet<>()).add(owlAxiom);
+				}
+			} catch (OWLException | OWLRuntimeException | IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+				owlParsingExceptionThrown = e;
+				owlParsingExceptionMemberId = id;
+			}
+		}
+	}
+
+	void reportErrors() throws ConversionException {
+		if (owlParsingExceptionThrown != null) {
+			throw new ConversionException("Failed to parse OWL Axiom in reference set member '" + owlParsingExceptionMemberId + "'",
+					owlParsingExceptionThrown);
+		}
+	}
+
+	Set<Long> getInactiveConcepts() {
+		return inactiveConcepts;
+	}
+
+	/**
+	 * Must be called once loading completes, before reading the index.
+	 */
+	synchronized void sortByConcept() {
+		sortedConceptIds = conceptIds.toLongArray();
+		sortedHashHighs = hashHighs.toLongArray();
+		sortedHashLows = hashLows.toLongArray();
+		conceptIds.clear();
+		conceptIds.trim();
+		hashHighs.clear();
+		hashHighs.trim();
+		hashLows.clear();
+		hashLows.trim();
+		Arrays.quickSort(0, sortedConceptIds.length, (a, b) -> {
+			int result = Long.compare(sortedConceptIds[a], sortedConceptIds[b]);
+			if (result == 0) {
+				result = Long.compare(sortedHashHighs[a], sortedHashHighs[b]);
+			}
+			return result != 0 ? result : Long.compare(sortedHashLows[a], sortedHashLows[b]);
+		}, (a, b) -> {
+			swap(sortedConceptIds, a, b);
+			swap(sortedHashHighs, a, b);
+			swap(sortedHashLows, a, b);
+		});
+	}
+
+	/**
+	 * @return number of concepts with at least one active axiom
+	 */
+	int getConceptCount() {
+		int count = 0;
+		for (int i = 0; i < sortedConceptIds.length; i++) {
+			if (i == 0 || sortedConceptIds[i] != sortedConceptIds[i - 1]) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return hashes of the active axioms of the concept or null if the concept has no active axioms
+	 */
+	Set<AxiomHash> getAxiomHashes(long conceptId) {
+		int index = LongArrays.binarySearch(sortedConceptIds, conceptId);
+		if (index < 0) {
+			return null;
+		}
+		// Binary search may land on any of the concept's axioms
+		while (index > 0 && sortedConceptIds[index - 1] == conceptId) {
+			index--;
+		}
+		return getAxiomHashes(index);
+	}
+
+	/**
+	 * @return a cursor reading the hashes of each concept in concept id order
+	 */
+	Cursor cursor() {
+		return new Cursor();
+	}
+
+	private Set<AxiomHash> getAxiomHashes(int from) {
+		Set<AxiomHash> axiomHashes = new ObjectArraySet<>();
+		for (int i = from; i < sortedConceptIds.length && sortedConceptIds[i] == sortedConceptIds[from]; i++) {
+			axiomHashes.add(new AxiomHash(sortedHashHighs[i], sortedHashLows[i]));
+		}
+		return axiomHashes;
+	}
+
+	private static void swap(long[] array, int a, int b) {
+		long value = array[a];
+		array[a] = array[b];
+		array[b] = value;
+	}
+
+	/**
+	 * @return identifiers of published axioms which are not in the current release, by axiom hash
+	 */
+	Map<AxiomHash, String> getAxiomIds() {
+		return axiomIds;
+	}
+
+	/**
+	 * @return active axioms of concepts which are inactive in the published or the current release
+	 */
+	Map<Long, Set<OWLAxiom>> getInactiveConceptAxioms() {
+		return inactiveConceptAxioms;
+	}
+
+	/**
+	 * Reads the hashes of concepts in ascending concept id order, for a sort-merge with another stream in the same order.
+	 */
+	final class Cursor {
+
+		private int position;
+
+		/**
+		 * @param conceptId must not be lower than the concept id of the previous call
+		 * @return hashes of the active axioms of the concept or null if the concept has no active axioms
+		 */
+		Set<AxiomHash> advanceTo(long conceptId) {
+			while (position < sortedConceptIds.length && sortedConceptIds[position] < conceptId) {
+				position++;
+			}
+			if (position < sortedConceptIds.length && sortedConceptIds[position] == conceptId) {
+				return getAxiomHashes(position);
+			}
+			return null;
+		}
+	}
+}
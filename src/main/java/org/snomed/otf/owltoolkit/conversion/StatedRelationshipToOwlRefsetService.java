@@ -3,7 +3,6 @@ package org.snomed.otf.owltoolkit.conversion;
 import org.ihtsdo.otf.snomedboot.ReleaseImportException;
 import org.ihtsdo.otf.snomedboot.factory.ComponentFactory;
 import org.ihtsdo.otf.snomedboot.factory.ImpotentComponentFactory;
-import org.semanticweb.owlapi.functional.renderer.FunctionalSyntaxObjectRenderer;
 import org.semanticweb.owlapi.model.OWLAxiom;
 import org.semanticweb.owlapi.model.OWLOntology;
 import org.semanticweb.owlapi.model.OWLOntologyCreationException;
@@ -13,20 +12,24 @@ import org.snomed.otf.owltoolkit.constants.Concepts;
 import org.snomed.otf.owltoolkit.constants.RF2Headers;
 import org.snomed.otf.owltoolkit.domain.Relationship;
 import org.snomed.otf.owltoolkit.ontology.OntologyService;
+import org.snomed.otf.owltoolkit.ontology.render.AxiomHash;
+import org.snomed.otf.owltoolkit.ontology.render.AxiomHasher;
 import org.snomed.otf.owltoolkit.taxonomy.SnomedTaxonomy;
 import org.snomed.otf.owltoolkit.taxonomy.SnomedTaxonomyBuilder;
 import org.snomed.otf.owltoolkit.util.InputStreamSet;
 import org.snomed.otf.owltoolkit.util.OptionalFileInputStream;
+import org.snomed.otf.owltoolkit.util.ParallelZipOutputStream;
 
+import com.google.common.collect.Iterables;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrays;
 import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 
 import java.io.*;
-import java.nio.charset.Charset;
 import java.util.*;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
 import static java.lang.Long.parseLong;
 
@@ -39,6 +42,11 @@ public class StatedRelationshipToOwlRefsetService {
 	private static final String SCT2_STATED_RELATIONSHIP_DELTA = "sct2_StatedRelationship_Delta_INT_";
 	private static final String OWL_AXIOM_REFSET_DELTA = "sct2_sRefset_OWLAxiomDelta_INT_";
 	private Supplier<String> identifierSupplier = () -> UUID.randomUUID().toString();
+	private int zipCompressionLevel = ParallelZipOutputStream.DEFAULT_COMPRESSION;
+	private int zipCompressionThreads = 1;
+	private int axiomRefsetThreads = 1;
+	private boolean streamingReconcile;
+	private static final int STREAMING_RECONCILE_BATCH_SIZE = 10_000;
 	private static final String TAB = "\t";
 	private final Logger logger = LoggerFactory.getLogger(getClass());
 	
@@ -47,7 +55,7 @@ public class StatedRelationshipToOwlRefsetService {
 			OutputStream rf2DeltaZipResults,
 			String effectiveDate) throws ConversionException, OWLOntologyCreationException, IOException {
 		// Create zip stream
-		try (ZipOutputStream zipOutputStream = new ZipOutputStream(rf2DeltaZipResults)) {
+		try (ParallelZipOutputStream zipOutputStream = newZipOutputStream(rf2DeltaZipResults)) {
 
 			// Load required parts of RF2 into memory, copying existing owl axioms to output file
 			logger.info("Loading RF2 files");
@@ -79,7 +87,7 @@ public class StatedRelationshipToOwlRefsetService {
 	}
 
 	
-	private void outputInactivatedStatedRelationships(ZipOutputStream zipOutputStream, SnomedTaxonomy snomedTaxonomy, Set<Long> conceptIds) throws IOException {
+	private void outputInactivatedStatedRelationships(ParallelZipOutputStream zipOutputStream, SnomedTaxonomy snomedTaxonomy, Set<Long> conceptIds) throws IOException {
 		List<Long> sortedConceptIds = new ArrayList<>(conceptIds);
 		Collections.sort(sortedConceptIds);
 		try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(zipOutputStream))) {
@@ -126,7 +134,7 @@ public class StatedRelationshipToOwlRefsetService {
 			OutputStream rf2DeltaZipResults, String effectiveDate) throws ConversionException, OWLOntologyCreationException, IOException {
 
 		// Create zip stream
-		try (ZipOutputStream zipOutputStream = new ZipOutputStream(rf2DeltaZipResults)) {
+		try (ParallelZipOutputStream zipOutputStream = newZipOutputStream(rf2DeltaZipResults)) {
 
 			// Load required parts of RF2 into memory, copying existing owl axioms to output file
 			logger.info("Loading RF2 files");
@@ -164,7 +172,7 @@ public class StatedRelationshipToOwlRefsetService {
 		// Load required parts of RF2 into memory, copying existing owl axioms to output file
 		logger.info("Loading RF2 files.");
 		// Create delta results zip stream
-		try (ZipOutputStream zipOutputStream = new ZipOutputStream(rf2DeltaZipResults)) {
+		try (ParallelZipOutputStream zipOutputStream = newZipOutputStream(rf2DeltaZipResults)) {
 			AxiomCopier axiomCopier = new AxiomCopier(() -> {
 				try {
 					zipOutputStream.putNextEntry(new ZipEntry(OWL_AXIOM_REFSET_DELTA + effectiveDate + TXT));
@@ -181,17 +189,26 @@ public class StatedRelationshipToOwlRefsetService {
 			OntologyService ontologyService = new OntologyService(neverGroupedRoles);
 			
 			AxiomChangesGenerator generator = new AxiomChangesGenerator();
-			generator.generate(snomedTaxonomy, ontologyService, snomedRf2CompleteOwlSnapshotArchive);
-			
-			OWLOntology ontology = ontologyService.createOntology(snomedTaxonomy);
-			convertAxiomsToReferenceSet(generator, ontologyService, ontology, zipOutputStream, snomedTaxonomy);
+			if (streamingReconcile) {
+				// The ontology is only used to render axioms outside of the SNOMED CT profile so it does not need the axioms of the taxonomy
+				OWLOntology ontology = ontologyService.createOntology(new SnomedTaxonomy());
+				Set<Long> modelComponentIds = getModelComponentIds(snomedTaxonomy);
+				generator.generate(snomedTaxonomy, ontologyService, snomedRf2CompleteOwlSnapshotArchive, STREAMING_RECONCILE_BATCH_SIZE,
+						() -> writeAxiomRefsetRows(generator.getAxiomsIdMap(), generator.getChanges(), generator.getConceptsInactivated(), modelComponentIds,
+								ontology, zipOutputStream, null));
+			} else {
+				generator.generate(snomedTaxonomy, ontologyService, snomedRf2CompleteOwlSnapshotArchive);
+
+				OWLOntology ontology = ontologyService.createOntology(snomedTaxonomy);
+				convertAxiomsToReferenceSet(generator, ontologyService, ontology, zipOutputStream, snomedTaxonomy);
+			}
 			zipOutputStream.closeEntry();
 		}
 	}
 
 	private void convertAxiomsToReferenceSet(AxiomChangesGenerator generator,
 			OntologyService ontologyService, OWLOntology ontology,
-			ZipOutputStream zipOutputStream, SnomedTaxonomy snomedTaxonomy) throws OWLOntologyCreationException, ConversionException {
+			ParallelZipOutputStream zipOutputStream, SnomedTaxonomy snomedTaxonomy) throws OWLOntologyCreationException, ConversionException {
 		
 		convertAxiomsToReferenceSet(generator.getAxiomsIdMap(),
 				generator.getChanges(),
@@ -214,73 +231,32 @@ public class StatedRelationshipToOwlRefsetService {
 			String moduleId) throws OWLOntologyCreationException, ConversionException {
 		
 		try {
-			// Leave stream open so other entries can be written when used as a zip stream
-			BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(outputStream));
-
-			ByteArrayOutputStream functionalSyntaxOutputStream = new ByteArrayOutputStream();
-			OutputStreamWriter functionalSyntaxWriter = new OutputStreamWriter(functionalSyntaxOutputStream, Charset.forName("UTF-8"));
-			FunctionalSyntaxObjectRenderer functionalSyntaxObjectRenderer = new FunctionalSyntaxObjectRenderer(ontology, functionalSyntaxWriter);
-			functionalSyntaxObjectRenderer.setPrefixManager(ontologyService.getSnomedPrefixManager());
-
-			Set<Long> modelComponentIds = snomedTaxonomy.getDescendants(parseLong(Concepts.SNOMED_CT_MODEL_COMPONENT));
-			modelComponentIds.add(parseLong(Concepts.SNOMED_CT_MODEL_COMPONENT));
-			modelComponentIds.add(Concepts.ROOT_LONG);
-
-			for (Long conceptId : changes.keySet()) {
-				for (OWLAxiom owlAxiom : changes.get(conceptId)) {
-					// id	effectiveTime	active	moduleId	refsetId	referencedComponentId	owlExpression
-
-					if (axiomsIdMap == null || !axiomsIdMap.containsKey(owlAxiom)) {
-						writer.write(generateIdentifier());
-					} else {
-						writer.write(axiomsIdMap.get(owlAxiom));
-					}
-					writer.write(TAB);
-
-					// Blank effectiveTime
-					writer.write(TAB);
-
-					// inactivation
-					if (inactiveConcepts != null && inactiveConcepts.contains(conceptId)) {
-						writer.write("0");
-					} else {
-						writer.write("1");
-					}
-					writer.write(TAB);
-
-					// Module
-					if (moduleId != null && !moduleId.isEmpty()) {
-						writer.write(moduleId);
-					} else {
-						writer.write(modelComponentIds.contains(conceptId) ? Concepts.SNOMED_CT_MODEL_COMPONENT_MODULE : Concepts.SNOMED_CT_CORE_MODULE);
-					}
-					writer.write(TAB);
-
-					// RefsetId
-					writer.write(Concepts.OWL_AXIOM_REFERENCE_SET);
-					writer.write(TAB);
-
-					// referencedComponentId
-					writer.write(conceptId + "");
-					writer.write(TAB);
-
-					// OWL Expression
-					// Render Axiom
-					owlAxiom.accept(functionalSyntaxObjectRenderer);
-					functionalSyntaxWriter.flush();
-					// Write axiom string to file
-					writer.write(functionalSyntaxOutputStream.toString());
-					functionalSyntaxOutputStream.reset();
-					writer.newLine();
-				}
-			}
-			writer.flush();
+			writeAxiomRefsetRows(axiomsIdMap, changes, inactiveConcepts, getModelComponentIds(snomedTaxonomy), ontology, outputStream, moduleId);
 		} catch (IOException e) {
 			throw new ConversionException("Failed to write to OWL Reference Set output file.", e);
 		}
 		
 	}
 
+	private void writeAxiomRefsetRows(Map<OWLAxiom, String> axiomsIdMap, Map<Long, Set<OWLAxiom>> changes, Set<Long> inactiveConcepts,
+			Set<Long> modelComponentIds, OWLOntology ontology, OutputStream outputStream, String moduleId) throws IOException {
+
+		// Leave stream open so other entries can be written when used as a zip stream
+		BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(outputStream));
+
+		// Rows are written in concept id order
+		new AxiomRefsetWriter(axiomsIdMap, changes, inactiveConcepts, modelComponentIds, moduleId, identifierSupplier, ontology)
+				.write(writer, axiomRefsetThreads);
+		writer.flush();
+	}
+
+	private Set<Long> getModelComponentIds(SnomedTaxonomy snomedTaxonomy) {
+		Set<Long> modelComponentIds = snomedTaxonomy.getDescendants(parseLong(Concepts.SNOMED_CT_MODEL_COMPONENT));
+		modelComponentIds.add(parseLong(Concepts.SNOMED_CT_MODEL_COMPONENT));
+		modelComponentIds.add(Concepts.ROOT_LONG);
+		return modelComponentIds;
+	}
+
 	
 	SnomedTaxonomy readSnomedTaxonomy(InputStreamSet snapshotInputStreamSet , OptionalFileInputStream deltaStream,
 			ComponentFactory publishedStatedRelationshipInactivatorAndDataCollector, ComponentFactory axiomDeltaCopier) throws ConversionException {
@@ -377,19 +353,15 @@ public class StatedRelationshipToOwlRefsetService {
 		private final Logger logger = LoggerFactory.getLogger(getClass());
 
 		public void generate(SnomedTaxonomy snomedTaxonomy, OntologyService ontologyService, InputStream snomedRf2CompleteOwlSnapshotArchive) throws ConversionException {
-			//load published complete owl
+			//stream published complete owl, axioms are compared using their hash
 			logger.info("Loading complete owl snapshot files ..");
-			SnomedTaxonomy completeOwlTaxonomy = readSnomedTaxonomyWithoutRelationships(snomedRf2CompleteOwlSnapshotArchive);
-			logger.info("Total concepts loaded with axioms:" + completeOwlTaxonomy.getConceptAxiomMap().keySet().size());
-			
-			for (String id : completeOwlTaxonomy.getAxiomsById().keySet()) {
-				if (!snomedTaxonomy.getAxiomsById().containsKey(id)) {
-					publishedAxiomsIdMap.put(completeOwlTaxonomy.getAxiomsById().get(id), id);
-				}
-			}
+			PublishedAxiomIndex published = readPublishedAxioms(snomedRf2CompleteOwlSnapshotArchive, snomedTaxonomy);
+			Map<AxiomHash, String> publishedAxiomIds = published.getAxiomIds();
+			logger.info("Total concepts loaded with axioms:" + published.getConceptCount());
 						
 			//convert stated relationships
 			Map<Long, Set<OWLAxiom>> axiomsFromStatedRelationships = ontologyService.createAxiomsFromStatedRelationships(snomedTaxonomy);
+			AxiomHasher axiomHasher = new AxiomHasher();
 			int newlyAdded = 0;
 			int modifiedTotal = 0;
 			int inactivation = 0;
@@ -398,16 +370,21 @@ public class StatedRelationshipToOwlRefsetService {
 			Set<Long> modifiedConcept = new LongOpenHashSet();
 			for (Long conceptId : axiomsFromStatedRelationships.keySet()) {
 				
-				if (completeOwlTaxonomy.getConceptAxiomMap().keySet().contains(conceptId)) {
+				Set<AxiomHash> publishedAxiomHashes = published.getAxiomHashes(conceptId);
+				if (publishedAxiomHashes != null) {
 					//check any changes
-					OWLAxiom modified = findChanges(publishedAxiomsIdMap, completeOwlTaxonomy.getConceptAxiomMap().get(conceptId),
-														axiomsFromStatedRelationships.get(conceptId));
-					if (modified != null) {
+					Map<AxiomHash, OWLAxiom> currentFromStated = new LinkedHashMap<>();
+					for (OWLAxiom owlAxiom : axiomsFromStatedRelationships.get(conceptId)) {
+						currentFromStated.put(axiomHasher.hash(owlAxiom), owlAxiom);
+					}
+					AxiomHash modifiedHash = findChanges(publishedAxiomIds, publishedAxiomHashes, currentFromStated.keySet());
+					if (modifiedHash != null) {
+						OWLAxiom modified = currentFromStated.get(modifiedHash);
 						logger.debug("Axiom modified for concept " + conceptId);
 						changes.computeIfAbsent(conceptId, k -> new HashSet<OWLAxiom>()).add(modified);
 						modifiedConcept.add(conceptId);
 						modifiedTotal++;
-						if (!publishedAxiomsIdMap.containsKey(modified)) {
+						if (!publishedAxiomIds.containsKey(modifiedHash)) {
 							logger.error("No published UUID for modified axiom" + modified);
 						}
 					}
@@ -421,23 +398,36 @@ public class StatedRelationshipToOwlRefsetService {
 			}
 			
 			//inactivation
+			Map<Long, Set<OWLAxiom>> publishedInactiveConceptAxioms = published.getInactiveConceptAxioms();
 			inactivatedConcepts = new LongOpenHashSet(snomedTaxonomy.getInactivatedConcepts());
-			inactivatedConcepts.removeAll(completeOwlTaxonomy.getInactivatedConcepts());
+			inactivatedConcepts.removeAll(published.getInactiveConcepts());
 			for (Long conceptId : inactivatedConcepts) {
-				changes.put(conceptId, completeOwlTaxonomy.getConceptAxiomMap().get(conceptId));
-				inactivation += completeOwlTaxonomy.getConceptAxiomMap().get(conceptId).size();
+				if (publishedInactiveConceptAxioms.containsKey(conceptId)) {
+					changes.put(conceptId, publishedInactiveConceptAxioms.get(conceptId));
+					inactivation += publishedInactiveConceptAxioms.get(conceptId).size();
+				}
 			}
 			logger.info("Concepts inactivated:" + inactivatedConcepts);
 
 			//re-activation
-			Set<Long> reActivations = new LongOpenHashSet(completeOwlTaxonomy.getInactivatedConcepts());
+			Set<Long> reActivations = new LongOpenHashSet(published.getInactiveConcepts());
 			reActivations.removeAll(snomedTaxonomy.getInactivatedConcepts());
 			
 			logger.info("Concepts re-activated:" + reActivations);
 			
 			for (Long conceptId : reActivations) {
-				if (completeOwlTaxonomy.getConceptAxiomMap().containsKey(conceptId)) {
-					changes.put(conceptId, completeOwlTaxonomy.getConceptAxiomMap().get(conceptId));
+				if (publishedInactiveConceptAxioms.containsKey(conceptId)) {
+					changes.put(conceptId, publishedInactiveConceptAxioms.get(conceptId));
+				}
+			}
+
+			// Published identifiers are only needed for the axioms being written
+			for (Set<OWLAxiom> owlAxioms : changes.values()) {
+				for (OWLAxiom owlAxiom : owlAxioms) {
+					String id = publishedAxiomIds.get(axiomHasher.hash(owlAxiom));
+					if (id != null) {
+						publishedAxiomsIdMap.put(owlAxiom, id);
+					}
 				}
 			}
 			
@@ -448,12 +438,124 @@ public class StatedRelationshipToOwlRefsetService {
 			logger.info("Modified concepts:" + modifiedConcept.size());
 		}
 		
-		private SnomedTaxonomy readSnomedTaxonomyWithoutRelationships(InputStream snomedRf2CompleteOwlSnapshotArchive) throws ConversionException{
+		/**
+		 * Streaming form of {@link #generate(SnomedTaxonomy, OntologyService, InputStream)}.
+		 * Axioms converted from stated relationships are created one concept at a time, in concept id order,
+		 * and sort-merged with the published axioms which are read in the same order.
+		 * Changes are collected for batches of concepts, each batch is passed to the batch writer then cleared,
+		 * so the changes and published identifiers held are those of one batch. Batches are in concept id order.
+		 */
+		public void generate(SnomedTaxonomy snomedTaxonomy, OntologyService ontologyService, InputStream snomedRf2CompleteOwlSnapshotArchive,
+				int batchSize, BatchWriter batchWriter) throws ConversionException, IOException {
+
+			logger.info("Loading complete owl snapshot files ..");
+			PublishedAxiomIndex published = readPublishedAxioms(snomedRf2CompleteOwlSnapshotArchive, snomedTaxonomy);
+			Map<AxiomHash, String> publishedAxiomIds = published.getAxiomIds();
+			logger.info("Total concepts loaded with axioms:" + published.getConceptCount());
+
+			// Inactivated and re-activated concepts are known up front, their published axioms replace any converted axioms
+			Map<Long, Set<OWLAxiom>> publishedInactiveConceptAxioms = published.getInactiveConceptAxioms();
+			inactivatedConcepts = new LongOpenHashSet(snomedTaxonomy.getInactivatedConcepts());
+			inactivatedConcepts.removeAll(published.getInactiveConcepts());
+			logger.info("Concepts inactivated:" + inactivatedConcepts);
+			Set<Long> reActivations = new LongOpenHashSet(published.getInactiveConcepts());
+			reActivations.removeAll(snomedTaxonomy.getInactivatedConcepts());
+			logger.info("Concepts re-activated:" + reActivations);
+			LongArrayList replacedConceptIds = new LongArrayList();
+			for (Long conceptId : Iterables.concat(inactivatedConcepts, reActivations)) {
+				if (publishedInactiveConceptAxioms.containsKey(conceptId)) {
+					replacedConceptIds.add(conceptId);
+				}
+			}
+			long[] sortedReplacedConceptIds = replacedConceptIds.toLongArray();
+			LongArrays.quickSort(sortedReplacedConceptIds);
+
+			PublishedAxiomIndex.Cursor publishedCursor = published.cursor();
+			AxiomHasher axiomHasher = new AxiomHasher();
+			int[] replacedPosition = {0};
+			int[] counts = new int[3];
+			try {
+				ontologyService.createAxiomsFromStatedRelationships(snomedTaxonomy, null, (conceptId, axiomsFromStatedRelationships) -> {
+					// Merge in replaced concepts which come before this one
+					while (replacedPosition[0] < sortedReplacedConceptIds.length && sortedReplacedConceptIds[replacedPosition[0]] <= conceptId) {
+						long replacedConceptId = sortedReplacedConceptIds[replacedPosition[0]++];
+						changes.put(replacedConceptId, publishedInactiveConceptAxioms.get(replacedConceptId));
+						if (replacedConceptId == conceptId) {
+							return;
+						}
+					}
+
+					Set<AxiomHash> publishedAxiomHashes = publishedCursor.advanceTo(conceptId);
+					if (publishedAxiomHashes != null) {
+						//check any changes
+						Map<AxiomHash, OWLAxiom> currentFromStated = new LinkedHashMap<>();
+						for (OWLAxiom owlAxiom : axiomsFromStatedRelationships) {
+							currentFromStated.put(axiomHasher.hash(owlAxiom), owlAxiom);
+						}
+						AxiomHash modifiedHash = findChanges(publishedAxiomIds, publishedAxiomHashes, currentFromStated.keySet());
+						if (modifiedHash != null) {
+							OWLAxiom modified = currentFromStated.get(modifiedHash);
+							logger.debug("Axiom modified for concept " + conceptId);
+							changes.computeIfAbsent(conceptId, k -> new HashSet<OWLAxiom>()).add(modified);
+							counts[0]++;
+							if (!publishedAxiomIds.containsKey(modifiedHash)) {
+								logger.error("No published UUID for modified axiom" + modified);
+							}
+						}
+					} else {
+						// axioms for new concept
+						logger.debug("Axioms added for new concept " + conceptId);
+						changes.computeIfAbsent(conceptId, k -> new HashSet<OWLAxiom>()).addAll(axiomsFromStatedRelationships);
+						counts[1] += axiomsFromStatedRelationships.size();
+					}
+
+					if (changes.size() >= batchSize) {
+						writeBatch(publishedAxiomIds, axiomHasher, batchWriter);
+					}
+				});
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
+			}
+			while (replacedPosition[0] < sortedReplacedConceptIds.length) {
+				long replacedConceptId = sortedReplacedConceptIds[replacedPosition[0]++];
+				changes.put(replacedConceptId, publishedInactiveConceptAxioms.get(replacedConceptId));
+			}
+			writeBatch(publishedAxiomIds, axiomHasher, batchWriter);
+
+			logger.info("Modified changes:" + counts[0] + " added for new concept changes:" + counts[1]);
+		}
+
+		private void writeBatch(Map<AxiomHash, String> publishedAxiomIds, AxiomHasher axiomHasher, BatchWriter batchWriter) {
+			if (changes.isEmpty()) {
+				return;
+			}
+			for (Set<OWLAxiom> owlAxioms : changes.values()) {
+				for (OWLAxiom owlAxiom : owlAxioms) {
+					String id = publishedAxiomIds.get(axiomHasher.hash(owlAxiom));
+					if (id != null) {
+						publishedAxiomsIdMap.put(owlAxiom, id);
+					}
+				}
+			}
 			try {
-				return new SnomedTaxonomyBuilder().buildWithAxiomRefset(new InputStreamSet(snomedRf2CompleteOwlSnapshotArchive));
+				batchWriter.write();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			changes.clear();
+			publishedAxiomsIdMap.clear();
+		}
+
+		private PublishedAxiomIndex readPublishedAxioms(InputStream snomedRf2CompleteOwlSnapshotArchive, SnomedTaxonomy snomedTaxonomy) throws ConversionException {
+			PublishedAxiomIndex published = new PublishedAxiomIndex(snomedTaxonomy.getAxiomsById(), snomedTaxonomy.getInactivatedConcepts());
+			try {
+				new SnomedTaxonomyBuilder().loadAxiomRefset(new InputStreamSet(snomedRf2CompleteOwlSnapshotArchive), published);
 			} catch (ReleaseImportException e) {
 				throw new ConversionException("Failed to load RF2 archive.", e);
 			}
+			published.reportErrors();
+			published.sortByConcept();
+			return published;
 		}
 		
 		public Set<Long> getConceptsInactivated() {
@@ -464,14 +566,30 @@ public class StatedRelationshipToOwlRefsetService {
 			return this.changes;
 		}
 
+		/**
+		 * @return identifiers of published axioms which are written again
+		 */
 		public Map<OWLAxiom, String> getAxiomsIdMap() {
 			return this.publishedAxiomsIdMap;
 		}
 
-		OWLAxiom findChanges(Map<OWLAxiom, String> owlAxiomIdMap, Set<OWLAxiom> previous, Set<OWLAxiom> currentFromStated) {
-			Set<OWLAxiom> previousAxiomFromStated = previous
+		interface BatchWriter {
+			/**
+			 * Writes the current batch, available from {@link #getChanges()} and {@link #getAxiomsIdMap()}.
+			 */
+			void write() throws IOException;
+		}
+
+		/**
+		 * @param axiomIdMap identifiers of published axioms, updated with the identifier reused for a modified axiom
+		 * @param previous published axioms of the concept
+		 * @param currentFromStated axioms of the concept converted from stated relationships
+		 * @return the new or modified axiom or null if there is no change
+		 */
+		<T> T findChanges(Map<T, String> axiomIdMap, Set<T> previous, Set<T> currentFromStated) {
+			Set<T> previousAxiomFromStated = previous
 					.stream()
-					.filter(a -> owlAxiomIdMap.containsKey(a))
+					.filter(a -> axiomIdMap.containsKey(a))
 					.collect(Collectors.toSet());
 			if (previousAxiomFromStated.isEmpty()) {
 				//newly added
@@ -480,7 +598,7 @@ public class StatedRelationshipToOwlRefsetService {
 			} else {
 				if (!previousAxiomFromStated.iterator().next().equals(currentFromStated.iterator().next())) {
 					//modified
-					owlAxiomIdMap.put(currentFromStated.iterator().next(), owlAxiomIdMap.get(previousAxiomFromStated.iterator().next()));
+					axiomIdMap.put(currentFromStated.iterator().next(), axiomIdMap.get(previousAxiomFromStated.iterator().next()));
 					return currentFromStated.iterator().next();
 				}
 			}
@@ -520,7 +638,7 @@ public class StatedRelationshipToOwlRefsetService {
 		private final BufferedWriter writer;
 		private final List<IOException> exceptionsThrown;
 		
-		public PublishedStatedRelationshipInactivator(ZipOutputStream zipOutputStream) throws IOException {
+		public PublishedStatedRelationshipInactivator(ParallelZipOutputStream zipOutputStream) throws IOException {
 			writer = new BufferedWriter(new OutputStreamWriter(zipOutputStream));
 			writer.write(RF2Headers.RELATIONSHIP_HEADER);
 			writer.newLine();
@@ -547,6 +665,11 @@ public class StatedRelationshipToOwlRefsetService {
 		}
 	}
 
+	/**
+	 * Copies OWL Axiom reference set rows of the delta to the output with a blank effective time.
+	 * Rows are written from the fields snomed-boot has already split while loading the delta. Copying the raw lines instead
+	 * would mean inflating and scanning the delta archive a second time, so it is not cheaper.
+	 */
 	private static class AxiomCopier extends ImpotentComponentFactory {
 
 		private final Supplier<BufferedWriter> startFunction;
@@ -604,11 +727,40 @@ public class StatedRelationshipToOwlRefsetService {
 		}
 	}
 
-	private String generateIdentifier() {
-		return identifierSupplier.get();
-	}
-
 	public void setIdentifierSupplier(Supplier<String> identifierSupplier) {
 		this.identifierSupplier = identifierSupplier;
 	}
+
+	/**
+	 * @param zipCompressionLevel deflate level used for output archives from 0 to 9, or -1 for the default level. 0 writes the data without compression.
+	 */
+	public void setZipCompressionLevel(int zipCompressionLevel) {
+		this.zipCompressionLevel = zipCompressionLevel;
+	}
+
+	/**
+	 * @param zipCompressionThreads threads used to compress output archives, 1 compresses on the thread writing the output
+	 */
+	public void setZipCompressionThreads(int zipCompressionThreads) {
+		this.zipCompressionThreads = zipCompressionThreads;
+	}
+
+	/**
+	 * @param axiomRefsetThreads threads used to render OWL Axiom reference set rows, 1 renders on the thread writing the output
+	 */
+	public void setAxiomRefsetThreads(int axiomRefsetThreads) {
+		this.axiomRefsetThreads = axiomRefsetThreads;
+	}
+
+	/**
+	 * @param streamingReconcile reconcile with the published archive one concept at a time, in concept id order, rather than converting all concepts first.
+	 * Uses less memory, the output is the same.
+	 */
+	public void setStreamingReconcile(boolean streamingReconcile) {
+		this.streamingReconcile = streamingReconcile;
+	}
+
+	private ParallelZipOutputStream newZipOutputStream(OutputStream outputStream) {
+		return new ParallelZipOutputStream(outputStream, zipCompressionLevel, zipCompressionThreads);
+	}
 }
@@ -0,0 +1,188 @@
+package org.snomed.otf.owltoolkit.normalform;
+
+import it.unimi.dsi.fastutil.longs.*;
+import org.snomed.otf.owltoolkit.classification.ReasonerTaxonomy;
+import org.snomed.otf.owltoolkit.domain.AxiomRepresentation;
+import org.snomed.otf.owltoolkit.domain.Relationship;
+import org.snomed.otf.owltoolkit.ontology.PropertyChain;
+import org.snomed.otf.owltoolkit.taxonomy.SnomedTaxonomy;
+
+import java.util.*;
+
+import static org.snomed.otf.owltoolkit.constants.Concepts.IS_A_LONG;
+
+/**
+ * Finds the concepts whose normal form may differ from their existing inferred relationships after a change.
+ *
+ * A concept is affected if:
+ * <ul>
+ * <li>its stated definition, axioms or inferred relationships were changed,</li>
+ * <li>its inferred parents have changed,</li>
+ * <li>one of its relationships uses an attribute or value which has different ancestors,</li>
+ * <li>one of its relationships may be made redundant through a property chain over a changed transitive hierarchy,</li>
+ * <li>or it is a descendant of an affected concept in the new or the previous inferred hierarchy.</li>
+ * </ul>
+ * All other concepts are expected to already have inferred relationships in normal form so these can be used in place of
+ * generating the normal form again.
+ */
+final class AffectedConceptCollector {
+
+	private final ReasonerTaxonomy reasonerTaxonomy;
+	private final SnomedTaxonomy snomedTaxonomy;
+	private final Map<Long, Set<AxiomRepresentation>> conceptAxiomStatementMap;
+	private final Set<PropertyChain> propertyChains;
+
+	AffectedConceptCollector(ReasonerTaxonomy reasonerTaxonomy, SnomedTaxonomy snomedTaxonomy,
+			Map<Long, Set<AxiomRepresentation>> conceptAxiomStatementMap, Set<PropertyChain> propertyChains) {
+
+		this.reasonerTaxonomy = reasonerTaxonomy;
+		this.snomedTaxonomy = snomedTaxonomy;
+		this.conceptAxiomStatementMap = conceptAxiomStatementMap;
+		this.propertyChains = propertyChains;
+	}
+
+	LongSet collect(Set<Long> changedConceptIds) {
+		final List<Long> conceptIds = reasonerTaxonomy.getConceptIds();
+		final List<Long> attributeIds = reasonerTaxonomy.getAttributeIds();
+		final Long2ObjectMap<LongSet> children = new Long2ObjectOpenHashMap<>();
+		addChildren(conceptIds, children);
+		addChildren(attributeIds, children);
+
+		// Concepts with different parents have different ancestors, as do all of their descendants
+		final LongSet ancestryChanged = new LongOpenHashSet();
+		for (Long conceptId : conceptIds) {
+			if (!reasonerTaxonomy.getParents(conceptId).equals(getPreviousParents(conceptId))) {
+				ancestryChanged.add((long) conceptId);
+			}
+		}
+		for (Long attributeId : attributeIds) {
+			if (!reasonerTaxonomy.getParents(attributeId).equals(getPreviousParents(attributeId))) {
+				ancestryChanged.add((long) attributeId);
+			}
+		}
+		addDescendants(ancestryChanged, children);
+
+		final LongSet affected = new LongOpenHashSet(ancestryChanged);
+		for (Long changedConceptId : changedConceptIds) {
+			affected.add((long) changedConceptId);
+		}
+
+		// Redundancy between relationships depends on the ancestors of attributes and values
+		final Long2ObjectMap<LongSet> referencingConcepts = new Long2ObjectOpenHashMap<>();
+		final Long2ObjectMap<LongSet> conceptsByType = new Long2ObjectOpenHashMap<>();
+		for (Long conceptId : conceptIds) {
+			for (Relationship relationship : getAllRelationships(conceptId)) {
+				if (relationship.getTypeId() != IS_A_LONG) {
+					referencingConcepts.computeIfAbsent(relationship.getDestinationId(), id -> new LongOpenHashSet()).add((long) conceptId);
+					referencingConcepts.computeIfAbsent(relationship.getTypeId(), id -> new LongOpenHashSet()).add((long) conceptId);
+					conceptsByType.computeIfAbsent(relationship.getTypeId(), id -> new LongOpenHashSet()).add((long) conceptId);
+				}
+			}
+		}
+		for (LongIterator iterator = ancestryChanged.iterator(); iterator.hasNext(); ) {
+			affected.addAll(referencingConcepts.getOrDefault(iterator.nextLong(), LongSets.EMPTY_SET));
+		}
+		addDescendants(affected, children);
+
+		// Property chain redundancy uses the transitive hierarchies built from the normal form of all concepts.
+		// If an affected concept may contribute to one of these hierarchies then every concept using the related chains is affected.
+		final Set<Long> changedChainDestinationTypes = new HashSet<>();
+		for (PropertyChain propertyChain : propertyChains) {
+			if (!changedChainDestinationTypes.contains(propertyChain.getDestinationType())
+					&& anyContributesToTransitiveHierarchy(affected, conceptsByType.getOrDefault((long) propertyChain.getDestinationType(), LongSets.EMPTY_SET))) {
+				changedChainDestinationTypes.add(propertyChain.getDestinationType());
+			}
+		}
+		if (!changedChainDestinationTypes.isEmpty()) {
+			for (PropertyChain propertyChain : propertyChains) {
+				if (changedChainDestinationTypes.contains(propertyChain.getDestinationType())) {
+					affected.addAll(conceptsByType.getOrDefault((long) propertyChain.getSourceType(), LongSets.EMPTY_SET));
+					affected.addAll(conceptsByType.getOrDefault((long) propertyChain.getInferredType(), LongSets.EMPTY_SET));
+				}
+			}
+			addDescendants(affected, children);
+		}
+
+		return affected;
+	}
+
+	/**
+	 * An affected concept can only gain or lose edges in a transitive hierarchy if it has a relationship of that type or inherits one from a parent.
+	 * Unaffected parents have their normal form in the existing inferred relationships so a check one level up is enough.
+	 */
+	private boolean anyContributesToTransitiveHierarchy(LongSet affected, LongSet conceptsUsingType) {
+		if (conceptsUsingType.isEmpty()) {
+			return false;
+		}
+		for (LongIterator iterator = affected.iterator(); iterator.hasNext(); ) {
+			final long conceptId = iterator.nextLong();
+			if (conceptsUsingType.contains(conceptId)) {
+				return true;
+			}
+			for (Long parentId : reasonerTaxonomy.getParents(conceptId)) {
+				if (conceptsUsingType.contains((long) parentId)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private Set<Long> getPreviousParents(long conceptId) {
+		final Set<Long> parents = new LongOpenHashSet();
+		for (Relationship relationship : snomedTaxonomy.getInferredRelationships(conceptId)) {
+			if (relationship.getTypeId() == IS_A_LONG) {
+				parents.add(relationship.getDestinationId());
+			}
+		}
+		return parents;
+	}
+
+	private List<Relationship> getAllRelationships(Long conceptId) {
+		final List<Relationship> relationships = new ArrayList<>(snomedTaxonomy.getStatedRelationships(conceptId));
+		relationships.addAll(snomedTaxonomy.getInferredRelationships(conceptId));
+		final Set<AxiomRepresentation> axiomRepresentations = conceptAxiomStatementMap.get(conceptId);
+		if (axiomRepresentations != null) {
+			for (AxiomRepresentation axiomRepresentation : axiomRepresentations) {
+				addAll(axiomRepresentation.getLeftHandSideRelationships(), relationships);
+				addAll(axiomRepresentation.getRightHandSideRelationships(), relationships);
+			}
+		}
+		return relationships;
+	}
+
+	private void addAll(Map<Integer, List<Relationship>> groups, List<Relationship> relationships) {
+		if (groups != null) {
+			groups.values().forEach(relationships::addAll);
+		}
+	}
+
+	private void addChildren(List<Long> ids, Long2ObjectMap<LongSet> children) {
+		for (Long id : ids) {
+			for (Long parentId : reasonerTaxonomy.getParents(id)) {
+				children.computeIfAbsent((long) parentId, key -> new LongOpenHashSet()).add((long) id);
+			}
+		}
+	}
+
+	private void addDescendants(LongSet conceptIds, Long2ObjectMap<LongSet> children) {
+		final LongArrayFIFOQueue queue = new LongArrayFIFOQueue();
+		for (LongIterator iterator = conceptIds.iterator(); iterator.hasNext(); ) {
+			queue.enqueue(iterator.nextLong());
+		}
+		while (!queue.isEmpty()) {
+			final long conceptId = queue.dequeueLong();
+			for (LongIterator iterator = children.getOrDefault(conceptId, LongSets.EMPTY_SET).iterator(); iterator.hasNext(); ) {
+				final long childId = iterator.nextLong();
+				if (conceptIds.add(childId)) {
+					queue.enqueue(childId);
+				}
+			}
+			for (Long subTypeId : snomedTaxonomy.getSubTypeIds(conceptId)) {
+				if (conceptIds.add((long) subTypeId)) {
+					queue.enqueue((long) subTypeId);
+				}
+			}
+		}
+	}
+}
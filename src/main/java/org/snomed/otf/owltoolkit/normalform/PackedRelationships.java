@@ -0,0 +1,59 @@
+package org.snomed.otf.owltoolkit.normalform;
+
+import org.snomed.otf.owltoolkit.domain.Relationship;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Encodes relationships into a primitive array, for relationships which are kept for a long time but rarely read.
+ * All fields are kept so that unpacked relationships are equal to the originals.
+ */
+final class PackedRelationships {
+
+	private static final int LONGS_PER_RELATIONSHIP = 7;
+	private static final long UNIVERSAL_FLAG = 1L << 32;
+	private static final long DESTINATION_NEGATED_FLAG = 1L << 33;
+	private static final long INT_MASK = 0xFFFFFFFFL;
+
+	private PackedRelationships() {
+	}
+
+	static long[] pack(Collection<Relationship> relationships) {
+		final long[] packed = new long[relationships.size() * LONGS_PER_RELATIONSHIP];
+		int i = 0;
+		for (Relationship relationship : relationships) {
+			packed[i++] = relationship.getRelationshipId();
+			packed[i++] = relationship.getModuleId();
+			packed[i++] = relationship.getTypeId();
+			packed[i++] = relationship.getDestinationId();
+			packed[i++] = relationship.getCharacteristicTypeId();
+			packed[i++] = (long) relationship.getEffectiveTime() << 32 | (relationship.getGroup() & INT_MASK);
+			packed[i++] = (relationship.getUnionGroup() & INT_MASK)
+					| (relationship.isUniversal() ? UNIVERSAL_FLAG : 0)
+					| (relationship.isDestinationNegated() ? DESTINATION_NEGATED_FLAG : 0);
+		}
+		return packed;
+	}
+
+	static List<Relationship> unpack(long[] packed) {
+		final List<Relationship> relationships = new ArrayList<>(packed.length / LONGS_PER_RELATIONSHIP);
+		for (int i = 0; i < packed.length; i += LONGS_PER_RELATIONSHIP) {
+			final long effectiveTimeAndGroup = packed[i + 5];
+			final long unionGroupAndFlags = packed[i + 6];
+			relationships.add(new Relationship(
+					packed[i],
+					(int) (effectiveTimeAndGroup >>> 32),
+					packed[i + 1],
+					packed[i + 2],
+					packed[i + 3],
+					(unionGroupAndFlags & DESTINATION_NEGATED_FLAG) != 0,
+					(int) effectiveTimeAndGroup,
+					(int) unionGroupAndFlags,
+					(unionGroupAndFlags & UNIVERSAL_FLAG) != 0,
+					packed[i + 4]));
+		}
+		return relationships;
+	}
+}
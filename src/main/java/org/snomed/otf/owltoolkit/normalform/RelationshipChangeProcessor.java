@@ -15,132 +15,152 @@
  */
 package org.snomed.otf.owltoolkit.normalform;
 
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMaps;
 import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 import org.snomed.otf.owltoolkit.constants.Concepts;
 import org.snomed.otf.owltoolkit.domain.Relationship;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Compares two collections of change subjects and calls template methods whenever a removed, added or unmodified
  * element is encountered.
+ * By default changes are collected in memory. If a {@link RelationshipChangeSink} is given then the changes of each concept
+ * are passed on as soon as they are found and only the counts are kept.
  */
 public class RelationshipChangeProcessor {
 
-	private static final Comparator<Relationship> RELATIONSHIP_COMPARATOR_ALL_FIELDS = Comparator
-			.comparing(Relationship::getTypeId)
-			.thenComparing(Relationship::getDestinationId)
-			.thenComparing(Relationship::getGroup)
-			.thenComparing(Relationship::getUnionGroup)
-			.thenComparing(Relationship::isUniversal)
-			.thenComparing(Relationship::isDestinationNegated);
-
-	private static final Comparator<Relationship> RELATIONSHIP_COMPARATOR_WITH_MODULE_ID = Comparator
-			.comparing(Relationship::getTypeId)
-			.thenComparing(Relationship::getDestinationId)
-			.thenComparing(Relationship::getGroup)
-			.thenComparing(Relationship::getUnionGroup)
-			.thenComparing(Relationship::isUniversal)
-			.thenComparing(Relationship::isDestinationNegated)
-			.thenComparing(Relationship::getModuleId, Comparator.reverseOrder());
-
-	private static final Comparator<Relationship> RELATIONSHIP_COMPARATOR_WITHOUT_GROUP = Comparator
-			.comparing(Relationship::getTypeId)
-			.thenComparing(Relationship::getDestinationId)
-			.thenComparing(Relationship::getUnionGroup)
-			.thenComparing(Relationship::isUniversal)
-			.thenComparing(Relationship::isDestinationNegated);
-
+	// Apply may be called concurrently for different concepts
 	private final Map<Long, Set<Relationship>> addedStatements;
 	private final Map<Long, Set<Relationship>> removedStatements;
-	private Long addedCount;
-	private Long updatedCount;
-	private Long removedDueToConceptInactivationCount;
+	private final AtomicLong addedCount;
+	private final AtomicLong updatedCount;
+	private final AtomicLong removedDueToConceptInactivationCount;
+	private final AtomicLong streamedRedundantCount;
+	private final RelationshipChangeSink changeSink;
 
 	public RelationshipChangeProcessor() {
-		addedCount = 0L;
-		updatedCount = 0L;
-		removedDueToConceptInactivationCount = 0L;
-		addedStatements = new Long2ObjectOpenHashMap<>();
-		removedStatements = new Long2ObjectOpenHashMap<>();
+		this(null);
+	}
+
+	/**
+	 * @param changeSink receives the changes of each concept instead of these being collected, may be null
+	 */
+	public RelationshipChangeProcessor(RelationshipChangeSink changeSink) {
+		addedCount = new AtomicLong();
+		updatedCount = new AtomicLong();
+		removedDueToConceptInactivationCount = new AtomicLong();
+		streamedRedundantCount = new AtomicLong();
+		addedStatements = Long2ObjectMaps.synchronize(new Long2ObjectOpenHashMap<>());
+		removedStatements = Long2ObjectMaps.synchronize(new Long2ObjectOpenHashMap<>());
+		this.changeSink = changeSink;
 	}
 
 	public void apply(final long conceptId, final Collection<Relationship> existingRelationships, final Collection<Relationship> newRelationships) {
 
-		final List<Relationship> sortedOld = newSortedList(existingRelationships, RELATIONSHIP_COMPARATOR_ALL_FIELDS);
-		final List<Relationship> sortedNew = newSortedList(newRelationships, RELATIONSHIP_COMPARATOR_ALL_FIELDS);
+		// Both sides are sorted once by type, destination, group, union group, universal and negated then compared by merging.
+		// Existing relationships with the same key are visited in module id descending order so the first one found is kept.
+		final SortedRelationshipKeys sortedOld = new SortedRelationshipKeys(existingRelationships, true);
+		final SortedRelationshipKeys sortedNew = new SortedRelationshipKeys(newRelationships, false);
+		final int oldSize = sortedOld.size();
+		final int newSize = sortedNew.size();
 
-		final Map<Relationship, Relationship> updatedRelationshipNewOldMap = new HashMap<>();
-		final Set<Integer> uniqueIndex = new HashSet<>();
+		// Index of the existing relationship to update for each new relationship, created if needed
+		int[] updatedOldIndexes = null;
+		Int2IntMap newGroupSizes = null;
+		final Set<Relationship> addedOrUpdated = new HashSet<>();
+		final Set<Relationship> removed = new HashSet<>();
 
 		// For each existing relationship if it can not be found in the new set mark it as removed
-		for (final Relationship oldSubject : newSortedList(existingRelationships, RELATIONSHIP_COMPARATOR_WITH_MODULE_ID)) {
-			final int i = Collections.binarySearch(sortedNew, oldSubject, RELATIONSHIP_COMPARATOR_ALL_FIELDS);
-			if (i < 0) {
-				// Handle the case where existing self grouped relationships are being moved out of group 0.
-				// This will happen as editions move from stated relationships to OWL axioms.
-				if (oldSubject.getGroup() == 0 && oldSubject.getTypeId() != Concepts.IS_A_LONG) {
-					final int y = Collections.binarySearch(sortedNew, oldSubject, RELATIONSHIP_COMPARATOR_WITHOUT_GROUP);
-					if (y >= 0) {
-						// If this is the only relationship in the group we will update the group number.
-
-						int newGroup = sortedNew.get(y).getGroup();
-						int relationshipsInGroupCount = 0;
-						for (Relationship relationship : sortedNew) {
-							if (relationship.getGroup() == newGroup) {
-								relationshipsInGroupCount++;
-							}
+		int newIndex = 0;
+		for (int oldIndex = 0; oldIndex < oldSize; oldIndex++) {
+			final Relationship oldSubject = sortedOld.get(oldIndex);
+			while (newIndex < newSize && sortedNew.compare(newIndex, sortedOld, oldIndex) < 0) {
+				newIndex++;
+			}
+			if (newIndex < newSize && sortedNew.compare(newIndex, sortedOld, oldIndex) == 0) {
+				if (oldIndex > 0 && sortedOld.compare(oldIndex - 1, sortedOld, oldIndex) == 0) {
+					// Existing relationship is a duplicate
+					handleRedundantRelationship(removed, oldSubject);
+				}
+				continue;
+			}
+
+			// Handle the case where existing self grouped relationships are being moved out of group 0.
+			// This will happen as editions move from stated relationships to OWL axioms.
+			if (oldSubject.getGroup() == 0 && oldSubject.getTypeId() != Concepts.IS_A_LONG) {
+				final int y = sortedNew.binarySearchWithoutGroup(sortedOld, oldIndex);
+				if (y >= 0) {
+					// If this is the only relationship in the group we will update the group number.
+					if (newGroupSizes == null) {
+						newGroupSizes = new Int2IntOpenHashMap();
+						for (int i = 0; i < newSize; i++) {
+							newGroupSizes.put(sortedNew.getGroup(i), newGroupSizes.get(sortedNew.getGroup(i)) + 1);
 						}
-						if (relationshipsInGroupCount == 1) {
-							//check that new relationship with group change exists already or not
-							int z = Collections.binarySearch(sortedOld, sortedNew.get(y), RELATIONSHIP_COMPARATOR_ALL_FIELDS);
-							if (z < 0) {
-								// Update existing relationship rather than creating new
-								updatedRelationshipNewOldMap.put(sortedNew.get(y), oldSubject);
-								continue;
+					}
+					if (newGroupSizes.get(sortedNew.getGroup(y)) == 1) {
+						//check that new relationship with group change exists already or not
+						if (!sortedOld.contains(sortedNew, y)) {
+							// Update existing relationship rather than creating new
+							if (updatedOldIndexes == null) {
+								updatedOldIndexes = new int[newSize];
+								Arrays.fill(updatedOldIndexes, -1);
 							}
+							updatedOldIndexes[y] = oldIndex;
+							continue;
 						}
-						// We keep the relationship ID when just the relationship group number changes
-						// but if the triple joins another group of relationships we need to make this one inactive and recreate.
 					}
+					// We keep the relationship ID when just the relationship group number changes
+					// but if the triple joins another group of relationships we need to make this one inactive and recreate.
 				}
-				handleRedundantRelationship(conceptId, oldSubject);
-			} else if (!uniqueIndex.add(i)) {
-				// Existing relationship is a duplicate
-				handleRedundantRelationship(conceptId, oldSubject);
 			}
+			handleRedundantRelationship(removed, oldSubject);
 		}
 
 		// For each relationship in the new set if it does not match one in the old set mark is as added
-		for (final Relationship newMini : sortedNew) {
-			if (updatedRelationshipNewOldMap.containsKey(newMini)) {
+		int oldIndex = 0;
+		for (newIndex = 0; newIndex < newSize; newIndex++) {
+			final Relationship newMini = sortedNew.get(newIndex);
+			if (updatedOldIndexes != null && updatedOldIndexes[newIndex] != -1) {
 				// Update existing relationship
-				Relationship existingRelationship = updatedRelationshipNewOldMap.get(newMini);
+				Relationship existingRelationship = sortedOld.get(updatedOldIndexes[newIndex]);
 				existingRelationship.setGroup(newMini.getGroup());
-				handleAddedOrChangedRelationship(conceptId, existingRelationship);
-				updatedCount++;
-			} else if (Collections.binarySearch(sortedOld, newMini, RELATIONSHIP_COMPARATOR_ALL_FIELDS) < 0) {
+				addedOrUpdated.add(existingRelationship);
+				updatedCount.incrementAndGet();
+				continue;
+			}
+			while (oldIndex < oldSize && sortedOld.compare(oldIndex, sortedNew, newIndex) < 0) {
+				oldIndex++;
+			}
+			if (oldIndex == oldSize || sortedOld.compare(oldIndex, sortedNew, newIndex) != 0) {
 				newMini.clearId();// Make sure stated relationship ids don't get through into new inferred relationship results
-				handleAddedOrChangedRelationship(conceptId, newMini);
-				addedCount++;
+				addedOrUpdated.add(newMini);
+				addedCount.incrementAndGet();
 			}
 		}
-	}
-
-	private List<Relationship> newSortedList(Collection<Relationship> relationships, Comparator<Relationship> comparator) {
-		final List<Relationship> sortedOld = new ArrayList<>(relationships);
-		sortedOld.sort(comparator);
-		return sortedOld;
-	}
 
-	private void handleAddedOrChangedRelationship(long conceptId, Relationship addedSubject) {
-		addedStatements.computeIfAbsent(conceptId, k -> new HashSet<>()).add(addedSubject);
+		if (!addedOrUpdated.isEmpty() || !removed.isEmpty()) {
+			if (changeSink != null) {
+				streamedRedundantCount.addAndGet(removed.size());
+				changeSink.accept(conceptId, addedOrUpdated, removed);
+			} else {
+				if (!addedOrUpdated.isEmpty()) {
+					addedStatements.computeIfAbsent(conceptId, k -> new HashSet<>()).addAll(addedOrUpdated);
+				}
+				if (!removed.isEmpty()) {
+					removedStatements.computeIfAbsent(conceptId, k -> new HashSet<>()).addAll(removed);
+				}
+			}
+		}
 	}
 
-	void handleRedundantRelationship(long conceptId, Relationship removedSubject) {
+	private void handleRedundantRelationship(Set<Relationship> removed, Relationship removedSubject) {
 		//We will preserve any "Additional" characteristic types eg PartOf relationships
 		if (removedSubject.getCharacteristicTypeId() == -1 || removedSubject.getCharacteristicTypeId() != Concepts.ADDITIONAL_RELATIONSHIP_LONG) {
-			removedStatements.computeIfAbsent(conceptId, k -> new HashSet<>()).add(removedSubject);
+			removed.add(removedSubject);
 		}
 	}
 
@@ -148,35 +168,55 @@ public class RelationshipChangeProcessor {
 		if (inferredRelationships.isEmpty()) {
 			return;
 		}
-		removedDueToConceptInactivationCount += inferredRelationships.size();
-		removedStatements.put(inactiveConceptId, inferredRelationships);
+		removedDueToConceptInactivationCount.addAndGet(inferredRelationships.size());
+		if (changeSink != null) {
+			changeSink.accept(inactiveConceptId, Collections.emptySet(), inferredRelationships);
+		} else {
+			removedStatements.put(inactiveConceptId, inferredRelationships);
+		}
 	}
 
 	public Long getAddedCount() {
-		return addedCount;
+		return addedCount.get();
+	}
+
+	/**
+	 * @return true if changes are passed to a sink as each concept is applied, so the order of apply calls is the order of the output.
+	 */
+	public boolean isStreaming() {
+		return changeSink != null;
 	}
 
 	public Long getUpdatedCount() {
-		return updatedCount;
+		return updatedCount.get();
 	}
 
 	public Long getRedundantCount() {
+		if (changeSink != null) {
+			return streamedRedundantCount.get();
+		}
 		long redundantCount = 0L;
 		for (Set<Relationship> value : removedStatements.values()) {
 			redundantCount += value.size();
 		}
-		redundantCount -= removedDueToConceptInactivationCount;
+		redundantCount -= removedDueToConceptInactivationCount.get();
 		return redundantCount;
 	}
 
 	public Long getRemovedDueToConceptInactivationCount() {
-		return removedDueToConceptInactivationCount;
+		return removedDueToConceptInactivationCount.get();
 	}
 
+	/**
+	 * @return collected added or updated relationships by concept, always empty if a change sink is used
+	 */
 	public Map<Long, Set<Relationship>> getAddedStatements() {
 		return addedStatements;
 	}
 
+	/**
+	 * @return collected removed relationships by concept, always empty if a change sink is used
+	 */
 	public Map<Long, Set<Relationship>> getRemovedStatements() {
 		return removedStatements;
 	}
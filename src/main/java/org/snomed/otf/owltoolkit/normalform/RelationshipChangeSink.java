@@ -0,0 +1,20 @@
+package org.snomed.otf.owltoolkit.normalform;
+
+import org.snomed.otf.owltoolkit.domain.Relationship;
+
+import java.util.Set;
+
+/**
+ * Receives relationship changes one concept at a time as they are found by the {@link RelationshipChangeProcessor}.
+ * May be called concurrently for different concepts.
+ */
+public interface RelationshipChangeSink {
+
+	/**
+	 * @param conceptId source concept of the relationships
+	 * @param addedOrUpdated relationships to write as active, new relationships have id -1
+	 * @param removed existing relationships to write as inactive
+	 */
+	void accept(long conceptId, Set<Relationship> addedOrUpdated, Set<Relationship> removed);
+
+}
@@ -23,7 +23,7 @@ package org.snomed.otf.owltoolkit.normalform;
 import com.google.common.base.Stopwatch;
 import com.google.common.collect.*;
 import com.google.common.collect.Maps.EntryTransformer;
-import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.snomed.otf.owltoolkit.classification.ReasonerTaxonomy;
@@ -33,11 +33,15 @@ import org.snomed.otf.owltoolkit.domain.Relationship;
 import org.snomed.otf.owltoolkit.normalform.internal.*;
 import org.snomed.otf.owltoolkit.normalform.transitive.NodeGraph;
 import org.snomed.otf.owltoolkit.ontology.PropertyChain;
+import org.snomed.otf.owltoolkit.service.ReasonerServiceRuntimeException;
 import org.snomed.otf.owltoolkit.taxonomy.SnomedTaxonomy;
 
 import java.text.MessageFormat;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static org.snomed.otf.owltoolkit.constants.Concepts.IS_A_LONG;
 
@@ -72,10 +76,26 @@ public final class RelationshipNormalFormGenerator {
 	private final SnomedTaxonomy snomedTaxonomy;
 	private final Set<PropertyChain> propertyChains;
 
-	private final Map<Long, Collection<Relationship>> generatedNonIsACache = new Long2ObjectOpenHashMap<>();
+	private final Map<Long, Collection<Relationship>> generatedNonIsACache;
+	// Cache entries which are no longer needed by the first pass of child concepts are packed until their last read in the second pass
+	private final Map<Long, long[]> packedNonIsACache;
 	private final Set<Long> traversableProperties;
+	private final LongSet chainSourceTypeIds;
+	private final LongSet chainInferredTypeIds;
 	private final Map<Long, NodeGraph> transitiveNodeGraphs = new HashMap<>();
 	private final Map<Long, Set<AxiomRepresentation>> conceptAxiomStatementMap;
+	private final int threads;
+
+	// Groups given to the first pass of concepts which may be normalised differently using property chains, in the order they were added
+	private final Map<Long, List<Group>> chainGroupsForSecondPass;
+
+	// Concepts to generate the normal form for, null for all concepts
+	private LongSet affectedConceptIds;
+
+	// Reference counts used to release cache entries, a cache entry is read by the first pass of each child concept
+	// and by the second pass of the concept itself
+	private Long2IntOpenHashMap pendingFirstPassChildren;
+	private Long2IntOpenHashMap pendingSecondPassReads;
 
 	/**
 	 * Creates a new distribution normal form generator instance.
@@ -87,12 +107,36 @@ public final class RelationshipNormalFormGenerator {
 	public RelationshipNormalFormGenerator(final ReasonerTaxonomy reasonerTaxonomy, final SnomedTaxonomy snomedTaxonomy,
 			final Map<Long, Set<AxiomRepresentation>> conceptAxiomStatementMap, final Set<PropertyChain> propertyChains) {
 
+		this(reasonerTaxonomy, snomedTaxonomy, conceptAxiomStatementMap, propertyChains, 1);
+	}
+
+	/**
+	 * Creates a new distribution normal form generator instance.
+	 * @param reasonerTaxonomy the reasoner to extract results from (may not be {@code null})
+	 * @param snomedTaxonomy the taxonomy as it existed before this classification run (may not be {@code null})
+	 * @param conceptAxiomStatementMap map of concept id to axiom set
+	 * @param propertyChains collection of property chains
+	 * @param threads number of threads to use, concepts are processed in parallel when greater than one
+	 */
+	public RelationshipNormalFormGenerator(final ReasonerTaxonomy reasonerTaxonomy, final SnomedTaxonomy snomedTaxonomy,
+			final Map<Long, Set<AxiomRepresentation>> conceptAxiomStatementMap, final Set<PropertyChain> propertyChains, final int threads) {
+
 		this.reasonerTaxonomy = reasonerTaxonomy;
 		this.snomedTaxonomy = snomedTaxonomy;
 		this.propertyChains = propertyChains;
 		this.conceptAxiomStatementMap = conceptAxiomStatementMap;
+		this.threads = threads;
+		this.generatedNonIsACache = threads > 1 ? Long2ObjectMaps.synchronize(new Long2ObjectOpenHashMap<>()) : new Long2ObjectOpenHashMap<>();
+		this.packedNonIsACache = threads > 1 ? Long2ObjectMaps.synchronize(new Long2ObjectOpenHashMap<>()) : new Long2ObjectOpenHashMap<>();
+		this.chainGroupsForSecondPass = threads > 1 ? Long2ObjectMaps.synchronize(new Long2ObjectOpenHashMap<>()) : new Long2ObjectOpenHashMap<>();
 
 		traversableProperties = propertyChains.stream().map(PropertyChain::getDestinationType).collect(Collectors.toSet());
+		chainSourceTypeIds = new LongOpenHashSet();
+		chainInferredTypeIds = new LongOpenHashSet();
+		for (PropertyChain propertyChain : propertyChains) {
+			chainSourceTypeIds.add((long) propertyChain.getSourceType());
+			chainInferredTypeIds.add((long) propertyChain.getInferredType());
+		}
 
 		// Initialise node graphs for properties we need to traverse
 		LOGGER.info("Initialising node graphs for traversable properties {}", traversableProperties);
@@ -108,19 +152,58 @@ public final class RelationshipNormalFormGenerator {
 	public final void collectNormalFormChanges(final RelationshipChangeProcessor processor) {
 		LOGGER.info(">>> Relationship normal form generation");
 		final Stopwatch stopwatch = Stopwatch.createStarted();
+
 		final List<Long> entries = reasonerTaxonomy.getConceptIds();
+		initialiseReferenceCounts(entries);
+		try {
+			if (threads > 1) {
+				collectNormalFormChangesInParallel(processor);
+			} else {
+				for (Long conceptId : entries) {
+					firstNormalisationPass(conceptId);
+				}
 
-		for (Long conceptId : entries) {
-			firstNormalisationPass(conceptId);
+				for (Long conceptId : entries) {
+					if (isAffected(conceptId)) {
+						final Collection<Relationship> existingComponents = snomedTaxonomy.getInferredRelationships((long) conceptId);
+						final Collection<Relationship> generatedComponents = secondNormalisationPass(conceptId);
+						processor.apply(conceptId, existingComponents, generatedComponents);
+						releaseAfterSecondPass(conceptId);
+					}
+				}
+			}
+		} finally {
+			generatedNonIsACache.clear();
+			packedNonIsACache.clear();
+			chainGroupsForSecondPass.clear();
+			pendingFirstPassChildren = null;
+			pendingSecondPassReads = null;
 		}
 
-		for (Long conceptId : entries) {
-			final Collection<Relationship> existingComponents = snomedTaxonomy.getInferredRelationships((long) conceptId);
-			final Collection<Relationship> generatedComponents = secondNormalisationPass(conceptId);
-			processor.apply(conceptId, existingComponents, generatedComponents);
+		LOGGER.info(MessageFormat.format("<<< Relationship normal form generation [{0}]", stopwatch.toString()));
+	}
+
+	/**
+	 * Computes changes for the concepts affected by a change to the given concepts only.
+	 * The existing inferred relationships of all other concepts are used as their normal form, so these must be the result of
+	 * classifying the content before the change.
+	 *
+	 * @param processor the change processor to route changes to
+	 * @param changedConceptIds concepts with changes to their stated relationships, axioms or inferred relationships
+	 */
+	public final void collectNormalFormChanges(final RelationshipChangeProcessor processor, final Set<Long> changedConceptIds) {
+		affectedConceptIds = new AffectedConceptCollector(reasonerTaxonomy, snomedTaxonomy, conceptAxiomStatementMap, propertyChains)
+				.collect(changedConceptIds);
+		LOGGER.info("Incremental normal form generation for {} of {} concepts", affectedConceptIds.size(), reasonerTaxonomy.getConceptIds().size());
+		try {
+			collectNormalFormChanges(processor);
+		} finally {
+			affectedConceptIds = null;
 		}
+	}
 
-		LOGGER.info(MessageFormat.format("<<< Relationship normal form generation [{0}]", stopwatch.toString()));
+	private boolean isAffected(long conceptId) {
+		return affectedConceptIds == null || affectedConceptIds.contains(conceptId);
 	}
 
 	/**
@@ -131,22 +214,168 @@ public final class RelationshipNormalFormGenerator {
 	 * @param conceptId the concept for which components should be generated
 	 */
 	private void firstNormalisationPass(long conceptId) {
-		final Set<Relationship> inferredNonIsAFragments = getInferredNonIsAFragmentsInNormalForm(conceptId);
+		final Collection<Relationship> inferredNonIsAFragments = computeFirstPassFragments(conceptId);
+		addToTransitiveGraphs(conceptId, inferredNonIsAFragments);
+		releaseAfterFirstPass(conceptId);
+	}
 
-		// Place results in the cache, so children can re-use it
-		generatedNonIsACache.put(conceptId, ImmutableList.copyOf(inferredNonIsAFragments));
+	private void initialiseReferenceCounts(final List<Long> conceptIds) {
+		pendingFirstPassChildren = new Long2IntOpenHashMap();
+		pendingSecondPassReads = new Long2IntOpenHashMap();
+		for (Long conceptId : conceptIds) {
+			for (Long parentId : reasonerTaxonomy.getParents(conceptId)) {
+				pendingFirstPassChildren.addTo(parentId, 1);
+			}
+			if (isAffected(conceptId)) {
+				pendingSecondPassReads.addTo(conceptId, 1);
+			}
+		}
+	}
 
-		// Add to transitive graphs
+	/**
+	 * Counts down the first pass reads of the parents. Entries not read by any more first passes are packed, or removed if the second pass
+	 * will not read them either. Must not run at the same time as other first passes.
+	 */
+	private void releaseAfterFirstPass(final long conceptId) {
+		for (Long parentId : reasonerTaxonomy.getParents(conceptId)) {
+			if (pendingFirstPassChildren.addTo(parentId, -1) == 1) {
+				packOrRemove(parentId);
+			}
+		}
+		if (pendingFirstPassChildren.get(conceptId) == 0) {
+			packOrRemove(conceptId);
+		}
+	}
+
+	private void packOrRemove(final long conceptId) {
+		final Collection<Relationship> fragments = generatedNonIsACache.remove(conceptId);
+		if (fragments != null && pendingSecondPassReads.get(conceptId) > 0) {
+			packedNonIsACache.put(conceptId, PackedRelationships.pack(fragments));
+		}
+	}
+
+	/**
+	 * Counts down the second pass read of the concept. Entries are removed after the last read.
+	 */
+	private void releaseAfterSecondPass(final long conceptId) {
+		if (pendingSecondPassReads.addTo(conceptId, -1) == 1) {
+			generatedNonIsACache.remove(conceptId);
+			packedNonIsACache.remove(conceptId);
+		}
+	}
+
+	/**
+	 * Places the non IS-A fragments of the concept in the cache, so children can re-use them.
+	 * Concepts not affected by an incremental run use their existing inferred relationships.
+	 */
+	private Collection<Relationship> computeFirstPassFragments(long conceptId) {
+		final Collection<Relationship> inferredNonIsAFragments;
+		if (isAffected(conceptId)) {
+			inferredNonIsAFragments = ImmutableList.copyOf(getInferredNonIsAFragmentsInNormalForm(conceptId));
+		} else {
+			inferredNonIsAFragments = ImmutableList.copyOf(Collections2.filter(snomedTaxonomy.getInferredRelationships(conceptId), input -> input.getTypeId() != IS_A_LONG));
+		}
+		generatedNonIsACache.put(conceptId, inferredNonIsAFragments);
+		return inferredNonIsAFragments;
+	}
+
+	private void addToTransitiveGraphs(long conceptId, Collection<Relationship> inferredNonIsAFragments) {
 		inferredNonIsAFragments.stream().filter(r -> traversableProperties.contains(r.getTypeId())).forEach(r ->
 				transitiveNodeGraphs.get(r.getTypeId()).addParent(conceptId, r.getDestinationId()));
 	}
 
+	/**
+	 * Parallel version of the two normalisation passes.
+	 *
+	 * The first pass is run in waves of concepts with the same depth in the inferred hierarchy, so the parents of every concept
+	 * in a wave are complete in the cache before the wave starts. Additions to the transitive graphs are held back until the end of each wave
+	 * so that all concepts in a wave see the same graphs, keeping the results independent of thread scheduling.
+	 * The second pass is completed for all concepts before any changes are applied because applying changes modifies the cached relationships.
+	 * Changes are applied in parallel unless they are streamed, streamed changes are applied in concept order.
+	 */
+	private void collectNormalFormChangesInParallel(final RelationshipChangeProcessor processor) {
+		final List<LongArrayList> waves = getDepthWaves(reasonerTaxonomy.getConceptIds());
+		LOGGER.info("Normal form generation using {} threads, {} hierarchy depth waves", threads, waves.size());
+
+		final ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			final LongArrayList conceptIds = new LongArrayList();
+			for (LongArrayList wave : waves) {
+				final List<Collection<Relationship>> waveFragments = pool.submit(() -> wave.parallelStream()
+						.map(this::computeFirstPassFragments)
+						.collect(Collectors.toList())).get();
+
+				for (int i = 0; i < wave.size(); i++) {
+					final long conceptId = wave.getLong(i);
+					addToTransitiveGraphs(conceptId, waveFragments.get(i));
+					releaseAfterFirstPass(conceptId);
+					if (isAffected(conceptId)) {
+						conceptIds.add(conceptId);
+					}
+				}
+			}
+
+			final List<Collection<Relationship>> generatedComponents = pool.submit(() -> conceptIds.parallelStream()
+					.map(this::secondNormalisationPass)
+					.collect(Collectors.toList())).get();
+			generatedNonIsACache.clear();
+			packedNonIsACache.clear();
+			chainGroupsForSecondPass.clear();
+
+			if (processor.isStreaming()) {
+				// Streamed changes are written as they are applied, applied in concept order so the results are the same on every run
+				for (int i = 0; i < conceptIds.size(); i++) {
+					final long conceptId = conceptIds.getLong(i);
+					processor.apply(conceptId, snomedTaxonomy.getInferredRelationships(conceptId), generatedComponents.get(i));
+				}
+			} else {
+				pool.submit(() -> IntStream.range(0, conceptIds.size()).parallel().forEach(i -> {
+					final long conceptId = conceptIds.getLong(i);
+					processor.apply(conceptId, snomedTaxonomy.getInferredRelationships(conceptId), generatedComponents.get(i));
+				})).get();
+			}
+		} catch (InterruptedException | ExecutionException e) {
+			throw new ReasonerServiceRuntimeException("Parallel normal form generation failed.", e);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Groups concepts by the length of the longest path to a root in the inferred hierarchy.
+	 * Concepts are only included once even if they appear more than once in the given list.
+	 */
+	private List<LongArrayList> getDepthWaves(final List<Long> conceptIds) {
+		final Long2IntOpenHashMap depths = new Long2IntOpenHashMap(conceptIds.size());
+		depths.defaultReturnValue(-1);
+		final List<LongArrayList> waves = new ArrayList<>();
+		for (Long conceptId : conceptIds) {
+			if (depths.containsKey((long) conceptId)) {
+				continue;
+			}
+			int depth = 0;
+			for (Long parentId : reasonerTaxonomy.getParents(conceptId)) {
+				depth = Math.max(depth, depths.get((long) parentId) + 1);
+			}
+			depths.put((long) conceptId, depth);
+			while (waves.size() <= depth) {
+				waves.add(new LongArrayList());
+			}
+			waves.get(depth).add((long) conceptId);
+		}
+		return waves;
+	}
+
 	/**
 	 * Performs additional normalisation as required before returning components in normal form for the specified concept.
 	 * The second pass uses property chains and transitive properties in order to further normalise components.
 	 * Other transitive hierarchies can not be guaranteed to be complete during the first pass because the super-type of a
 	 * concept in a transitive property hierarchy may be at a lower level in the is-a hierarchy meaning that it's processed later during the first pass.
 	 *
+	 * Concepts are normalised again if a fragment has a property chain source type. The groups kept from the first pass are used
+	 * so that the parents are not read again. Redundancy between groups can only change if one of them has a fragment with a
+	 * property chain inferred type, otherwise the first pass result is used.
+	 *
 	 * @param conceptId the concept for which components should be generated
 	 * @return the generated components of the specified concept in normal form
 	 */
@@ -156,18 +385,46 @@ public final class RelationshipNormalFormGenerator {
 		// Step 1: collect IS-A relationships
 		final Iterable<Relationship> inferredIsAFragments = getInferredIsAFragments(conceptId, directSuperTypes);
 
-		Iterable<Relationship> inferredNonIsAFragments = generatedNonIsACache.get(conceptId);
-		if (!propertyChains.isEmpty()) {
-			for (Relationship inferredNonIsAFragment : inferredNonIsAFragments) {
-				// Is there a property chain for this relationship?
-				if (propertyChains.stream().anyMatch(propertyChain -> propertyChain.getSourceType().equals(inferredNonIsAFragment.getTypeId()))) {
-					inferredNonIsAFragments = getInferredNonIsAFragmentsInNormalForm(conceptId);
-					break;
+		final Iterable<Relationship> inferredNonIsAFragments;
+		final List<Group> chainGroups = chainGroupsForSecondPass.remove(conceptId);
+		if (chainGroups != null) {
+			final GroupSet groups = new GroupSet();
+			groups.addAll(chainGroups);
+			inferredNonIsAFragments = numberGroups(groups, getOwnInferredNonIsAFragments(conceptId));
+		} else {
+			inferredNonIsAFragments = getCachedNonIsAFragments(conceptId);
+		}
+
+		return ImmutableList.copyOf(Iterables.concat(inferredIsAFragments, inferredNonIsAFragments));
+	}
+
+	private boolean hasChainSourceType(final GroupSet groups) {
+		for (Group group : groups) {
+			for (UnionGroup unionGroup : group.getUnionGroups()) {
+				for (RelationshipFragment fragment : unionGroup.getRelationshipFragments()) {
+					if (chainSourceTypeIds.contains(fragment.getTypeId())) {
+						return true;
+					}
 				}
 			}
 		}
+		return false;
+	}
 
-		return ImmutableList.copyOf(Iterables.concat(inferredIsAFragments, inferredNonIsAFragments));
+	/**
+	 * @return true if a group has a fragment which a property chain may make redundant
+	 */
+	private boolean hasChainInferredType(final Collection<Group> groups) {
+		for (Group group : groups) {
+			for (UnionGroup unionGroup : group.getUnionGroups()) {
+				for (RelationshipFragment fragment : unionGroup.getRelationshipFragments()) {
+					if (chainInferredTypeIds.contains(fragment.getTypeId())) {
+						return true;
+					}
+				}
+			}
+		}
+		return false;
 	}
 
 	private Set<Relationship> getInferredNonIsAFragmentsInNormalForm(Long conceptId) {
@@ -200,15 +457,17 @@ public final class RelationshipNormalFormGenerator {
 					.collect(Collectors.toList()));
 		}
 
-		final Collection<Relationship> ownInferredFragments = snomedTaxonomy.getInferredRelationships(conceptId);
-		final Collection<Relationship> ownInferredNonIsaFragments = Collections2.filter(ownInferredFragments, input -> input.getTypeId() != IS_A_LONG);
-
 		return getInferredNonIsAFragments(conceptId,
-				ownInferredNonIsaFragments,
+				getOwnInferredNonIsAFragments(conceptId),
 				ownStatedNonIsaRelationships,
 				otherNonIsAFragments);
 	}
 
+	private Collection<Relationship> getOwnInferredNonIsAFragments(final long conceptId) {
+		final Collection<Relationship> ownInferredFragments = snomedTaxonomy.getInferredRelationships(conceptId);
+		return Collections2.filter(ownInferredFragments, input -> input.getTypeId() != IS_A_LONG);
+	}
+
 	/**
 	 * Outbound relationships are calculated in the following fashion:
 	 *
@@ -241,6 +500,28 @@ public final class RelationshipNormalFormGenerator {
 			final Collection<Relationship> ownStatedNonIsAFragments,
 			final Map<Long, Collection<Relationship>> parentStatedNonIsAFragments) {
 
+		// Eliminate redundancy between existing stated non-IS A relationship groups
+		final List<Group> addedGroups = new ArrayList<>();
+		Iterables.addAll(addedGroups, toGroups(false, ownStatedNonIsAFragments));
+
+		// Continue by adding stated non-IS A relationship groups from parents indicated by the reasoner
+		for (Long parentId : parentStatedNonIsAFragments.keySet()) {
+			Iterables.addAll(addedGroups, toGroups(false, parentStatedNonIsAFragments.get(parentId)));
+		}
+
+		final GroupSet groups = new GroupSet();
+		groups.addAll(addedGroups);
+
+		// Keep copies of the groups before they are numbered so that the second pass can repeat redundancy elimination using property chains
+		if (isAffected(conceptId) && hasChainSourceType(groups) && hasChainInferredType(addedGroups)) {
+			chainGroupsForSecondPass.put(conceptId, addedGroups.stream().map(Group::copy).collect(Collectors.toList()));
+		}
+
+		return numberGroups(groups, ownInferredNonIsAFragments);
+	}
+
+	private Set<Relationship> numberGroups(final GroupSet groups, final Collection<Relationship> ownInferredNonIsAFragments) {
+
 		// Index existing inferred non-IS A relationship groups into a GroupSet (without redundancy check)
 		final GroupSet inferredGroups = new GroupSet();
 		final Iterable<Group> ownInferredGroups = toGroups(true, ownInferredNonIsAFragments);
@@ -248,17 +529,6 @@ public final class RelationshipNormalFormGenerator {
 			inferredGroups.addUnique(ownInferredGroup);
 		}
 
-		// Eliminate redundancy between existing stated non-IS A relationship groups
-		final GroupSet groups = new GroupSet();
-		final Iterable<Group> ownGroups = toGroups(false, ownStatedNonIsAFragments);
-		Iterables.addAll(groups, ownGroups);
-
-		// Continue by adding stated non-IS A relationship groups from parents indicated by the reasoner
-		for (Long parentId : parentStatedNonIsAFragments.keySet()) {
-			final Iterable<Group> otherGroups = toGroups(false, parentStatedNonIsAFragments.get(parentId));
-			Iterables.addAll(groups, otherGroups);
-		}
-
 		// The remaining non-redundant groups should be numbered from 1
 		groups.fillNumbers();
 
@@ -272,8 +542,13 @@ public final class RelationshipNormalFormGenerator {
 		return fromGroupSet(groups);
 	}
 
-	private Collection<Relationship> getCachedNonIsAFragments(final long directSuperTypeId) {
-		return generatedNonIsACache.get(directSuperTypeId);
+	private Collection<Relationship> getCachedNonIsAFragments(final long conceptId) {
+		final Collection<Relationship> fragments = generatedNonIsACache.get(conceptId);
+		if (fragments != null) {
+			return fragments;
+		}
+		final long[] packed = packedNonIsACache.get(conceptId);
+		return packed != null ? PackedRelationships.unpack(packed) : null;
 	}
 
 	private Iterable<Relationship> getInferredIsAFragments(final long conceptId, final Set<Long> parentIds) {
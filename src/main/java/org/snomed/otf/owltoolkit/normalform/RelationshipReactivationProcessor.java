@@ -0,0 +1,43 @@
+package org.snomed.otf.owltoolkit.normalform;
+
+import org.snomed.otf.owltoolkit.domain.Relationship;
+import org.snomed.otf.owltoolkit.taxonomy.InactiveRelationshipIndex;
+import org.snomed.otf.owltoolkit.taxonomy.SnomedTaxonomy;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Gives new inferred relationships the id of an inactive inferred relationship with the same source, group, type and destination
+ * so that the existing relationship is reactivated rather than a new one created.
+ */
+public class RelationshipReactivationProcessor {
+
+	private InactiveRelationshipIndex inactiveRelationshipIndex;
+
+	public RelationshipReactivationProcessor(SnomedTaxonomy snomedTaxonomy) {
+		this.inactiveRelationshipIndex = snomedTaxonomy.getInactiveInferredRelationshipIndex();
+	}
+
+	public void processReactivationChanges(RelationshipChangeProcessor changeCollector) {
+		for (Map.Entry<Long, Set<Relationship>> entry : changeCollector.getAddedStatements().entrySet()) {
+			reuseInactiveRelationshipIds(entry.getKey(), entry.getValue());
+		}
+	}
+
+	public void reuseInactiveRelationshipIds(long conceptId, Collection<Relationship> newInferredRelationships) {
+		if (inactiveRelationshipIndex.size() == 0) {
+			return;
+		}
+		for (Relationship newRelationship : newInferredRelationships) {
+			if (newRelationship.getRelationshipId() == -1) {// If we are updating an existing relationship then no need to find another one
+				long inactiveRelationshipId = inactiveRelationshipIndex.getRelationshipId(conceptId, newRelationship.getGroup(),
+						newRelationship.getTypeId(), newRelationship.getDestinationId());
+				if (inactiveRelationshipId != -1) {
+					newRelationship.setRelationshipId(inactiveRelationshipId);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,159 @@
+package org.snomed.otf.owltoolkit.normalform;
+
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import org.snomed.otf.owltoolkit.domain.Relationship;
+
+import java.util.Collection;
+
+/**
+ * Relationships sorted by type, destination, group, union group, universal and destination negated,
+ * with these fields held in primitive arrays so that relationship lists can be compared without boxing.
+ * Union group and the two flags are packed into a single qualifier so that they can be compared with or without the group.
+ */
+final class SortedRelationshipKeys {
+
+	private final Relationship[] relationships;
+	private final long[] typeIds;
+	private final long[] destinationIds;
+	private final int[] groups;
+	private final long[] qualifiers;
+
+	/**
+	 * @param moduleIdDescending if set, relationships with the same key are ordered by module id descending.
+	 *                           Otherwise relationships with the same key keep the iteration order of the collection.
+	 */
+	SortedRelationshipKeys(Collection<Relationship> relationshipCollection, boolean moduleIdDescending) {
+		final int size = relationshipCollection.size();
+		final Relationship[] unsorted = relationshipCollection.toArray(new Relationship[size]);
+		final long[] unsortedTypeIds = new long[size];
+		final long[] unsortedDestinationIds = new long[size];
+		final int[] unsortedGroups = new int[size];
+		final long[] unsortedQualifiers = new long[size];
+		final long[] unsortedModuleIds = moduleIdDescending ? new long[size] : null;
+		final int[] order = new int[size];
+		for (int i = 0; i < size; i++) {
+			final Relationship relationship = unsorted[i];
+			unsortedTypeIds[i] = relationship.getTypeId();
+			unsortedDestinationIds[i] = relationship.getDestinationId();
+			unsortedGroups[i] = relationship.getGroup();
+			unsortedQualifiers[i] = qualifier(relationship);
+			if (moduleIdDescending) {
+				unsortedModuleIds[i] = relationship.getModuleId();
+			}
+			order[i] = i;
+		}
+
+		// Merge sort is stable so relationships with the same key stay in collection order
+		IntArrays.mergeSort(order, (a, b) -> {
+			int compare = compare(unsortedTypeIds[a], unsortedDestinationIds[a], unsortedGroups[a], unsortedQualifiers[a],
+					unsortedTypeIds[b], unsortedDestinationIds[b], unsortedGroups[b], unsortedQualifiers[b]);
+			if (compare == 0 && moduleIdDescending) {
+				compare = Long.compare(unsortedModuleIds[b], unsortedModuleIds[a]);
+			}
+			return compare;
+		});
+
+		relationships = new Relationship[size];
+		typeIds = new long[size];
+		destinationIds = new long[size];
+		groups = new int[size];
+		qualifiers = new long[size];
+		for (int i = 0; i < size; i++) {
+			final int index = order[i];
+			relationships[i] = unsorted[index];
+			typeIds[i] = unsortedTypeIds[index];
+			destinationIds[i] = unsortedDestinationIds[index];
+			groups[i] = unsortedGroups[index];
+			qualifiers[i] = unsortedQualifiers[index];
+		}
+	}
+
+	int size() {
+		return relationships.length;
+	}
+
+	Relationship get(int index) {
+		return relationships[index];
+	}
+
+	int getGroup(int index) {
+		return groups[index];
+	}
+
+	/**
+	 * Compares the key at the given index with a key in another instance using all fields.
+	 */
+	int compare(int index, SortedRelationshipKeys other, int otherIndex) {
+		return compare(typeIds[index], destinationIds[index], groups[index], qualifiers[index],
+				other.typeIds[otherIndex], other.destinationIds[otherIndex], other.groups[otherIndex], other.qualifiers[otherIndex]);
+	}
+
+	boolean contains(SortedRelationshipKeys other, int otherIndex) {
+		int low = 0;
+		int high = relationships.length - 1;
+		while (low <= high) {
+			final int mid = (low + high) >>> 1;
+			final int compare = compare(mid, other, otherIndex);
+			if (compare < 0) {
+				low = mid + 1;
+			} else if (compare > 0) {
+				high = mid - 1;
+			} else {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Binary search ignoring the group field.
+	 * The keys are sorted using the group so, like a binary search of the sorted list using a comparator without the group,
+	 * this may miss a match. The same steps as {@link java.util.Collections#binarySearch} are taken so the result is the same.
+	 * @return index of a matching key or a negative number if none was found
+	 */
+	int binarySearchWithoutGroup(SortedRelationshipKeys other, int otherIndex) {
+		int low = 0;
+		int high = relationships.length - 1;
+		while (low <= high) {
+			final int mid = (low + high) >>> 1;
+			int compare = Long.compare(typeIds[mid], other.typeIds[otherIndex]);
+			if (compare == 0) {
+				compare = Long.compare(destinationIds[mid], other.destinationIds[otherIndex]);
+				if (compare == 0) {
+					compare = Long.compare(qualifiers[mid], other.qualifiers[otherIndex]);
+				}
+			}
+			if (compare < 0) {
+				low = mid + 1;
+			} else if (compare > 0) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -(low + 1);
+	}
+
+	private static int compare(long typeIdA, long destinationIdA, int groupA, long qualifierA, long typeIdB, long destinationIdB, int groupB, long qualifierB) {
+		int compare = Long.compare(typeIdA, typeIdB);
+		if (compare == 0) {
+			compare = Long.compare(destinationIdA, destinationIdB);
+			if (compare == 0) {
+				compare = Integer.compare(groupA, groupB);
+				if (compare == 0) {
+					compare = Long.compare(qualifierA, qualifierB);
+				}
+			}
+		}
+		return compare;
+	}
+
+	/**
+	 * Union group offset to be unsigned in the upper bits then universal and destination negated, where false sorts before true.
+	 */
+	private static long qualifier(Relationship relationship) {
+		return ((long) relationship.getUnionGroup() - Integer.MIN_VALUE) << 2
+				| (relationship.isUniversal() ? 2 : 0)
+				| (relationship.isDestinationNegated() ? 1 : 0);
+	}
+}
@@ -25,9 +25,12 @@ import com.google.common.base.Predicates;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
 import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 import org.snomed.otf.owltoolkit.normalform.RelationshipNormalFormGenerator;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -44,6 +47,10 @@ public final class Group implements SemanticComparable<Group> {
 
 	private int groupNumber = RelationshipNormalFormGenerator.NUMBER_NOT_PRESERVED;
 
+	// Attribute type index keys, created on first use
+	private LongSet attributeTypeIds;
+	private LongSet subsumedAttributeTypeIds;
+
 	/**
 	 * Creates a new group instance.
 	 *
@@ -60,6 +67,19 @@ public final class Group implements SemanticComparable<Group> {
 		return unionGroups;
 	}
 
+	/**
+	 * @return a copy of this group and its union groups with the same numbers, so that the copy is not changed when this group is numbered
+	 */
+	public Group copy() {
+		final List<UnionGroup> unionGroupCopies = new ArrayList<>(unionGroups.size());
+		for (final UnionGroup unionGroup : unionGroups) {
+			unionGroupCopies.add(unionGroup.copy());
+		}
+		final Group copy = new Group(unionGroupCopies);
+		copy.groupNumber = groupNumber;
+		return copy;
+	}
+
 	public int getGroupNumber() {
 		return groupNumber;
 	}
@@ -102,6 +122,62 @@ public final class Group implements SemanticComparable<Group> {
 		return true;
 	}
 
+	/**
+	 * A group can only be the same or stronger than another group if one of its fragments is the same or stronger than one
+	 * of the other group's fragments. That comparison needs related attribute types unless there is negation, or there are
+	 * empty union groups which are the same or stronger than any union group.
+	 *
+	 * @return true if the attribute types of this group can be used to rule out comparisons
+	 */
+	boolean isTypeIndexable() {
+		if (unionGroups.isEmpty()) {
+			return false;
+		}
+		for (final UnionGroup unionGroup : unionGroups) {
+			if (unionGroup.getRelationshipFragments().isEmpty()) {
+				return false;
+			}
+			for (final RelationshipFragment fragment : unionGroup.getRelationshipFragments()) {
+				if (fragment.isDestinationNegated()) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the attribute types of all fragments in this group
+	 */
+	LongSet getAttributeTypeIds() {
+		if (attributeTypeIds == null) {
+			final LongSet typeIds = new LongOpenHashSet();
+			for (final UnionGroup unionGroup : unionGroups) {
+				for (final RelationshipFragment fragment : unionGroup.getRelationshipFragments()) {
+					typeIds.add(fragment.getTypeId());
+				}
+			}
+			attributeTypeIds = typeIds;
+		}
+		return attributeTypeIds;
+	}
+
+	/**
+	 * @return the attribute types of fragments which the fragments of this group may be the same as or stronger than
+	 */
+	LongSet getSubsumedAttributeTypeIds() {
+		if (subsumedAttributeTypeIds == null) {
+			final LongSet typeIds = new LongOpenHashSet();
+			for (final UnionGroup unionGroup : unionGroups) {
+				for (final RelationshipFragment fragment : unionGroup.getRelationshipFragments()) {
+					fragment.addSubsumedTypeIds(typeIds);
+				}
+			}
+			subsumedAttributeTypeIds = typeIds;
+		}
+		return subsumedAttributeTypeIds;
+	}
+
 	@Override
 	public int hashCode() {
 		return 31 + unionGroups.hashCode();
@@ -22,6 +22,10 @@ package org.snomed.otf.owltoolkit.normalform.internal;
 
 import com.google.common.collect.Lists;
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongSet;
 import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 import org.snomed.otf.owltoolkit.normalform.RelationshipNormalFormGenerator;
 
@@ -34,6 +38,18 @@ public final class GroupSet extends AbstractSet<Group> {
 
 	private final List<Group> groups = Lists.newArrayList();
 
+	/*
+	 * Groups are indexed by attribute type so that redundancy checks only compare groups with related attribute types.
+	 * Groups by the attribute types of their fragments, used to find groups which a new group may make redundant.
+	 */
+	private final Long2ObjectMap<Set<Group>> groupsByAttributeType = new Long2ObjectOpenHashMap<>();
+
+	// Groups by the attribute types their fragments may be the same as or stronger than, used to find groups which may make a new group redundant
+	private final Long2ObjectMap<Set<Group>> groupsBySubsumedAttributeType = new Long2ObjectOpenHashMap<>();
+
+	// Groups which can not be ruled out by attribute type, these are compared with every new group
+	private final Set<Group> unindexedGroups = newIdentitySet();
+
 	/**
 	 * Adds the specified group to this set if it is not already present.
 	 * More formally, adds the specified group e to this set if the set
@@ -48,16 +64,38 @@ public final class GroupSet extends AbstractSet<Group> {
 	public boolean add(final Group e) {
 		final List<Group> redundant = Lists.newArrayList();
 
-		for (final Group existingGroup : groups) {
-			if (existingGroup.isSameOrStrongerThan(e)) {
-				return false;
-			} else if (e.isSameOrStrongerThan(existingGroup)) {
-				redundant.add(existingGroup);
+		if (e.isTypeIndexable()) {
+			for (final Group existingGroup : getCandidates(e.getAttributeTypeIds(), groupsBySubsumedAttributeType)) {
+				if (existingGroup.isSameOrStrongerThan(e)) {
+					return false;
+				}
+			}
+			for (final Group existingGroup : getCandidates(e.getSubsumedAttributeTypeIds(), groupsByAttributeType)) {
+				if (e.isSameOrStrongerThan(existingGroup)) {
+					redundant.add(existingGroup);
+				}
+			}
+		} else {
+			for (final Group existingGroup : groups) {
+				if (existingGroup.isSameOrStrongerThan(e)) {
+					return false;
+				} else if (e.isSameOrStrongerThan(existingGroup)) {
+					redundant.add(existingGroup);
+				}
 			}
 		}
 
-		groups.removeAll(redundant);
+		if (!redundant.isEmpty()) {
+			groups.removeIf(group -> {
+				if (redundant.contains(group)) {
+					removeFromIndex(group);
+					return true;
+				}
+				return false;
+			});
+		}
 		groups.add(e);
+		addToIndex(e);
 
 		return true;
 	}
@@ -68,12 +106,88 @@ public final class GroupSet extends AbstractSet<Group> {
 	 * @see #add(Group)
 	 */
 	public boolean addUnique(final Group e) {
+		addToIndex(e);
 		return groups.add(e);
 	}
 
+	private Set<Group> getCandidates(final LongSet typeIds, final Long2ObjectMap<Set<Group>> index) {
+		final Set<Group> candidates = newIdentitySet();
+		candidates.addAll(unindexedGroups);
+		for (final LongIterator iterator = typeIds.iterator(); iterator.hasNext(); ) {
+			final Set<Group> indexed = index.get(iterator.nextLong());
+			if (indexed != null) {
+				candidates.addAll(indexed);
+			}
+		}
+		return candidates;
+	}
+
+	private void addToIndex(final Group group) {
+		if (group.isTypeIndexable()) {
+			addToIndex(group, group.getAttributeTypeIds(), groupsByAttributeType);
+			addToIndex(group, group.getSubsumedAttributeTypeIds(), groupsBySubsumedAttributeType);
+		} else {
+			unindexedGroups.add(group);
+		}
+	}
+
+	private void addToIndex(final Group group, final LongSet typeIds, final Long2ObjectMap<Set<Group>> index) {
+		for (final LongIterator iterator = typeIds.iterator(); iterator.hasNext(); ) {
+			final long typeId = iterator.nextLong();
+			Set<Group> indexed = index.get(typeId);
+			if (indexed == null) {
+				indexed = newIdentitySet();
+				index.put(typeId, indexed);
+			}
+			indexed.add(group);
+		}
+	}
+
+	private void removeFromIndex(final Group group) {
+		if (group.isTypeIndexable()) {
+			removeFromIndex(group, group.getAttributeTypeIds(), groupsByAttributeType);
+			removeFromIndex(group, group.getSubsumedAttributeTypeIds(), groupsBySubsumedAttributeType);
+		} else {
+			unindexedGroups.remove(group);
+		}
+	}
+
+	private void removeFromIndex(final Group group, final LongSet typeIds, final Long2ObjectMap<Set<Group>> index) {
+		for (final LongIterator iterator = typeIds.iterator(); iterator.hasNext(); ) {
+			final Set<Group> indexed = index.get(iterator.nextLong());
+			if (indexed != null) {
+				indexed.remove(group);
+			}
+		}
+	}
+
+	private static Set<Group> newIdentitySet() {
+		return Collections.newSetFromMap(new IdentityHashMap<>());
+	}
+
 	@Override
 	public Iterator<Group> iterator() {
-		return groups.iterator();
+		final Iterator<Group> iterator = groups.iterator();
+		return new Iterator<Group>() {
+			private Group current;
+
+			@Override
+			public boolean hasNext() {
+				return iterator.hasNext();
+			}
+
+			@Override
+			public Group next() {
+				current = iterator.next();
+				return current;
+			}
+
+			@Override
+			public void remove() {
+				iterator.remove();
+				removeFromIndex(current);
+			}
+		};
 	}
 
 	@Override
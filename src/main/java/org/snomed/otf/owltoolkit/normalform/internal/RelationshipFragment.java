@@ -22,17 +22,14 @@ package org.snomed.otf.owltoolkit.normalform.internal;
 
 import com.google.common.base.Objects;
 import com.google.common.collect.Sets;
-import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
-import org.snomed.otf.owltoolkit.classification.ReasonerTaxonomy;
+import it.unimi.dsi.fastutil.longs.LongSet;
 import org.snomed.otf.owltoolkit.domain.Relationship;
 import org.snomed.otf.owltoolkit.normalform.RelationshipNormalFormGenerator;
 import org.snomed.otf.owltoolkit.normalform.transitive.NodeGraph;
 import org.snomed.otf.owltoolkit.ontology.PropertyChain;
 
 import java.text.MessageFormat;
-import java.util.HashSet;
 import java.util.Set;
-import java.util.stream.Collectors;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -98,10 +95,6 @@ public final class RelationshipFragment implements SemanticComparable<Relationsh
 			return false;
 		}
 
-		if (this.getTypeId() == 116680003L && other.getTypeId() == 116680003L) {
-			System.out.println("Two IS As compared");
-		}
-
 		if (!isDestinationNegated() && !other.isDestinationNegated()) {
 
 			// noinspection UnnecessaryLocalVariable
@@ -128,23 +121,19 @@ public final class RelationshipFragment implements SemanticComparable<Relationsh
 			 *
 			 */
 
-			final Set<Long> BAttributeClosure = getTransitiveClosure(B.getTypeId());
-			final Set<Long> BValueClosure = getTransitiveClosure(B.getDestinationId());
+			// Closures are checked through the taxonomy rather than copied because this is called many times for every concept
 
 			// Rule 1
-			if (BAttributeClosure.contains(A.getTypeId()) && BValueClosure.contains(A.getDestinationId())) {
+			if (isSameOrSubType(B.getTypeId(), A.getTypeId()) && isSameOrSubType(B.getDestinationId(), A.getDestinationId())) {
 				return true;
 			}
 
 			// Rule 2
 			else {
-				Set<PropertyChain> relevantPropertyChains = relationshipNormalFormGenerator.getPropertyChains().stream()
-						.filter(propertyChain -> BAttributeClosure.contains(propertyChain.getSourceType()))
-						.filter(propertyChain -> propertyChain.getInferredType().equals(A.getTypeId()))
-						.collect(Collectors.toSet());
-				for (PropertyChain propertyChain : relevantPropertyChains) {
-					if (getPropertyChainTransitiveClosure(B.getDestinationId(), propertyChain.getDestinationType())
-							.contains(A.getDestinationId())) {
+				for (PropertyChain propertyChain : relationshipNormalFormGenerator.getPropertyChains()) {
+					if (propertyChain.getInferredType() == A.getTypeId()
+							&& isSameOrSubType(B.getTypeId(), propertyChain.getSourceType())
+							&& isInPropertyChainTransitiveClosure(B.getDestinationId(), propertyChain.getDestinationType(), A.getDestinationId())) {
 						return true;
 					}
 				}
@@ -154,10 +143,6 @@ public final class RelationshipFragment implements SemanticComparable<Relationsh
 		// TODO: Remove all negation logic - Snomed International does not use it.
 		} else if (isDestinationNegated() && !other.isDestinationNegated()) {
 
-			final Set<Long> otherAttributeClosure = getTransitiveClosure(other.getTypeId());
-			final Set<Long> superTypes = getTransitiveClosure(getDestinationId());
-			superTypes.remove(getDestinationId());
-
 			/*
 			 * Note that "other" itself may be exhaustive in this case --
 			 * the negation will work entirely within the confines of
@@ -168,17 +153,16 @@ public final class RelationshipFragment implements SemanticComparable<Relationsh
 			 * "layers" of exhaustive concepts, because any other case
 			 * should be unsatisfiable.
 			 */
-			return otherAttributeClosure.contains(getTypeId()) && (hasCommonExhaustiveSuperType(other) || isDestinationExhaustive()) && superTypes.contains(other.getDestinationId());
+			return isSameOrSubType(other.getTypeId(), getTypeId()) && (hasCommonExhaustiveSuperType(other) || isDestinationExhaustive())
+					&& getDestinationId() != other.getDestinationId() && isSameOrSubType(getDestinationId(), other.getDestinationId());
 
 		} else if (!isDestinationNegated() && other.isDestinationNegated()) {
 
-			final Set<Long> attributeClosure = getTransitiveClosure(getTypeId());
-
 			/*
 			 * Any contradictions should be filtered out by the reasoner beforehand, so we just check if the two concepts
 			 * have a common exhaustive ancestor.
 			 */
-			return attributeClosure.contains(other.getTypeId()) && hasCommonExhaustiveSuperType(other);
+			return isSameOrSubType(getTypeId(), other.getTypeId()) && hasCommonExhaustiveSuperType(other);
 
 		} else /* if (destinationNegated && other.destinationNegated) */ {
 
@@ -186,10 +170,7 @@ public final class RelationshipFragment implements SemanticComparable<Relationsh
 			 * Note that the comparison is the exact opposite of the first case - if both fragments are negated,
 			 * the one which negates a more loose definition is the one that is more strict in the end.
 			 */
-			final Set<Long> otherAttributeClosure = getTransitiveClosure(other.getTypeId());
-			final Set<Long> otherValueClosure = getTransitiveClosure(other.getDestinationId());
-
-			return otherAttributeClosure.contains(getTypeId()) && otherValueClosure.contains(getDestinationId());
+			return isSameOrSubType(other.getTypeId(), getTypeId()) && isSameOrSubType(other.getDestinationId(), getDestinationId());
 		}
 	}
 
@@ -217,38 +198,40 @@ public final class RelationshipFragment implements SemanticComparable<Relationsh
 	}
 
 	/**
-	 * Collects all parent concepts reachable from the specified concept. The
-	 * returned set also includes the starting concept.
+	 * Adds the attribute types of the fragments that this fragment may be the same as or stronger than when neither is negated.
+	 * These are the attribute type and its ancestors, plus the types inferred by property chains starting from one of those.
+	 */
+	void addSubsumedTypeIds(final LongSet typeIds) {
+		typeIds.add(getTypeId());
+		typeIds.addAll(relationshipNormalFormGenerator.getReasonerTaxonomy().getAncestors(getTypeId()));
+		for (PropertyChain propertyChain : relationshipNormalFormGenerator.getPropertyChains()) {
+			if (isSameOrSubType(getTypeId(), propertyChain.getSourceType())) {
+				typeIds.add((long) propertyChain.getInferredType());
+			}
+		}
+	}
+
+	/**
+	 * Checks if the specified supertype is reachable from the concept, including the concept itself.
 	 *
 	 * @param conceptId
 	 *            the concept to start from
+	 * @param superTypeId
+	 *            the concept to look for
 	 *
-	 * @return a set containing the starting concept and all reachable
-	 *         supertypes
+	 * @return true if the concept is the same as or a subtype of the supertype
 	 */
-	private Set<Long> getTransitiveClosure(final long conceptId) {
-		final Set<Long> ancestors = relationshipNormalFormGenerator.getReasonerTaxonomy().getAncestors(conceptId);
-		final Set<Long> conceptAndAncestors = new LongOpenHashSet(ancestors);
-		conceptAndAncestors.add(conceptId);
-		return conceptAndAncestors;
+	private boolean isSameOrSubType(final long conceptId, final long superTypeId) {
+		return relationshipNormalFormGenerator.getReasonerTaxonomy().isSameOrDescendant(conceptId, superTypeId);
 	}
 
-	private Set<Long> getPropertyChainTransitiveClosure(final long conceptId, Long chainDestinationType) {
-		// Build closure containing all possible hops using chainDestinationType
-		// For every concept found also add its super types
-
-		NodeGraph nodeGraph = relationshipNormalFormGenerator.getTransitiveNodeGraphs().getOrDefault(chainDestinationType, new NodeGraph());
-		ReasonerTaxonomy reasonerTaxonomy = relationshipNormalFormGenerator.getReasonerTaxonomy();
-
-		Set<Long> chainPaths = new HashSet<>();
-		chainPaths.add(conceptId);
-		chainPaths.addAll(nodeGraph.getAncestors(conceptId));
-		Set<Long> chainStepAncestors = new HashSet<>();
-		for (Long chainNode : chainPaths) {
-			chainStepAncestors.addAll(reasonerTaxonomy.getAncestors(chainNode));
+	private boolean isInPropertyChainTransitiveClosure(final long conceptId, final Long chainDestinationType, final long closureMemberId) {
+		// Closure containing all possible hops using chainDestinationType and the super types of every concept found
+		final NodeGraph nodeGraph = relationshipNormalFormGenerator.getTransitiveNodeGraphs().get(chainDestinationType);
+		if (nodeGraph == null) {
+			return isSameOrSubType(conceptId, closureMemberId);
 		}
-		chainPaths.addAll(chainStepAncestors);
-		return chainPaths;
+		return nodeGraph.getChainClosure(conceptId, relationshipNormalFormGenerator.getReasonerTaxonomy()).contains(closureMemberId);
 	}
 
 	@Override
@@ -50,6 +50,15 @@ public final class UnionGroup implements SemanticComparable<UnionGroup> {
 		return fragments;
 	}
 
+	/**
+	 * @return a copy of this union group with the same number, the fragments are shared
+	 */
+	public UnionGroup copy() {
+		final UnionGroup copy = new UnionGroup(fragments);
+		copy.unionGroupNumber = unionGroupNumber;
+		return copy;
+	}
+
 	public int getUnionGroupNumber() {
 		return unionGroupNumber;
 	}
@@ -15,6 +15,11 @@
  */
 package org.snomed.otf.owltoolkit.normalform.transitive;
 
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -28,18 +33,20 @@ public class Node {
 		parents = new HashSet<>();
 	}
 
-	public Set<Long> getAncestorIds() {
-		HashSet<Long> ids = new HashSet<>();
-		getAncestorIds(ids);
-		ids.remove(id);
-		return ids;
-	}
-
-	private void getAncestorIds(Set<Long> ids) {
-		ids.add(id);
-		for (Node parent : parents) {
-			parent.getAncestorIds(ids);
+	/**
+	 * Collects the ids of all nodes reachable through parents. Each node is visited once so cycles are safe,
+	 * this node is only included if it is part of a cycle.
+	 */
+	public LongSet getAncestorIds() {
+		LongSet ids = new LongOpenHashSet();
+		Deque<Node> toVisit = new ArrayDeque<>(parents);
+		while (!toVisit.isEmpty()) {
+			Node node = toVisit.pop();
+			if (ids.add((long) node.id)) {
+				toVisit.addAll(node.parents);
+			}
 		}
+		return ids;
 	}
 
 	public Set<Node> getParents() {
@@ -15,28 +15,102 @@
  */
 package org.snomed.otf.owltoolkit.normalform.transitive;
 
-import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.*;
+import org.snomed.otf.owltoolkit.classification.ReasonerTaxonomy;
 
-import java.util.Collections;
 import java.util.Map;
-import java.util.Set;
 
+/**
+ * Graph of concepts linked by a transitive attribute.
+ *
+ * Ancestor and property chain closures are cached once read because the same closures are requested for many fragment comparisons.
+ * The caches are dropped when the graph changes, so the closures read during the second normalisation pass are computed once.
+ * Each cache is bounded and the least recently used closures are removed first. Reads may happen from several threads but
+ * changes to the graph must not run at the same time as reads.
+ */
 public class NodeGraph {
 
+	public static final int DEFAULT_MAX_CACHED_CLOSURES = 100_000;
+
 	private Map<Long, Node> nodeMap = new Long2ObjectOpenHashMap<>();
+	private final int maxCachedClosures;
+	private Long2ObjectLinkedOpenHashMap<LongSet> ancestorClosures = new Long2ObjectLinkedOpenHashMap<>();
+	private Long2ObjectLinkedOpenHashMap<LongSet> chainClosures = new Long2ObjectLinkedOpenHashMap<>();
+
+	public NodeGraph() {
+		this(DEFAULT_MAX_CACHED_CLOSURES);
+	}
 
-	public void addParent(long conceptId, long parentId) {
+	public NodeGraph(int maxCachedClosures) {
+		this.maxCachedClosures = maxCachedClosures;
+	}
+
+	public synchronized void addParent(long conceptId, long parentId) {
 		if (conceptId == parentId) return;
 		Node concept = nodeMap.computeIfAbsent(conceptId, Node::new);
 		Node parent = nodeMap.computeIfAbsent(parentId, Node::new);
-		concept.getParents().add(parent);
+		if (concept.getParents().add(parent)) {
+			if (!ancestorClosures.isEmpty()) {
+				ancestorClosures = new Long2ObjectLinkedOpenHashMap<>();
+			}
+			if (!chainClosures.isEmpty()) {
+				chainClosures = new Long2ObjectLinkedOpenHashMap<>();
+			}
+		}
 	}
 
-	public Set<Long> getAncestors(long conceptId) {
-		Node node = nodeMap.get(conceptId);
+	/**
+	 * @return the ancestors of the concept in this graph, not including the concept unless it is part of a cycle. Must not be modified.
+	 */
+	public LongSet getAncestors(long conceptId) {
+		synchronized (this) {
+			LongSet cached = ancestorClosures.getAndMoveToLast(conceptId);
+			if (cached != null) {
+				return cached;
+			}
+		}
+		Node node;
+		synchronized (this) {
+			node = nodeMap.get(conceptId);
+		}
 		if (node == null) {
-			return Collections.emptySet();
+			return LongSets.EMPTY_SET;
+		}
+		LongSet ancestors = node.getAncestorIds();
+		synchronized (this) {
+			cache(ancestorClosures, conceptId, ancestors);
+		}
+		return ancestors;
+	}
+
+	/**
+	 * Closure used by property chains with this graph's attribute as the destination type.
+	 * Contains the concept, its ancestors in this graph and the inferred ancestors of all of those.
+	 * @return the closure of the concept. Must not be modified.
+	 */
+	public LongSet getChainClosure(long conceptId, ReasonerTaxonomy reasonerTaxonomy) {
+		synchronized (this) {
+			LongSet cached = chainClosures.getAndMoveToLast(conceptId);
+			if (cached != null) {
+				return cached;
+			}
+		}
+		LongSet chainPaths = new LongOpenHashSet(getAncestors(conceptId));
+		chainPaths.add(conceptId);
+		LongSet closure = new LongOpenHashSet(chainPaths);
+		for (LongIterator iterator = chainPaths.iterator(); iterator.hasNext(); ) {
+			closure.addAll(reasonerTaxonomy.getAncestors(iterator.nextLong()));
+		}
+		synchronized (this) {
+			cache(chainClosures, conceptId, closure);
+		}
+		return closure;
+	}
+
+	private void cache(Long2ObjectLinkedOpenHashMap<LongSet> closures, long conceptId, LongSet closure) {
+		closures.putAndMoveToLast(conceptId, closure);
+		if (closures.size() > maxCachedClosures) {
+			closures.removeFirst();
 		}
-		return node.getAncestorIds();
 	}
 }
@@ -17,6 +17,7 @@ package org.snomed.otf.owltoolkit.ontology;
 
 import com.google.common.base.Strings;
 import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrays;
 import org.semanticweb.owlapi.apibinding.OWLManager;
 import org.semanticweb.owlapi.formats.FunctionalSyntaxDocumentFormat;
 import org.semanticweb.owlapi.model.*;
@@ -33,6 +34,7 @@ import uk.ac.manchester.cs.owl.owlapi.OWLDataFactoryImpl;
 
 import java.io.OutputStream;
 import java.util.*;
+import java.util.function.BiConsumer;
 
 import static java.lang.Long.parseLong;
 
@@ -103,41 +105,25 @@ public class OntologyService {
 	
 	public Map<Long, Set<OWLAxiom>> createAxiomsFromStatedRelationships(SnomedTaxonomy snomedTaxonomy, Set<Long> conceptIds) {
 		Map<Long, Set<OWLAxiom>> axiomsMap = new Long2ObjectOpenHashMap<>();
+		createAxiomsFromStatedRelationships(snomedTaxonomy, conceptIds, axiomsMap::put);
+		return axiomsMap;
+	}
 
-		// Create axioms of concept model attributes
+	/**
+	 * Creates the axioms of one concept at a time, in concept id order, so the axioms of all concepts are never held together.
+	 * @param conceptIds concepts to create axioms for, or null for all concepts
+	 * @param conceptAxiomsConsumer called with each concept id and its axioms, for concepts with at least one axiom
+	 */
+	public void createAxiomsFromStatedRelationships(SnomedTaxonomy snomedTaxonomy, Set<Long> conceptIds, BiConsumer<Long, Set<OWLAxiom>> conceptAxiomsConsumer) {
 		// The Concept Model Object Attribute concept did not always exist - use the parent if it doesn't exist
 		boolean conceptModelObjectAttributePresent = snomedTaxonomy.getAllConceptIds().contains(Concepts.CONCEPT_MODEL_OBJECT_ATTRIBUTE_LONG);
 		Long conceptModelObjectAttribute = conceptModelObjectAttributePresent ?
 				Concepts.CONCEPT_MODEL_OBJECT_ATTRIBUTE_LONG : Concepts.CONCEPT_MODEL_ATTRIBUTE_LONG;
 
-		Set<Long> descendants = snomedTaxonomy.getDescendants(conceptModelObjectAttribute);
-		for (Long objectAttributeId : descendants) {
-			if (conceptIds != null && !conceptIds.contains(objectAttributeId)) {
-				continue;
-			}
-			for (Relationship relationship : snomedTaxonomy.getStatedRelationships(objectAttributeId)) {
-				if (relationship.getTypeId() == Concepts.IS_A_LONG) {
-					axiomsMap.computeIfAbsent(objectAttributeId, (id) -> new HashSet<>())
-							.add(createOwlSubObjectPropertyOfAxiom(objectAttributeId, relationship.getDestinationId()));
-				}
-			}
-		}
-
-		if (snomedTaxonomy.getAllConceptIds().contains(Concepts.CONCEPT_MODEL_DATA_ATTRIBUTE_LONG)) {
-			for (Long dataAttributeId : snomedTaxonomy.getDescendants(Concepts.CONCEPT_MODEL_DATA_ATTRIBUTE_LONG)) {
-				if (conceptIds != null && !conceptIds.contains(dataAttributeId)) {
-					continue;
-				}
-				for (Relationship relationship : snomedTaxonomy.getStatedRelationships(dataAttributeId)) {
-					if (relationship.getTypeId() == Concepts.IS_A_LONG) {
-						axiomsMap.computeIfAbsent(dataAttributeId, (id) -> new HashSet<>())
-								.add(createOwlSubDataPropertyOfAxiom(dataAttributeId, relationship.getDestinationId()));
-					}
-				}
-			}
-		}
+		Set<Long> objectAttributeIds = snomedTaxonomy.getDescendants(conceptModelObjectAttribute);
+		Set<Long> dataAttributeIds = snomedTaxonomy.getAllConceptIds().contains(Concepts.CONCEPT_MODEL_DATA_ATTRIBUTE_LONG) ?
+				snomedTaxonomy.getDescendants(Concepts.CONCEPT_MODEL_DATA_ATTRIBUTE_LONG) : Collections.emptySet();
 
-		// Create axioms of all other Snomed concepts
 		Set<Long> attributeIds = snomedTaxonomy.getDescendants(Concepts.CONCEPT_MODEL_ATTRIBUTE_LONG);
 
 		// Link the top object and data property into the class hierarchy.
@@ -147,29 +133,54 @@ public class OntologyService {
 		attributeIds.remove(Concepts.CONCEPT_MODEL_OBJECT_ATTRIBUTE_LONG);
 		attributeIds.remove(Concepts.CONCEPT_MODEL_DATA_ATTRIBUTE_LONG);
 
+		// Attributes are always concepts of the taxonomy so visiting all concepts in order covers everything
+		long[] sortedConceptIds = new long[snomedTaxonomy.getAllConceptIds().size()];
+		int i = 0;
 		for (Long conceptId : snomedTaxonomy.getAllConceptIds()) {
+			sortedConceptIds[i++] = conceptId;
+		}
+		LongArrays.quickSort(sortedConceptIds);
+
+		for (long conceptId : sortedConceptIds) {
 			if (conceptIds != null && !conceptIds.contains(conceptId)) {
 				continue;
 			}
-			// Convert any stated relationships to axioms
-			boolean primitive = snomedTaxonomy.isPrimitive(conceptId);
+			Set<OWLAxiom> conceptAxioms = new HashSet<>();
 			Collection<Relationship> statedRelationships = snomedTaxonomy.getStatedRelationships(conceptId);
 
+			// Create axioms of concept model attributes
+			if (objectAttributeIds.contains(conceptId)) {
+				for (Relationship relationship : statedRelationships) {
+					if (relationship.getTypeId() == Concepts.IS_A_LONG) {
+						conceptAxioms.add(createOwlSubObjectPropertyOfAxiom(conceptId, relationship.getDestinationId()));
+					}
+				}
+			}
+			if (dataAttributeIds.contains(conceptId)) {
+				for (Relationship relationship : statedRelationships) {
+					if (relationship.getTypeId() == Concepts.IS_A_LONG) {
+						conceptAxioms.add(createOwlSubDataPropertyOfAxiom(conceptId, relationship.getDestinationId()));
+					}
+				}
+			}
+
+			// Convert any stated relationships of all other Snomed concepts to axioms
 			if (!statedRelationships.isEmpty() && !attributeIds.contains(conceptId)) {
 				AxiomRepresentation representation = new AxiomRepresentation();
-				representation.setPrimitive(primitive);
+				representation.setPrimitive(snomedTaxonomy.isPrimitive(conceptId));
 				representation.setLeftHandSideNamedConcept(conceptId);
 				Map<Integer, List<Relationship>> relationshipMap = new HashMap<>();
 				for (Relationship statedRelationship : statedRelationships) {
 					relationshipMap.computeIfAbsent(statedRelationship.getGroup(), g -> new ArrayList<>()).add(statedRelationship);
 				}
 				representation.setRightHandSideRelationships(relationshipMap);
-				OWLClassAxiom conceptAxiom = createOwlClassAxiom(representation);
-				axiomsMap.computeIfAbsent(conceptId, (id) -> new HashSet<>())
-						.add(conceptAxiom);
+				conceptAxioms.add(createOwlClassAxiom(representation));
+			}
+
+			if (!conceptAxioms.isEmpty()) {
+				conceptAxiomsConsumer.accept(conceptId, conceptAxioms);
 			}
 		}
-		return axiomsMap;
 	}
 
 	public Map<Long, Set<OWLAxiom>> createAxiomsFromStatedRelationships(SnomedTaxonomy snomedTaxonomy) {
@@ -0,0 +1,43 @@
+package org.snomed.otf.owltoolkit.ontology.render;
+
+/**
+ * 128 bit hash of the canonical form of an axiom, see {@link AxiomHasher}.
+ * Used as a compact key in place of the axiom itself, whose equals and hashCode methods walk the whole expression.
+ */
+public final class AxiomHash {
+
+	private final long high;
+	private final long low;
+
+	public AxiomHash(long high, long low) {
+		this.high = high;
+		this.low = low;
+	}
+
+	public long getHigh() {
+		return high;
+	}
+
+	public long getLow() {
+		return low;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (o == null || getClass() != o.getClass()) return false;
+		AxiomHash axiomHash = (AxiomHash) o;
+		return high == axiomHash.high && low == axiomHash.low;
+	}
+
+	@Override
+	public int hashCode() {
+		// The bits are already well mixed
+		return (int) low;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%016x%016x", high, low);
+	}
+}
@@ -0,0 +1,37 @@
+package org.snomed.otf.owltoolkit.ontology.render;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.semanticweb.owlapi.model.OWLAxiom;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Creates a 128 bit structural hash of an axiom.
+ * The axiom is rendered in its canonical short form, operands in the sorted order held by OWLAPI,
+ * so structurally equal axioms always have the same hash. The rendering is hashed using MurmurHash3.
+ *
+ * Buffers are reused so instances must not be shared between threads.
+ */
+public class AxiomHasher {
+
+	private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+	private final SnomedAxiomRenderer axiomRenderer = new SnomedAxiomRenderer();
+	private final StringBuilder builder = new StringBuilder();
+
+	public AxiomHash hash(OWLAxiom axiom) {
+		builder.setLength(0);
+		axiomRenderer.render(axiom, builder);
+		return hash(builder);
+	}
+
+	/**
+	 * Hashes an axiom expression which is already rendered. An expression in the canonical short form
+	 * has the same hash as the axiom it represents, other renderings of the axiom have a different hash.
+	 */
+	public static AxiomHash hash(CharSequence axiomExpression) {
+		ByteBuffer hash = ByteBuffer.wrap(HASH_FUNCTION.hashUnencodedChars(axiomExpression).asBytes());
+		return new AxiomHash(hash.getLong(), hash.getLong());
+	}
+}
@@ -0,0 +1,274 @@
+package org.snomed.otf.owltoolkit.ontology.render;
+
+import com.google.common.base.Optional;
+import org.semanticweb.owlapi.functional.renderer.FunctionalSyntaxObjectRenderer;
+import org.semanticweb.owlapi.model.*;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import static org.snomed.otf.owltoolkit.ontology.OntologyService.CORE_COMPONENT_NAMESPACE_PATTERN;
+import static org.snomed.otf.owltoolkit.ontology.OntologyService.SNOMED_CORE_COMPONENTS_URI;
+
+/**
+ * Renders axioms of the SNOMED CT profile straight into a StringBuilder, writing SNOMED CT identifiers in the short form ":123".
+ * Named classes, object and data properties, owl:Thing, ObjectIntersectionOf, ObjectSomeValuesFrom, SubClassOf, EquivalentClasses,
+ * SubObjectPropertyOf, property chains, SubDataPropertyOf, TransitiveObjectProperty and ReflexiveObjectProperty are rendered directly.
+ * Any other axiom, including annotated axioms, is rendered using OWLAPI so the output is always the same as before.
+ *
+ * Operands are written in the order held by OWLAPI, which is the sorted order also used by the OWLAPI renderers.
+ * The write method, and rendering outside of the profile in the reference set form, reuse buffers
+ * so these instances must not be shared between threads.
+ */
+public class SnomedAxiomRenderer {
+
+	private static final String OWL_THING = "owl:Thing";
+
+	private final boolean functionalSyntax;
+	private final StringBuilderWriter fallbackWriter;
+	private final FunctionalSyntaxObjectRenderer fallbackRenderer;
+	private final StringBuilder buffer = new StringBuilder();
+	private char[] chars = new char[0];
+
+	/**
+	 * Creates a renderer with the same output as OWLAPI toString with SNOMED CT identifiers shortened,
+	 * the form used for axioms converted from relationships.
+	 */
+	public SnomedAxiomRenderer() {
+		functionalSyntax = false;
+		fallbackWriter = null;
+		fallbackRenderer = null;
+	}
+
+	/**
+	 * Creates a renderer with the same output as FunctionalSyntaxObjectRenderer with the SNOMED CT prefix manager,
+	 * the form used in the OWL Axiom reference set.
+	 * @param ontology used when rendering axioms outside of the SNOMED CT profile.
+	 */
+	public SnomedAxiomRenderer(OWLOntology ontology) {
+		functionalSyntax = true;
+		fallbackWriter = new StringBuilderWriter();
+		fallbackRenderer = new FunctionalSyntaxObjectRenderer(ontology, fallbackWriter);
+		SnomedPrefixManager prefixManager = new SnomedPrefixManager();
+		prefixManager.setDefaultPrefix(SNOMED_CORE_COMPONENTS_URI);
+		fallbackRenderer.setPrefixManager(prefixManager);
+	}
+
+	/**
+	 * Appends the rendered axiom to the builder.
+	 */
+	public void render(OWLAxiom axiom, StringBuilder builder) {
+		final int start = builder.length();
+		if (!appendAxiom(axiom, builder)) {
+			builder.setLength(start);
+			appendUsingOwlApi(axiom, builder);
+		}
+	}
+
+	/**
+	 * Writes the rendered axiom to the writer without creating an intermediate String.
+	 */
+	public void write(OWLAxiom axiom, Writer writer) throws IOException {
+		buffer.setLength(0);
+		render(axiom, buffer);
+		final int length = buffer.length();
+		if (chars.length < length) {
+			chars = new char[Math.max(length, chars.length * 2)];
+		}
+		buffer.getChars(0, length, chars, 0);
+		writer.write(chars, 0, length);
+	}
+
+	private boolean appendAxiom(OWLAxiom axiom, StringBuilder builder) {
+		if (axiom.isAnnotated()) {
+			return false;
+		}
+		final AxiomType<?> axiomType = axiom.getAxiomType();
+		if (axiomType == AxiomType.SUBCLASS_OF) {
+			OWLSubClassOfAxiom subClassOfAxiom = (OWLSubClassOfAxiom) axiom;
+			builder.append("SubClassOf(");
+			return appendClassExpression(subClassOfAxiom.getSubClass(), builder)
+					&& appendClassExpression(subClassOfAxiom.getSuperClass(), builder.append(' '))
+					&& close(builder);
+		} else if (axiomType == AxiomType.EQUIVALENT_CLASSES) {
+			Set<OWLClassExpression> classExpressions = ((OWLEquivalentClassesAxiom) axiom).getClassExpressions();
+			// A class equivalent to itself is left to OWLAPI, the functional syntax renderer writes nothing for it
+			if (classExpressions.size() < 2) {
+				return false;
+			}
+			builder.append("EquivalentClasses(");
+			if (!appendClassExpressions(classExpressions, builder)) {
+				return false;
+			}
+			// OWLAPI toString closes with " )" which was only collapsed to "))" after another bracket
+			if (!functionalSyntax && builder.charAt(builder.length() - 1) != ')') {
+				builder.append(' ');
+			}
+			return close(builder);
+		} else if (axiomType == AxiomType.SUB_OBJECT_PROPERTY) {
+			OWLSubObjectPropertyOfAxiom subObjectPropertyOfAxiom = (OWLSubObjectPropertyOfAxiom) axiom;
+			builder.append("SubObjectPropertyOf(");
+			return appendProperty(subObjectPropertyOfAxiom.getSubProperty(), builder)
+					&& appendProperty(subObjectPropertyOfAxiom.getSuperProperty(), builder.append(' '))
+					&& close(builder);
+		} else if (axiomType == AxiomType.SUB_PROPERTY_CHAIN_OF) {
+			OWLSubPropertyChainOfAxiom subPropertyChainOfAxiom = (OWLSubPropertyChainOfAxiom) axiom;
+			builder.append("SubObjectPropertyOf(ObjectPropertyChain(");
+			// OWLAPI toString pads the chain with spaces inside the brackets
+			if (!functionalSyntax) {
+				builder.append(' ');
+			}
+			List<OWLObjectPropertyExpression> propertyChain = subPropertyChainOfAxiom.getPropertyChain();
+			for (int i = 0; i < propertyChain.size(); i++) {
+				if (i > 0) {
+					builder.append(' ');
+				}
+				if (!appendProperty(propertyChain.get(i), builder)) {
+					return false;
+				}
+			}
+			builder.append(functionalSyntax ? ") " : " ) ");
+			return appendProperty(subPropertyChainOfAxiom.getSuperProperty(), builder)
+					&& close(builder);
+		} else if (axiomType == AxiomType.SUB_DATA_PROPERTY) {
+			OWLSubDataPropertyOfAxiom subDataPropertyOfAxiom = (OWLSubDataPropertyOfAxiom) axiom;
+			builder.append("SubDataPropertyOf(");
+			return appendProperty(subDataPropertyOfAxiom.getSubProperty(), builder)
+					&& appendProperty(subDataPropertyOfAxiom.getSuperProperty(), builder.append(' '))
+					&& close(builder);
+		} else if (axiomType == AxiomType.TRANSITIVE_OBJECT_PROPERTY) {
+			builder.append("TransitiveObjectProperty(");
+			return appendProperty(((OWLTransitiveObjectPropertyAxiom) axiom).getProperty(), builder)
+					&& close(builder);
+		} else if (axiomType == AxiomType.REFLEXIVE_OBJECT_PROPERTY) {
+			builder.append("ReflexiveObjectProperty(");
+			return appendProperty(((OWLReflexiveObjectPropertyAxiom) axiom).getProperty(), builder)
+					&& close(builder);
+		}
+		return false;
+	}
+
+	private boolean appendClassExpression(OWLClassExpression classExpression, StringBuilder builder) {
+		switch (classExpression.getClassExpressionType()) {
+			case OWL_CLASS:
+				if (classExpression.isOWLThing()) {
+					builder.append(OWL_THING);
+					return true;
+				}
+				return appendIdentifier(classExpression.asOWLClass().getIRI(), builder);
+			case OBJECT_INTERSECTION_OF:
+				builder.append("ObjectIntersectionOf(");
+				return appendClassExpressions(((OWLObjectIntersectionOf) classExpression).getOperands(), builder)
+						&& close(builder);
+			case OBJECT_SOME_VALUES_FROM:
+				OWLObjectSomeValuesFrom someValuesFrom = (OWLObjectSomeValuesFrom) classExpression;
+				builder.append("ObjectSomeValuesFrom(");
+				return appendProperty(someValuesFrom.getProperty(), builder)
+						&& appendClassExpression(someValuesFrom.getFiller(), builder.append(' '))
+						&& close(builder);
+			default:
+				return false;
+		}
+	}
+
+	private boolean appendClassExpressions(Iterable<OWLClassExpression> classExpressions, StringBuilder builder) {
+		Iterator<OWLClassExpression> iterator = classExpressions.iterator();
+		while (iterator.hasNext()) {
+			if (!appendClassExpression(iterator.next(), builder)) {
+				return false;
+			}
+			if (iterator.hasNext()) {
+				builder.append(' ');
+			}
+		}
+		return true;
+	}
+
+	private boolean appendProperty(OWLPropertyExpression property, StringBuilder builder) {
+		if (property.isAnonymous() || property.isTopEntity() || property.isBottomEntity()) {
+			return false;
+		}
+		return appendIdentifier(((OWLEntity) property).getIRI(), builder);
+	}
+
+	/**
+	 * Appends the short form of an IRI made up of the SNOMED CT namespace and digits.
+	 * OWLAPI may hold some of the digits in the namespace and some in the remainder so both are read in place.
+	 */
+	private boolean appendIdentifier(IRI iri, StringBuilder builder) {
+		final String namespace = iri.getNamespace();
+		if (!namespace.startsWith(SNOMED_CORE_COMPONENTS_URI)) {
+			return false;
+		}
+		final int start = builder.length();
+		builder.append(':');
+		if (!appendDigits(namespace, SNOMED_CORE_COMPONENTS_URI.length(), builder)) {
+			return false;
+		}
+		Optional<String> remainder = iri.getRemainder();
+		if (remainder.isPresent() && !appendDigits(remainder.get(), 0, builder)) {
+			return false;
+		}
+		// At least one digit
+		return builder.length() > start + 1;
+	}
+
+	private boolean appendDigits(String string, int from, StringBuilder builder) {
+		for (int i = from; i < string.length(); i++) {
+			final char c = string.charAt(i);
+			if (c < '0' || c > '9') {
+				return false;
+			}
+			builder.append(c);
+		}
+		return true;
+	}
+
+	private boolean close(StringBuilder builder) {
+		builder.append(')');
+		return true;
+	}
+
+	private void appendUsingOwlApi(OWLAxiom axiom, StringBuilder builder) {
+		if (functionalSyntax) {
+			fallbackWriter.setBuilder(builder);
+			try {
+				axiom.accept(fallbackRenderer);
+			} finally {
+				fallbackWriter.setBuilder(null);
+			}
+		} else {
+			builder.append(axiom.toString().replaceAll(CORE_COMPONENT_NAMESPACE_PATTERN, ":$1").replace(") )", "))"));
+		}
+	}
+
+	private static final class StringBuilderWriter extends Writer {
+
+		private StringBuilder builder;
+
+		private void setBuilder(StringBuilder builder) {
+			this.builder = builder;
+		}
+
+		@Override
+		public void write(char[] chars, int offset, int length) {
+			builder.append(chars, offset, length);
+		}
+
+		@Override
+		public void write(String string, int offset, int length) {
+			builder.append(string, offset, offset + length);
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
@@ -0,0 +1,195 @@
+package org.snomed.otf.owltoolkit.service;
+
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import org.snomed.otf.owltoolkit.classification.ReasonerTaxonomy;
+import org.snomed.otf.owltoolkit.ontology.PropertyChain;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Binary snapshot of the classification state after reasoning.
+ * Holds everything the normal form stage needs which is not loaded from RF2: the inferred taxonomy,
+ * including equivalent and unsatisfiable concepts, and the property chains from the ontology.
+ *
+ * The header records the reasoner and a fingerprint of the classification input so that a checkpoint is only
+ * resumed against the input it was created from. Only inferred parents are stored, ancestors are rebuilt on load.
+ */
+class ClassificationCheckpoint {
+
+	private static final int FORMAT_VERSION = 3;
+
+	private final String reasonerFactoryClassName;
+	private final InputFingerprint inputFingerprint;
+	private final ReasonerTaxonomy reasonerTaxonomy;
+	private final Set<PropertyChain> propertyChains;
+
+	ClassificationCheckpoint(String reasonerFactoryClassName, InputFingerprint inputFingerprint, ReasonerTaxonomy reasonerTaxonomy, Set<PropertyChain> propertyChains) {
+		this.reasonerFactoryClassName = reasonerFactoryClassName;
+		this.inputFingerprint = inputFingerprint;
+		this.reasonerTaxonomy = reasonerTaxonomy;
+		this.propertyChains = propertyChains;
+	}
+
+	void write(File checkpointFile) throws IOException {
+		File tempFile = new File(checkpointFile.getAbsolutePath() + ".tmp");
+		try (DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+			outputStream.writeInt(FORMAT_VERSION);
+			outputStream.writeUTF(reasonerFactoryClassName);
+			inputFingerprint.write(outputStream);
+
+			outputStream.writeInt(propertyChains.size());
+			for (PropertyChain propertyChain : propertyChains) {
+				outputStream.writeLong(propertyChain.getSourceType());
+				outputStream.writeLong(propertyChain.getDestinationType());
+				outputStream.writeLong(propertyChain.getInferredType());
+			}
+
+			Set<Long> idsWithEntries = reasonerTaxonomy.getIdsWithEntries();
+			outputStream.writeInt(idsWithEntries.size());
+			for (Long id : idsWithEntries) {
+				outputStream.writeLong(id);
+				writeIds(reasonerTaxonomy.getParents(id), outputStream);
+			}
+			writeIds(reasonerTaxonomy.getConceptIds(), outputStream);
+			writeIds(reasonerTaxonomy.getAttributeIds(), outputStream);
+			List<Set<Long>> equivalentConceptIds = reasonerTaxonomy.getEquivalentConceptIds();
+			outputStream.writeInt(equivalentConceptIds.size());
+			for (Set<Long> equivalentSet : equivalentConceptIds) {
+				writeIds(equivalentSet, outputStream);
+			}
+			writeIds(reasonerTaxonomy.getUnsatisfiableConceptIds(), outputStream);
+		}
+		// Replace in one step so that a failure while writing never leaves a truncated checkpoint behind
+		Files.move(tempFile.toPath(), checkpointFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	static ClassificationCheckpoint read(File checkpointFile) throws IOException {
+		try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(checkpointFile)))) {
+			int formatVersion = inputStream.readInt();
+			if (formatVersion != FORMAT_VERSION) {
+				throw new IOException(String.format("Checkpoint format version %s is not supported, expected %s.", formatVersion, FORMAT_VERSION));
+			}
+			String reasonerFactoryClassName = inputStream.readUTF();
+			InputFingerprint inputFingerprint = InputFingerprint.read(inputStream);
+
+			int propertyChainCount = inputStream.readInt();
+			Set<PropertyChain> propertyChains = new HashSet<>();
+			for (int i = 0; i < propertyChainCount; i++) {
+				propertyChains.add(new PropertyChain(inputStream.readLong(), inputStream.readLong(), inputStream.readLong()));
+			}
+
+			ReasonerTaxonomy reasonerTaxonomy = new ReasonerTaxonomy();
+			int entryCount = inputStream.readInt();
+			for (int i = 0; i < entryCount; i++) {
+				long id = inputStream.readLong();
+				reasonerTaxonomy.setParents(id, readIds(inputStream));
+			}
+			reasonerTaxonomy.computeAncestors();
+			reasonerTaxonomy.getConceptIds().addAll(readIdList(inputStream));
+			reasonerTaxonomy.getAttributeIds().addAll(readIdList(inputStream));
+			int equivalentSetCount = inputStream.readInt();
+			for (int i = 0; i < equivalentSetCount; i++) {
+				reasonerTaxonomy.addEquivalentConceptIds(readIds(inputStream));
+			}
+			reasonerTaxonomy.addUnsatisfiableConceptIds(readIds(inputStream));
+			return new ClassificationCheckpoint(reasonerFactoryClassName, inputFingerprint, reasonerTaxonomy, propertyChains);
+		} catch (EOFException e) {
+			throw new IOException("Checkpoint file is truncated.", e);
+		}
+	}
+
+	private static void writeIds(Collection<Long> ids, DataOutputStream outputStream) throws IOException {
+		outputStream.writeInt(ids.size());
+		for (Long id : ids) {
+			outputStream.writeLong(id);
+		}
+	}
+
+	private static Set<Long> readIds(DataInputStream inputStream) throws IOException {
+		int size = inputStream.readInt();
+		Set<Long> ids = new LongOpenHashSet(size);
+		for (int i = 0; i < size; i++) {
+			ids.add(inputStream.readLong());
+		}
+		return ids;
+	}
+
+	private static List<Long> readIdList(DataInputStream inputStream) throws IOException {
+		int size = inputStream.readInt();
+		List<Long> ids = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			ids.add(inputStream.readLong());
+		}
+		return ids;
+	}
+
+	String getReasonerFactoryClassName() {
+		return reasonerFactoryClassName;
+	}
+
+	InputFingerprint getInputFingerprint() {
+		return inputFingerprint;
+	}
+
+	ReasonerTaxonomy getReasonerTaxonomy() {
+		return reasonerTaxonomy;
+	}
+
+	Set<PropertyChain> getPropertyChains() {
+		return propertyChains;
+	}
+
+	/**
+	 * Identifies the classification input: the content hash of the RF2 archives, when classifying files,
+	 * and the number of concepts and axioms loaded.
+	 */
+	static class InputFingerprint {
+
+		private final String contentHash;
+		private final int conceptCount;
+		private final long axiomCount;
+
+		/**
+		 * @param contentHash hash of the input archives, from {@link ClassificationResultCache#hashInput}, or null when classifying streams
+		 */
+		InputFingerprint(String contentHash, int conceptCount, long axiomCount) {
+			this.contentHash = contentHash;
+			this.conceptCount = conceptCount;
+			this.axiomCount = axiomCount;
+		}
+
+		/**
+		 * Checks that a checkpoint created from this input can be resumed against the given input.
+		 * @return true if the content hashes matched, false if either is missing so only the counts could be compared.
+		 * @throws ReasonerServiceException if the inputs differ.
+		 */
+		boolean verify(InputFingerprint currentInput, File checkpointFile) throws ReasonerServiceException {
+			boolean hashesCompared = contentHash != null && currentInput.contentHash != null;
+			if ((hashesCompared && !contentHash.equals(currentInput.contentHash))
+					|| conceptCount != currentInput.conceptCount || axiomCount != currentInput.axiomCount) {
+				throw new ReasonerServiceException(String.format("Classification checkpoint %s was created from different input, " +
+								"checkpoint has %s concepts and %s axioms with hash %s, input has %s concepts and %s axioms with hash %s. " +
+								"Delete the checkpoint or classify without resuming.",
+						checkpointFile.getAbsolutePath(), conceptCount, axiomCount, contentHash, currentInput.conceptCount, currentInput.axiomCount, currentInput.contentHash));
+			}
+			return hashesCompared;
+		}
+
+		private void write(DataOutputStream outputStream) throws IOException {
+			outputStream.writeBoolean(contentHash != null);
+			if (contentHash != null) {
+				outputStream.writeUTF(contentHash);
+			}
+			outputStream.writeInt(conceptCount);
+			outputStream.writeLong(axiomCount);
+		}
+
+		private static InputFingerprint read(DataInputStream inputStream) throws IOException {
+			String contentHash = inputStream.readBoolean() ? inputStream.readUTF() : null;
+			return new InputFingerprint(contentHash, inputStream.readInt(), inputStream.readLong());
+		}
+	}
+}
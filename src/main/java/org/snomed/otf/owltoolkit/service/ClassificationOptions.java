@@ -0,0 +1,167 @@
+package org.snomed.otf.owltoolkit.service;
+
+import org.snomed.otf.owltoolkit.util.ParallelZipOutputStream;
+
+import java.io.File;
+
+public class ClassificationOptions {
+
+	// Worker threads used by the reasoner during inference. 0 leaves the reasoner default in place, for ELK this is the number of available processors.
+	private int reasonerWorkerThreads = 0;
+
+	// Reasoner timeout in milliseconds. Long.MAX_VALUE means no timeout.
+	private long reasonerTimeoutMillis = Long.MAX_VALUE;
+
+	private boolean reasonerProgressMonitor = true;
+
+	// Threads used to request direct parents from the reasoner after inference. 1 uses the single threaded breadth-first walk.
+	private int taxonomyExtractionThreads = 1;
+
+	// Threads used for normal form generation. 1 processes concepts one at a time in breadth-first order.
+	private int normalFormThreads = 1;
+
+	// Threads used to convert concept axioms to relationships before normal form generation. 1 converts on the calling thread.
+	private int axiomConversionThreads = 1;
+
+	// If set, the normal form is only generated for concepts affected by the delta. Existing inferred relationships are used for all other concepts
+	// so these must be the result of classifying the snapshot. Falls back to all concepts if the delta changes the MRCM or ontology refset.
+	private boolean incrementalNormalForm;
+
+	// If set, relationship changes are written to the results archive as they are found rather than collected in memory until the end.
+	// Rows are written in the order concepts are processed rather than all additions first.
+	private boolean streamRelationshipChanges;
+
+	// Deflate level used for the results archive from 0 to 9, or -1 for the default level. 0 writes the data without compression.
+	private int resultsCompressionLevel = ParallelZipOutputStream.DEFAULT_COMPRESSION;
+
+	// Threads used to compress the results archive. 1 compresses on the thread writing the results.
+	private int resultsCompressionThreads = 1;
+
+	// If set the state after reasoning is written to this file.
+	private File checkpointFile;
+
+	// If set and the checkpoint file exists then ontology creation and reasoning are skipped, the checkpoint is used instead.
+	private boolean resumeFromCheckpoint;
+
+	// If set, results of classifications using archive files are stored in this directory keyed by a hash of the input.
+	// Classifying the same input again copies the stored results rather than running the classification.
+	private File resultCacheDirectory;
+
+	// Least recently used results are removed from the cache directory when the total size exceeds this.
+	private long resultCacheMaxSizeBytes = 1024L * 1024 * 1024;
+
+	public ClassificationOptions() {
+	}
+
+	public int getReasonerWorkerThreads() {
+		return reasonerWorkerThreads;
+	}
+
+	public void setReasonerWorkerThreads(int reasonerWorkerThreads) {
+		this.reasonerWorkerThreads = reasonerWorkerThreads;
+	}
+
+	public long getReasonerTimeoutMillis() {
+		return reasonerTimeoutMillis;
+	}
+
+	public void setReasonerTimeoutMillis(long reasonerTimeoutMillis) {
+		this.reasonerTimeoutMillis = reasonerTimeoutMillis;
+	}
+
+	public boolean isReasonerProgressMonitor() {
+		return reasonerProgressMonitor;
+	}
+
+	public void setReasonerProgressMonitor(boolean reasonerProgressMonitor) {
+		this.reasonerProgressMonitor = reasonerProgressMonitor;
+	}
+
+	public int getTaxonomyExtractionThreads() {
+		return taxonomyExtractionThreads;
+	}
+
+	public void setTaxonomyExtractionThreads(int taxonomyExtractionThreads) {
+		this.taxonomyExtractionThreads = taxonomyExtractionThreads;
+	}
+
+	public int getNormalFormThreads() {
+		return normalFormThreads;
+	}
+
+	public void setNormalFormThreads(int normalFormThreads) {
+		this.normalFormThreads = normalFormThreads;
+	}
+
+	public int getAxiomConversionThreads() {
+		return axiomConversionThreads;
+	}
+
+	public void setAxiomConversionThreads(int axiomConversionThreads) {
+		this.axiomConversionThreads = axiomConversionThreads;
+	}
+
+	public boolean isIncrementalNormalForm() {
+		return incrementalNormalForm;
+	}
+
+	public void setIncrementalNormalForm(boolean incrementalNormalForm) {
+		this.incrementalNormalForm = incrementalNormalForm;
+	}
+
+	public boolean isStreamRelationshipChanges() {
+		return streamRelationshipChanges;
+	}
+
+	public void setStreamRelationshipChanges(boolean streamRelationshipChanges) {
+		this.streamRelationshipChanges = streamRelationshipChanges;
+	}
+
+	public int getResultsCompressionLevel() {
+		return resultsCompressionLevel;
+	}
+
+	public void setResultsCompressionLevel(int resultsCompressionLevel) {
+		this.resultsCompressionLevel = resultsCompressionLevel;
+	}
+
+	public int getResultsCompressionThreads() {
+		return resultsCompressionThreads;
+	}
+
+	public void setResultsCompressionThreads(int resultsCompressionThreads) {
+		this.resultsCompressionThreads = resultsCompressionThreads;
+	}
+
+	public File getCheckpointFile() {
+		return checkpointFile;
+	}
+
+	public void setCheckpointFile(File checkpointFile) {
+		this.checkpointFile = checkpointFile;
+	}
+
+	public boolean isResumeFromCheckpoint() {
+		return resumeFromCheckpoint;
+	}
+
+	public void setResumeFromCheckpoint(boolean resumeFromCheckpoint) {
+		this.resumeFromCheckpoint = resumeFromCheckpoint;
+	}
+
+	public File getResultCacheDirectory() {
+		return resultCacheDirectory;
+	}
+
+	public void setResultCacheDirectory(File resultCacheDirectory) {
+		this.resultCacheDirectory = resultCacheDirectory;
+	}
+
+	public long getResultCacheMaxSizeBytes() {
+		return resultCacheMaxSizeBytes;
+	}
+
+	public void setResultCacheMaxSizeBytes(long resultCacheMaxSizeBytes) {
+		this.resultCacheMaxSizeBytes = resultCacheMaxSizeBytes;
+	}
+}
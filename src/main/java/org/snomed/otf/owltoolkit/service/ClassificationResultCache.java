@@ -0,0 +1,124 @@
+package org.snomed.otf.owltoolkit.service;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Local directory of classification results archives keyed by a hash of the classification input.
+ * The least recently used archives are removed when the total size of the directory exceeds the limit.
+ */
+class ClassificationResultCache {
+
+	// Increment when a code change alters classification results for the same input, so that results from earlier versions are not reused.
+	// 2: streamed results, inactive relationship id reuse and the parallel deflate results archive.
+	private static final String CACHE_KEY_VERSION = "2";
+	private static final String ARCHIVE_EXTENSION = ".zip";
+
+	private final File cacheDirectory;
+	private final long maxSizeBytes;
+
+	private Logger logger = LoggerFactory.getLogger(getClass());
+
+	ClassificationResultCache(File cacheDirectory, long maxSizeBytes) {
+		this.cacheDirectory = cacheDirectory;
+		this.maxSizeBytes = maxSizeBytes;
+	}
+
+	/**
+	 * @param options only the options which change the content or form of the results archive are part of the key
+	 */
+	String createKey(String inputHash, String reasonerFactoryClassName, ClassificationOptions options) {
+		return Hashing.sha256().newHasher()
+				.putString(CACHE_KEY_VERSION, StandardCharsets.UTF_8)
+				.putString(reasonerFactoryClassName, StandardCharsets.UTF_8)
+				.putString(inputHash, StandardCharsets.UTF_8)
+				.putBoolean(options.isIncrementalNormalForm())
+				.putBoolean(options.isStreamRelationshipChanges())
+				.putInt(options.getResultsCompressionLevel())
+				.hash().toString();
+	}
+
+	/**
+	 * @return hash of the content of the snapshot archives and optional delta archive, regardless of snapshot order.
+	 */
+	static String hashInput(Set<File> previousReleaseRf2SnapshotArchiveFiles, File currentReleaseRf2DeltaArchiveFile) throws IOException {
+		// Snapshot hashes are sorted so that the hash does not depend on the iteration order of the set
+		List<String> snapshotHashes = new ArrayList<>();
+		for (File snapshotArchive : previousReleaseRf2SnapshotArchiveFiles) {
+			snapshotHashes.add(hashFile(snapshotArchive).toString());
+		}
+		Collections.sort(snapshotHashes);
+
+		Hasher hasher = Hashing.sha256().newHasher();
+		for (String snapshotHash : snapshotHashes) {
+			hasher.putString("snapshot:" + snapshotHash, StandardCharsets.UTF_8);
+		}
+		if (currentReleaseRf2DeltaArchiveFile != null) {
+			hasher.putString("delta:" + hashFile(currentReleaseRf2DeltaArchiveFile), StandardCharsets.UTF_8);
+		}
+		return hasher.hash().toString();
+	}
+
+	/**
+	 * @return true if a cached archive was found and copied to the results file.
+	 */
+	boolean copyCachedResults(String key, File resultsFile) throws IOException {
+		File cachedArchive = getArchiveFile(key);
+		if (!cachedArchive.isFile()) {
+			return false;
+		}
+		Files.copy(cachedArchive.toPath(), resultsFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		// Last modified date is used as the last access time for eviction
+		if (!cachedArchive.setLastModified(System.currentTimeMillis())) {
+			logger.warn("Failed to update access time of cached results {}", cachedArchive.getAbsolutePath());
+		}
+		return true;
+	}
+
+	void store(String key, File resultsFile) throws IOException {
+		if (!cacheDirectory.isDirectory() && !cacheDirectory.mkdirs()) {
+			throw new IOException("Failed to create classification cache directory " + cacheDirectory.getAbsolutePath());
+		}
+		File tempFile = new File(cacheDirectory, key + ".tmp");
+		Files.copy(resultsFile.toPath(), tempFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		Files.move(tempFile.toPath(), getArchiveFile(key).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		evictLeastRecentlyUsed();
+	}
+
+	private void evictLeastRecentlyUsed() {
+		File[] archives = cacheDirectory.listFiles((dir, name) -> name.endsWith(ARCHIVE_EXTENSION));
+		if (archives == null) {
+			return;
+		}
+		long totalSize = 0;
+		for (File archive : archives) {
+			totalSize += archive.length();
+		}
+		Arrays.sort(archives, Comparator.comparingLong(File::lastModified));
+		for (int i = 0; i < archives.length && totalSize > maxSizeBytes; i++) {
+			long size = archives[i].length();
+			if (archives[i].delete()) {
+				logger.info("Evicted cached classification results {}", archives[i].getName());
+				totalSize -= size;
+			}
+		}
+	}
+
+	private File getArchiveFile(String key) {
+		return new File(cacheDirectory, key + ARCHIVE_EXTENSION);
+	}
+
+	private static HashCode hashFile(File file) throws IOException {
+		return com.google.common.io.Files.hash(file, Hashing.sha256());
+	}
+}
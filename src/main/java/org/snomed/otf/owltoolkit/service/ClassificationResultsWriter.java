@@ -18,20 +18,19 @@ package org.snomed.otf.owltoolkit.service;
 import org.snomed.otf.owltoolkit.constants.Concepts;
 import org.snomed.otf.owltoolkit.domain.Relationship;
 import org.snomed.otf.owltoolkit.normalform.RelationshipChangeProcessor;
+import org.snomed.otf.owltoolkit.normalform.RelationshipChangeSink;
+import org.snomed.otf.owltoolkit.util.ParallelZipOutputStream;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
-import java.nio.charset.Charset;
 import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
 class ClassificationResultsWriter {
 
-	private static final Charset UTF_8_CHARSET = Charset.forName("UTF-8");
 	private static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("yyyyMMdd");
 	private static final String RELATIONSHIPS_HEADER = "id\teffectiveTime\tactive\tmoduleId\tsourceId\tdestinationId\trelationshipGroup\ttypeId\tcharacteristicTypeId\tmodifierId";
 	private static final String EQUIVALENT_REFSET_HEADER = "id\teffectiveTime\tactive\tmoduleId\trefsetId\treferencedComponentId\tmapTarget";
@@ -41,10 +40,11 @@ class ClassificationResultsWriter {
 			RelationshipChangeProcessor changeCollector,
 			List<Set<Long>> equivalentConceptIdSets,
 			OutputStream resultsOutputStream,
-			Date startDate) throws ReasonerServiceException {
+			Date startDate,
+			ClassificationOptions options) throws ReasonerServiceException {
 
 		try {
-			try (ZipOutputStream zipOutputStream = new ZipOutputStream(resultsOutputStream, UTF_8_CHARSET);
+			try (ParallelZipOutputStream zipOutputStream = newZipOutputStream(resultsOutputStream, options);
 				 BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(zipOutputStream))) {
 
 				String formattedDate = DATE_FORMAT.format(startDate);
@@ -59,6 +59,28 @@ class ClassificationResultsWriter {
 		}
 	}
 
+	/**
+	 * Starts the results archive so that relationship changes can be written as they are found rather than collected in memory.
+	 * {@link StreamingResultsArchive#finish(List)} must be called once all changes have been written.
+	 */
+	StreamingResultsArchive startResultsRf2Archive(OutputStream resultsOutputStream, Date startDate, ClassificationOptions options) throws ReasonerServiceException {
+		String formattedDate = DATE_FORMAT.format(startDate);
+		ParallelZipOutputStream zipOutputStream = newZipOutputStream(resultsOutputStream, options);
+		BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(zipOutputStream));
+		try {
+			zipOutputStream.putNextEntry(new ZipEntry(String.format("RF2/sct2_Relationship_Delta_Classification_%s.txt", formattedDate)));
+			writer.write(RELATIONSHIPS_HEADER);
+			writer.newLine();
+		} catch (IOException e) {
+			throw new ReasonerServiceException("Failed to write out results archive.", e);
+		}
+		return new StreamingResultsArchive(zipOutputStream, writer, formattedDate);
+	}
+
+	private ParallelZipOutputStream newZipOutputStream(OutputStream resultsOutputStream, ClassificationOptions options) {
+		return new ParallelZipOutputStream(resultsOutputStream, options.getResultsCompressionLevel(), options.getResultsCompressionThreads());
+	}
+
 	private void writeRelationshipChanges(BufferedWriter writer, Map<Long, Set<Relationship>> addedStatements, Map<Long, Set<Relationship>> removedStatements) throws IOException {
 		// Write header
 		writer.write(RELATIONSHIPS_HEADER);
@@ -66,37 +88,45 @@ class ClassificationResultsWriter {
 
 		// Write newly inferred relationships
 		for (Long sourceId : addedStatements.keySet()) {
-			String active = "1";
-			for (Relationship relationship : addedStatements.get(sourceId)) {
-				writeRelationship(writer,
-						relationship.getRelationshipId() == -1 ? "" : relationship.getRelationshipId() + "",
-						active,
-						sourceId,
-						relationship.getDestinationId(),
-						relationship.getGroup(),
-						relationship.getTypeId(),
-						Concepts.EXISTENTIAL_RESTRICTION_MODIFIER);
-			}
+			writeAddedRelationships(writer, sourceId, addedStatements.get(sourceId));
 		}
 
 		// Write redundant relationships
 		for (Long sourceId : removedStatements.keySet()) {
-			String active = "0";
-			for (Relationship relationship : removedStatements.get(sourceId)) {
-				writeRelationship(writer,
-						relationship.getRelationshipId() + "",
-						active,
-						sourceId,
-						relationship.getDestinationId(),
-						relationship.getGroup(),
-						relationship.getTypeId(),
-						Concepts.EXISTENTIAL_RESTRICTION_MODIFIER);
-			}
+			writeRemovedRelationships(writer, sourceId, removedStatements.get(sourceId));
 		}
 
 		writer.flush();
 	}
 
+	private void writeAddedRelationships(BufferedWriter writer, Long sourceId, Set<Relationship> relationships) throws IOException {
+		String active = "1";
+		for (Relationship relationship : relationships) {
+			writeRelationship(writer,
+					relationship.getRelationshipId() == -1 ? "" : relationship.getRelationshipId() + "",
+					active,
+					sourceId,
+					relationship.getDestinationId(),
+					relationship.getGroup(),
+					relationship.getTypeId(),
+					Concepts.EXISTENTIAL_RESTRICTION_MODIFIER);
+		}
+	}
+
+	private void writeRemovedRelationships(BufferedWriter writer, Long sourceId, Set<Relationship> relationships) throws IOException {
+		String active = "0";
+		for (Relationship relationship : relationships) {
+			writeRelationship(writer,
+					relationship.getRelationshipId() + "",
+					active,
+					sourceId,
+					relationship.getDestinationId(),
+					relationship.getGroup(),
+					relationship.getTypeId(),
+					Concepts.EXISTENTIAL_RESTRICTION_MODIFIER);
+		}
+	}
+
 	private void writeEquivalentConcepts(BufferedWriter writer, List<Set<Long>> equivalentConceptIdSets) throws IOException {
 		// Write header
 		writer.write(EQUIVALENT_REFSET_HEADER);
@@ -176,4 +206,45 @@ class ClassificationResultsWriter {
 		writer.newLine();
 	}
 
+	/**
+	 * Results archive with the relationship file open. Relationship rows are written as each concept's changes are accepted,
+	 * calls from several threads are written one at a time.
+	 */
+	class StreamingResultsArchive implements RelationshipChangeSink {
+
+		private final ParallelZipOutputStream zipOutputStream;
+		private final BufferedWriter writer;
+		private final String formattedDate;
+
+		private StreamingResultsArchive(ParallelZipOutputStream zipOutputStream, BufferedWriter writer, String formattedDate) {
+			this.zipOutputStream = zipOutputStream;
+			this.writer = writer;
+			this.formattedDate = formattedDate;
+		}
+
+		@Override
+		public synchronized void accept(long conceptId, Set<Relationship> addedOrUpdated, Set<Relationship> removed) {
+			try {
+				writeAddedRelationships(writer, conceptId, addedOrUpdated);
+				writeRemovedRelationships(writer, conceptId, removed);
+			} catch (IOException e) {
+				throw new ReasonerServiceRuntimeException("Failed to write out results archive.", e);
+			}
+		}
+
+		/**
+		 * Completes the relationship file, writes the equivalent concepts file and closes the archive.
+		 */
+		synchronized void finish(List<Set<Long>> equivalentConceptIdSets) throws ReasonerServiceException {
+			try {
+				writer.flush();
+				zipOutputStream.putNextEntry(new ZipEntry(String.format("RF2/der2_sRefset_EquivalentConceptSimpleMapDelta_Classification_%s.txt", formattedDate)));
+				writeEquivalentConcepts(writer, equivalentConceptIdSets);
+				writer.close();
+			} catch (IOException e) {
+				throw new ReasonerServiceException("Failed to write out results archive.", e);
+			}
+		}
+	}
+
 }
@@ -15,7 +15,11 @@
  */
 package org.snomed.otf.owltoolkit.service;
 
+import org.apache.log4j.Level;
 import org.ihtsdo.otf.snomedboot.ReleaseImportException;
+import org.semanticweb.elk.owlapi.ElkReasonerConfiguration;
+import org.semanticweb.elk.owlapi.ElkReasonerFactory;
+import org.semanticweb.elk.reasoner.config.ReasonerConfiguration;
 import org.semanticweb.owlapi.model.OWLOntology;
 import org.semanticweb.owlapi.model.OWLOntologyCreationException;
 import org.semanticweb.owlapi.reasoner.*;
@@ -29,8 +33,10 @@ import org.snomed.otf.owltoolkit.conversion.ConversionException;
 import org.snomed.otf.owltoolkit.domain.AxiomRepresentation;
 import org.snomed.otf.owltoolkit.domain.Relationship;
 import org.snomed.otf.owltoolkit.normalform.RelationshipChangeProcessor;
+import org.snomed.otf.owltoolkit.normalform.RelationshipChangeSink;
 import org.snomed.otf.owltoolkit.normalform.RelationshipInactivationProcessor;
 import org.snomed.otf.owltoolkit.normalform.RelationshipNormalFormGenerator;
+import org.snomed.otf.owltoolkit.normalform.RelationshipReactivationProcessor;
 import org.snomed.otf.owltoolkit.ontology.OntologyDebugUtil;
 import org.snomed.otf.owltoolkit.ontology.OntologyService;
 import org.snomed.otf.owltoolkit.ontology.PropertyChain;
@@ -51,10 +57,17 @@ public class SnomedReasonerService {
 
 	private final ClassificationResultsWriter classificationResultsWriter;
 
+	private final ClassificationOptions options;
+
 	private Logger logger = LoggerFactory.getLogger(getClass());
 
 	public SnomedReasonerService() {
+		this(new ClassificationOptions());
+	}
+
+	public SnomedReasonerService(ClassificationOptions options) {
 		this.classificationResultsWriter = new ClassificationResultsWriter();
+		this.options = options;
 	}
 
 	public void classify(String classificationId,
@@ -80,19 +93,57 @@ public class SnomedReasonerService {
 			String reasonerFactoryClassName,
 			boolean outputOntologyFileForDebug) throws ReasonerServiceException {
 
+		// The input hash keys the result cache and identifies the input of a checkpoint
+		String inputHash = null;
+		if (options.getResultCacheDirectory() != null || options.getCheckpointFile() != null) {
+			try {
+				inputHash = ClassificationResultCache.hashInput(previousReleaseRf2SnapshotArchiveFile, currentReleaseRf2DeltaArchiveFile);
+			} catch (IOException e) {
+				throw new ReasonerServiceException("Failed to read classification input archives.", e);
+			}
+		}
+
+		ClassificationResultCache resultCache = null;
+		String cacheKey = null;
+		if (options.getResultCacheDirectory() != null) {
+			resultCache = new ClassificationResultCache(options.getResultCacheDirectory(), options.getResultCacheMaxSizeBytes());
+			cacheKey = resultCache.createKey(inputHash, reasonerFactoryClassName, options);
+			try {
+				if (resultCache.copyCachedResults(cacheKey, resultsRf2DeltaArchiveFile)) {
+					logger.info("Classification results for this input found in cache, key {}", cacheKey);
+					return;
+				}
+			} catch (IOException e) {
+				throw new ReasonerServiceException("Failed to read classification result cache.", e);
+			}
+		}
+
+		boolean inputVerified;
 		try (InputStreamSet previousReleaseRf2SnapshotArchives = new InputStreamSet(previousReleaseRf2SnapshotArchiveFile);
 			 OptionalFileInputStream currentReleaseRf2DeltaArchive = new OptionalFileInputStream(currentReleaseRf2DeltaArchiveFile);
 			 OutputStream resultsRf2DeltaArchive = new FileOutputStream(resultsRf2DeltaArchiveFile)) {
 
-			classify(classificationId,
+			inputVerified = classify(classificationId,
 					previousReleaseRf2SnapshotArchives,
 					currentReleaseRf2DeltaArchive.getInputStream().orElse(null),
 					resultsRf2DeltaArchive,
 					reasonerFactoryClassName,
-					outputOntologyFileForDebug);
+					outputOntologyFileForDebug,
+					inputHash);
 		} catch (IOException e) {
 			throw new ReasonerServiceException("IO error handling input/output files.", e);
 		}
+
+		if (resultCache != null && !inputVerified) {
+			logger.warn("Classification resumed from a checkpoint which could not be verified against the input, results not stored in cache.");
+		} else if (resultCache != null) {
+			try {
+				resultCache.store(cacheKey, resultsRf2DeltaArchiveFile);
+			} catch (IOException e) {
+				// The results have been written so do not fail the classification
+				logger.warn("Failed to store classification results in cache.", e);
+			}
+		}
 	}
 
 	public void classify(String classificationId,
@@ -102,26 +153,171 @@ public class SnomedReasonerService {
 			String reasonerFactoryClassName,
 			boolean outputOntologyFileForDebug) throws ReasonerServiceException {
 
+		classify(classificationId, previousReleaseRf2SnapshotArchives, currentReleaseRf2DeltaArchive, resultsRf2DeltaArchive, reasonerFactoryClassName,
+				outputOntologyFileForDebug, null);
+	}
+
+	/**
+	 * @param inputHash hash of the input archives used to verify a checkpoint, null when classifying streams
+	 * @return false if the run resumed from a checkpoint without comparing content hashes, so the results may not be for this input
+	 */
+	private boolean classify(String classificationId,
+			InputStreamSet previousReleaseRf2SnapshotArchives,
+			InputStream currentReleaseRf2DeltaArchive,
+			OutputStream resultsRf2DeltaArchive,
+			String reasonerFactoryClassName,
+			boolean outputOntologyFileForDebug,
+			String inputHash) throws ReasonerServiceException {
+
 		Date startDate = new Date();
-		TimerUtil timer = new TimerUtil("Classification");
+		TimerUtil timer = new TimerUtil("Classification", Level.INFO, true);
 		logger.info("Checking requested reasoner is available");
 		OWLReasonerFactory reasonerFactory = getOWLReasonerFactory(reasonerFactoryClassName);
 		timer.checkpoint("Create reasoner factory");
 
+		// Each stage below notes what it consumes and what it releases.
+		// References are cleared as soon as possible so that the peak heap is kept down on large editions.
+
+		// Stage: Build existing taxonomy
+		// Produces: snomedTaxonomy
 		logger.info("Building snomedTaxonomy");
 		SnomedTaxonomyBuilder snomedTaxonomyBuilder = new SnomedTaxonomyBuilder();
+		// Inactive inferred relationships are only used to reuse relationship ids
+		snomedTaxonomyBuilder.setIndexInactiveInferredRelationshipsOnly(true);
 		SnomedTaxonomy snomedTaxonomy;
 		try {
-
-			// Also load inactive inferred relationships into another MAP in snomedTaxonomyBuilder
 			snomedTaxonomy = snomedTaxonomyBuilder.build(previousReleaseRf2SnapshotArchives, currentReleaseRf2DeltaArchive, false);
 		} catch (ReleaseImportException e) {
 			throw new ReasonerServiceException("Failed to build existing taxonomy.", e);
 		}
 		timer.checkpoint("Build existing taxonomy");
 
-		logger.info("Creating OwlOntology");
 		Set<Long> ungroupedRoles = snomedTaxonomy.getUngroupedRolesForContentTypeOrDefault(parseLong(Concepts.ALL_PRECOORDINATED_CONTENT));
+
+		// Stages: Create OWL Ontology, Inference computation and taxonomy extraction
+		// Consumes: snomedTaxonomy stated relationships and axioms
+		// Produces: reasonerTaxonomy, propertyChains
+		// Releases: reasoner, owlOntology and its manager
+		ClassificationCheckpoint reasoningResult;
+		boolean inputVerified = true;
+		File checkpointFile = options.getCheckpointFile();
+		ClassificationCheckpoint.InputFingerprint inputFingerprint =
+				new ClassificationCheckpoint.InputFingerprint(inputHash, snomedTaxonomy.getAllConceptIds().size(), snomedTaxonomy.getAxiomCount());
+		if (options.isResumeFromCheckpoint() && checkpointFile != null && checkpointFile.isFile()) {
+			logger.info("Resuming from checkpoint {}", checkpointFile.getAbsolutePath());
+			try {
+				reasoningResult = ClassificationCheckpoint.read(checkpointFile);
+			} catch (IOException e) {
+				throw new ReasonerServiceException("Failed to read classification checkpoint.", e);
+			}
+			if (!reasoningResult.getReasonerFactoryClassName().equals(reasonerFactoryClassName)) {
+				throw new ReasonerServiceException(String.format("Classification checkpoint was created using reasoner '%s' not '%s'.",
+						reasoningResult.getReasonerFactoryClassName(), reasonerFactoryClassName));
+			}
+			inputVerified = reasoningResult.getInputFingerprint().verify(inputFingerprint, checkpointFile);
+			if (!inputVerified) {
+				logger.warn("Classification checkpoint or input has no content hash, only concept and axiom counts were compared.");
+			}
+			timer.checkpoint("Resume from checkpoint");
+		} else {
+			reasoningResult = inferReasonerTaxonomy(classificationId, snomedTaxonomy, ungroupedRoles, reasonerFactory, reasonerFactoryClassName, inputFingerprint,
+					outputOntologyFileForDebug, timer);
+			if (checkpointFile != null) {
+				logger.info("Writing checkpoint {}", checkpointFile.getAbsolutePath());
+				try {
+					reasoningResult.write(checkpointFile);
+				} catch (IOException e) {
+					throw new ReasonerServiceException("Failed to write classification checkpoint.", e);
+				}
+				timer.checkpoint("Write checkpoint");
+			}
+		}
+		ReasonerTaxonomy reasonerTaxonomy = reasoningResult.getReasonerTaxonomy();
+		Set<PropertyChain> propertyChains = reasoningResult.getPropertyChains();
+		reasoningResult = null;
+
+		// Stage: Generate normal form
+		// Consumes: reasonerTaxonomy, snomedTaxonomy axioms and relationships, propertyChains
+		// Produces: changeCollector, when streaming relationship rows are written to the results archive instead
+		// Releases: snomedTaxonomy axioms, axiom relationship representations, reasonerTaxonomy other than equivalent concepts
+		logger.info("Generate normal form");
+		AxiomRelationshipConversionService axiomRelationshipConversionService = new AxiomRelationshipConversionService(ungroupedRoles);
+		axiomRelationshipConversionService.setBatchConversionThreads(options.getAxiomConversionThreads());
+		Map<Long, Set<AxiomRepresentation>> conceptAxiomStatementMap;
+		try {
+			conceptAxiomStatementMap = axiomRelationshipConversionService.convertAxiomsToRelationships(snomedTaxonomy.getConceptAxiomMap());
+		} catch (ConversionException e) {
+			throw new ReasonerServiceException("Failed to convert OWL Axiom Expressions into relationships for normal form generation.", e);
+		}
+		axiomRelationshipConversionService = null;
+		snomedTaxonomy.releaseAxioms();
+
+		RelationshipNormalFormGenerator normalFormGenerator = new RelationshipNormalFormGenerator(reasonerTaxonomy, snomedTaxonomy, conceptAxiomStatementMap, propertyChains,
+				options.getNormalFormThreads());
+
+		// When streaming, the results archive is started now and each concept's changes are written as soon as they are found
+		ClassificationResultsWriter.StreamingResultsArchive streamingResultsArchive = null;
+		ReactivatingChangeSink reactivatingChangeSink = null;
+		RelationshipChangeProcessor changeCollector;
+		if (options.isStreamRelationshipChanges()) {
+			streamingResultsArchive = classificationResultsWriter.startResultsRf2Archive(resultsRf2DeltaArchive, startDate, options);
+			reactivatingChangeSink = new ReactivatingChangeSink(new RelationshipReactivationProcessor(snomedTaxonomy), streamingResultsArchive);
+			changeCollector = new RelationshipChangeProcessor(reactivatingChangeSink);
+		} else {
+			changeCollector = new RelationshipChangeProcessor();
+		}
+		if (options.isIncrementalNormalForm() && !snomedTaxonomy.isOntologyWideChangeInDelta()) {
+			normalFormGenerator.collectNormalFormChanges(changeCollector, snomedTaxonomy.getConceptsChangedInDelta());
+		} else {
+			if (options.isIncrementalNormalForm()) {
+				logger.info("Delta changes the MRCM or ontology reference set, generating normal form for all concepts.");
+			}
+			normalFormGenerator.collectNormalFormChanges(changeCollector);
+		}
+		normalFormGenerator = null;
+		conceptAxiomStatementMap = null;
+		List<Set<Long>> equivalentConceptIds = reasonerTaxonomy.getEquivalentConceptIds();
+		reasonerTaxonomy = null;
+		timer.checkpoint("Generate normal form");
+
+		// Stage: Inactivation and reactivation of inferred relationships
+		// Consumes: snomedTaxonomy inferred relationships and inactive inferred relationship index, changeCollector
+		// Releases: snomedTaxonomy
+		logger.info("Inactivating inferred relationships for new inactive concepts");
+		new RelationshipInactivationProcessor(snomedTaxonomy).processInactivationChanges(changeCollector);
+
+		// New inferred relationships reuse the id of an inactive relationship with the same source, group, type and destination.
+		// Streamed changes have already been through this before being written.
+		if (reactivatingChangeSink != null) {
+			reactivatingChangeSink.releaseReactivationProcessor();
+		} else {
+			new RelationshipReactivationProcessor(snomedTaxonomy).processReactivationChanges(changeCollector);
+		}
+		snomedTaxonomy = null;
+
+		long redundantCount = changeCollector.getRedundantCount();
+		long totalChanges = changeCollector.getAddedCount() + changeCollector.getUpdatedCount() + redundantCount + changeCollector.getRemovedDueToConceptInactivationCount();
+		logger.info("{} relationship rows changed: {} added, {} updated, {} redundant, {} removed due to concept inactivation.",
+				formatDecimal(totalChanges), formatDecimal(changeCollector.getAddedCount()), formatDecimal(changeCollector.getUpdatedCount()),
+				formatDecimal(redundantCount), formatDecimal(changeCollector.getRemovedDueToConceptInactivationCount()));
+
+		if (streamingResultsArchive != null) {
+			logger.info("Completing results archive");
+			streamingResultsArchive.finish(equivalentConceptIds);
+		} else {
+			logger.info("Writing results archive");
+			classificationResultsWriter.writeResultsRf2Archive(changeCollector, equivalentConceptIds, resultsRf2DeltaArchive, startDate, options);
+		}
+		timer.checkpoint("Write results to disk");
+		timer.finish();
+		return inputVerified;
+	}
+
+	private ClassificationCheckpoint inferReasonerTaxonomy(String classificationId, SnomedTaxonomy snomedTaxonomy, Set<Long> ungroupedRoles,
+			OWLReasonerFactory reasonerFactory, String reasonerFactoryClassName, ClassificationCheckpoint.InputFingerprint inputFingerprint,
+			boolean outputOntologyFileForDebug, TimerUtil timer) throws ReasonerServiceException {
+
+		logger.info("Creating OwlOntology");
 		OntologyService ontologyService = new OntologyService(ungroupedRoles);
 		OWLOntology owlOntology;
 		try {
@@ -139,7 +335,7 @@ public class SnomedReasonerService {
 		}
 
 		logger.info("Creating OwlReasoner");
-		final OWLReasonerConfiguration configuration = new SimpleConfiguration(new ConsoleProgressMonitor());
+		final OWLReasonerConfiguration configuration = createReasonerConfiguration(reasonerFactory);
 		OWLReasoner reasoner = reasonerFactory.createReasoner(owlOntology, configuration);
 		timer.checkpoint("Create reasoner");
 
@@ -149,63 +345,61 @@ public class SnomedReasonerService {
 		timer.checkpoint("Inference computation");
 
 		logger.info("Extract ReasonerTaxonomy");
-		ReasonerTaxonomyWalker walker = new ReasonerTaxonomyWalker(reasoner, new ReasonerTaxonomy());
-		ReasonerTaxonomy reasonerTaxonomy = walker.walk();
+		ReasonerTaxonomy reasonerTaxonomy = new ReasonerTaxonomyWalker(reasoner, new ReasonerTaxonomy(), options.getTaxonomyExtractionThreads()).walk();
 		reasoner.dispose();
+		owlOntology.getOWLOntologyManager().removeOntology(owlOntology);
 		timer.checkpoint("Extract ReasonerTaxonomy");
 
-		logger.info("Generate normal form");
-		AxiomRelationshipConversionService axiomRelationshipConversionService = new AxiomRelationshipConversionService(ungroupedRoles);
-		Map<Long, Set<AxiomRepresentation>> conceptAxiomStatementMap;
-		try {
-			conceptAxiomStatementMap = axiomRelationshipConversionService.convertAxiomsToRelationships(snomedTaxonomy.getConceptAxiomMap());
-		} catch (ConversionException e) {
-			throw new ReasonerServiceException("Failed to convert OWL Axiom Expressions into relationships for normal form generation.", e);
-		}
-		RelationshipNormalFormGenerator normalFormGenerator = new RelationshipNormalFormGenerator(reasonerTaxonomy, snomedTaxonomy, conceptAxiomStatementMap, propertyChains);
+		return new ClassificationCheckpoint(reasonerFactoryClassName, inputFingerprint, reasonerTaxonomy, propertyChains);
+	}
 
-		RelationshipChangeProcessor changeCollector = new RelationshipChangeProcessor();
-		normalFormGenerator.collectNormalFormChanges(changeCollector);
-		timer.checkpoint("Generate normal form");
+	private String formatDecimal(long number) {
+		return String.format("%,d", number);
+	}
 
-		logger.info("Inactivating inferred relationships for new inactive concepts");
-		new RelationshipInactivationProcessor(snomedTaxonomy).processInactivationChanges(changeCollector);
+	OWLReasonerConfiguration createReasonerConfiguration(OWLReasonerFactory reasonerFactory) {
+		ReasonerProgressMonitor progressMonitor = options.isReasonerProgressMonitor() ? new ConsoleProgressMonitor() : new NullReasonerProgressMonitor();
+		SimpleConfiguration configuration = new SimpleConfiguration(progressMonitor, options.getReasonerTimeoutMillis());
 
-		// Iterate through new inferred relationships to find inactive ones (from your Map) which match with the same relationshipGroup, sourceId, typeId and destinationId
-		// For each matching inactive relationship found, set the relationship id on the new inferred relationship.
-		for (Long conceptId : changeCollector.getAddedStatements().keySet()) {
-			Set<Relationship> conceptInactiveInferredRelationship = snomedTaxonomy.getInactiveInferredRelationships(conceptId);
-			Set<Relationship> newInferredRelationship = changeCollector.getAddedStatements().get(conceptId);
-
-			if(!conceptInactiveInferredRelationship.isEmpty() && !newInferredRelationship.isEmpty()) {
-				for (Relationship newRel : newInferredRelationship) {
-					if (newRel.getRelationshipId() == -1) {// If we are updating an existing relationship then no need to find another one
-						for (Relationship inactiveRel : conceptInactiveInferredRelationship) {
-							if (newRel.getGroup() == inactiveRel.getGroup()
-									&& newRel.getTypeId() == inactiveRel.getTypeId()
-									&& newRel.getDestinationId() == inactiveRel.getDestinationId()) {
-								newRel.setRelationshipId(inactiveRel.getRelationshipId());
-							}
-						}
-					}
-				}
+		int workerThreads = options.getReasonerWorkerThreads();
+		if (reasonerFactory instanceof ElkReasonerFactory) {
+			ReasonerConfiguration elkConfiguration = ReasonerConfiguration.getConfiguration();
+			if (workerThreads > 0) {
+				elkConfiguration.setParameter(ReasonerConfiguration.NUM_OF_WORKING_THREADS, Integer.toString(workerThreads));
 			}
+			logger.info("ELK reasoner using {} worker threads", elkConfiguration.getParameter(ReasonerConfiguration.NUM_OF_WORKING_THREADS));
+			return new ElkReasonerConfiguration(configuration, elkConfiguration);
 		}
 
-		long redundantCount = changeCollector.getRedundantCount();
-		long totalChanges = changeCollector.getAddedCount() + changeCollector.getUpdatedCount() + redundantCount + changeCollector.getRemovedDueToConceptInactivationCount();
-		logger.info("{} relationship rows changed: {} added, {} updated, {} redundant, {} removed due to concept inactivation.",
-				formatDecimal(totalChanges), formatDecimal(changeCollector.getAddedCount()), formatDecimal(changeCollector.getUpdatedCount()),
-				formatDecimal(redundantCount), formatDecimal(changeCollector.getRemovedDueToConceptInactivationCount()));
-
-		logger.info("Writing results archive");
-		classificationResultsWriter.writeResultsRf2Archive(changeCollector, reasonerTaxonomy.getEquivalentConceptIds(), resultsRf2DeltaArchive, startDate);
-		timer.checkpoint("Write results to disk");
-		timer.finish();
+		if (workerThreads > 0) {
+			logger.warn("Reasoner worker thread count is only supported for ELK, ignoring option for {}.", reasonerFactory.getClass().getName());
+		}
+		return configuration;
 	}
 
-	private String formatDecimal(long number) {
-		return String.format("%,d", number);
+	/**
+	 * Reuses inactive relationship ids for each concept's changes before passing them on to be written.
+	 * Keeps the reactivation processor only until all changes have been found.
+	 */
+	private static final class ReactivatingChangeSink implements RelationshipChangeSink {
+
+		private RelationshipReactivationProcessor reactivationProcessor;
+		private final RelationshipChangeSink resultsSink;
+
+		private ReactivatingChangeSink(RelationshipReactivationProcessor reactivationProcessor, RelationshipChangeSink resultsSink) {
+			this.reactivationProcessor = reactivationProcessor;
+			this.resultsSink = resultsSink;
+		}
+
+		@Override
+		public void accept(long conceptId, Set<Relationship> addedOrUpdated, Set<Relationship> removed) {
+			reactivationProcessor.reuseInactiveRelationshipIds(conceptId, addedOrUpdated);
+			resultsSink.accept(conceptId, addedOrUpdated, removed);
+		}
+
+		private void releaseReactivationProcessor() {
+			reactivationProcessor = null;
+		}
 	}
 
 	private OWLReasonerFactory getOWLReasonerFactory(String reasonerFactoryClassName) throws ReasonerServiceException {
@@ -0,0 +1,124 @@
+package org.snomed.otf.owltoolkit.taxonomy;
+
+import it.unimi.dsi.fastutil.HashCommon;
+
+/**
+ * Index of inactive relationship ids by source, group, type and destination, used to reuse ids when a relationship is inferred again.
+ * Only the most recent row is kept for each key. Where rows have the same effective time the last one added is kept,
+ * so delta rows replace snapshot rows.
+ *
+ * Rows are held in primitive arrays using open addressing so that no objects are created per row.
+ * Source ids of zero are not supported because this marks an empty slot, SNOMED CT identifiers are never zero.
+ */
+public final class InactiveRelationshipIndex {
+
+	private static final float LOAD_FACTOR = 0.75f;
+	private static final long INT_MASK = 0xFFFFFFFFL;
+
+	private long[] sourceIds;
+	private long[] typeIds;
+	private long[] destinationIds;
+	// Group in the upper half and effective time in the lower half
+	private long[] groupAndEffectiveTimes;
+	private long[] relationshipIds;
+	private int mask;
+	private int maxFill;
+	private int size;
+
+	public InactiveRelationshipIndex() {
+		allocate(16);
+	}
+
+	public void add(long sourceId, long relationshipId, int effectiveTime, int group, long typeId, long destinationId) {
+		int pos = find(sourceId, group, typeId, destinationId);
+		if (pos >= 0) {
+			if (effectiveTime >= (int) groupAndEffectiveTimes[pos]) {
+				groupAndEffectiveTimes[pos] = pack(group, effectiveTime);
+				relationshipIds[pos] = relationshipId;
+			}
+			return;
+		}
+		pos = -pos - 1;
+		sourceIds[pos] = sourceId;
+		typeIds[pos] = typeId;
+		destinationIds[pos] = destinationId;
+		groupAndEffectiveTimes[pos] = pack(group, effectiveTime);
+		relationshipIds[pos] = relationshipId;
+		if (++size >= maxFill) {
+			rehash();
+		}
+	}
+
+	/**
+	 * @return id of the most recent inactive relationship with the same source, group, type and destination or -1 if there is none
+	 */
+	public long getRelationshipId(long sourceId, int group, long typeId, long destinationId) {
+		final int pos = find(sourceId, group, typeId, destinationId);
+		return pos >= 0 ? relationshipIds[pos] : -1;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return slot of the key if present, otherwise -(empty slot) - 1
+	 */
+	private int find(long sourceId, int group, long typeId, long destinationId) {
+		int pos = hash(sourceId, group, typeId, destinationId) & mask;
+		while (sourceIds[pos] != 0) {
+			if (sourceIds[pos] == sourceId
+					&& typeIds[pos] == typeId
+					&& destinationIds[pos] == destinationId
+					&& (int) (groupAndEffectiveTimes[pos] >>> 32) == group) {
+				return pos;
+			}
+			pos = (pos + 1) & mask;
+		}
+		return -pos - 1;
+	}
+
+	private void rehash() {
+		final long[] oldSourceIds = sourceIds;
+		final long[] oldTypeIds = typeIds;
+		final long[] oldDestinationIds = destinationIds;
+		final long[] oldGroupAndEffectiveTimes = groupAndEffectiveTimes;
+		final long[] oldRelationshipIds = relationshipIds;
+		allocate(oldSourceIds.length * 2);
+		for (int i = 0; i < oldSourceIds.length; i++) {
+			if (oldSourceIds[i] != 0) {
+				int pos = hash(oldSourceIds[i], (int) (oldGroupAndEffectiveTimes[i] >>> 32), oldTypeIds[i], oldDestinationIds[i]) & mask;
+				while (sourceIds[pos] != 0) {
+					pos = (pos + 1) & mask;
+				}
+				sourceIds[pos] = oldSourceIds[i];
+				typeIds[pos] = oldTypeIds[i];
+				destinationIds[pos] = oldDestinationIds[i];
+				groupAndEffectiveTimes[pos] = oldGroupAndEffectiveTimes[i];
+				relationshipIds[pos] = oldRelationshipIds[i];
+			}
+		}
+	}
+
+	private void allocate(int capacity) {
+		sourceIds = new long[capacity];
+		typeIds = new long[capacity];
+		destinationIds = new long[capacity];
+		groupAndEffectiveTimes = new long[capacity];
+		relationshipIds = new long[capacity];
+		mask = capacity - 1;
+		maxFill = HashCommon.maxFill(capacity, LOAD_FACTOR);
+	}
+
+	private static long pack(int group, int effectiveTime) {
+		return (long) group << 32 | (effectiveTime & INT_MASK);
+	}
+
+	private static int hash(long sourceId, int group, long typeId, long destinationId) {
+		long hash = sourceId;
+		hash = hash * 31 + typeId;
+		hash = hash * 31 + destinationId;
+		hash = hash * 31 + group;
+		return (int) HashCommon.mix(hash);
+	}
+}
@@ -19,6 +19,7 @@ import com.google.common.collect.Sets;
 import it.unimi.dsi.fastutil.longs.Long2ObjectMaps;
 import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSets;
 import org.semanticweb.owlapi.model.OWLAxiom;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -43,6 +44,12 @@ public class SnomedTaxonomy {
 	private Map<Long, Set<Relationship>> conceptStatedRelationshipMap = new Long2ObjectOpenHashMap<>();
 	private Map<Long, Set<Relationship>> conceptInferredRelationshipMap = new Long2ObjectOpenHashMap<>();
 	private Map<Long, Set<Relationship>> conceptInactiveInferredRelationshipMap = new Long2ObjectOpenHashMap<>();
+	private InactiveRelationshipIndex inactiveInferredRelationshipIndex = new InactiveRelationshipIndex();
+	// Set when inactive inferred relationships have been added to the map but not yet to the index
+	private boolean inactiveInferredRelationshipIndexStale;
+
+	// If set, inactive inferred relationships are only added to the index, otherwise they are added to the map and indexed when the index is requested
+	private boolean indexInactiveInferredRelationshipsOnly;
 
 	// Axiom maps must be syncronised because international and extension refset memebers are loaded in parallel
 	private Map<Long, Set<OWLAxiom>> conceptAxiomMap = Long2ObjectMaps.synchronize(new Long2ObjectOpenHashMap<>());
@@ -53,6 +60,10 @@ public class SnomedTaxonomy {
 	private Set<Long> inactivatedConcepts = new LongOpenHashSet();
 	private Map<Long, String> conceptFsnTermMap = new Long2ObjectOpenHashMap<>();
 
+	// Concepts with any change in the delta, syncronised because refset members are loaded in parallel
+	private Set<Long> conceptsChangedInDelta = LongSets.synchronize(new LongOpenHashSet());
+	private boolean ontologyWideChangeInDelta;
+
 	public static final Set<Long> DEFAULT_NEVER_GROUPED_ROLE_IDS = Collections.unmodifiableSet(Sets.newHashSet(
 			parseLong(Concepts.PART_OF),
 			parseLong(Concepts.LATERALITY),
@@ -79,10 +90,29 @@ public class SnomedTaxonomy {
 		return conceptInferredRelationshipMap.getOrDefault(conceptId, Collections.emptySet());
 	}
 
+	/**
+	 * @return the inactive inferred relationships of a concept, always empty if only the inactive relationship index is kept.
+	 */
 	public Set<Relationship> getInactiveInferredRelationships(Long conceptId) {
 		return conceptInactiveInferredRelationshipMap.getOrDefault(conceptId, Collections.emptySet());
 	}
 
+	/**
+	 * @return the index of inactive inferred relationships. Unless only the index is kept it is built from the inactive inferred relationships
+	 * when first requested after loading, where relationships with the same source, group, type, destination and effective time are indexed in no particular order.
+	 */
+	public InactiveRelationshipIndex getInactiveInferredRelationshipIndex() {
+		if (inactiveInferredRelationshipIndexStale) {
+			for (Map.Entry<Long, Set<Relationship>> conceptRelationships : conceptInactiveInferredRelationshipMap.entrySet()) {
+				for (Relationship relationship : conceptRelationships.getValue()) {
+					addToInactiveInferredRelationshipIndex(conceptRelationships.getKey(), relationship);
+				}
+			}
+			inactiveInferredRelationshipIndexStale = false;
+		}
+		return inactiveInferredRelationshipIndex;
+	}
+
 	public void addOrModifyRelationship(boolean stated, long conceptId, Relationship relationship) {
 		// Have we seen this relationship before ie we need to modify it?
 		Relationship existingRelationship = stated ? statedRelationshipsById.get(relationship.getRelationshipId())
@@ -108,7 +138,29 @@ public class SnomedTaxonomy {
 	}
 
 	public void addInactiveInferredRelationship(long conceptId, Relationship relationship) {
-		conceptInactiveInferredRelationshipMap.computeIfAbsent(conceptId, k -> new HashSet<>()).add(relationship);
+		if (indexInactiveInferredRelationshipsOnly) {
+			addToInactiveInferredRelationshipIndex(conceptId, relationship);
+		} else {
+			conceptInactiveInferredRelationshipMap.computeIfAbsent(conceptId, k -> new HashSet<>()).add(relationship);
+			inactiveInferredRelationshipIndexStale = true;
+		}
+	}
+
+	private void addToInactiveInferredRelationshipIndex(long conceptId, Relationship relationship) {
+		inactiveInferredRelationshipIndex.add(conceptId, relationship.getRelationshipId(), relationship.getEffectiveTime(),
+				relationship.getGroup(), relationship.getTypeId(), relationship.getDestinationId());
+	}
+
+	public boolean isIndexInactiveInferredRelationshipsOnly() {
+		return indexInactiveInferredRelationshipsOnly;
+	}
+
+	/**
+	 * If set, inactive inferred relationships loaded after this are only added to the inactive relationship index
+	 * and not returned by {@link #getInactiveInferredRelationships(Long)}.
+	 */
+	public void setIndexInactiveInferredRelationshipsOnly(boolean indexInactiveInferredRelationshipsOnly) {
+		this.indexInactiveInferredRelationshipsOnly = indexInactiveInferredRelationshipsOnly;
 	}
 
 	public Set<Long> getDescendants(Long ancestor) {
@@ -304,5 +356,31 @@ public class SnomedTaxonomy {
 	public Map<String, OWLAxiom> getAxiomsById() {
 		return axiomsById;
 	}
+
+	/**
+	 * @return concepts with concept, relationship or axiom changes in the delta.
+	 */
+	public Set<Long> getConceptsChangedInDelta() {
+		return conceptsChangedInDelta;
+	}
+
+	/**
+	 * @return true if the delta changes content which may alter the normal form of any concept, for example the MRCM ungrouped attributes.
+	 */
+	public boolean isOntologyWideChangeInDelta() {
+		return ontologyWideChangeInDelta;
+	}
+
+	public void setOntologyWideChangeInDelta(boolean ontologyWideChangeInDelta) {
+		this.ontologyWideChangeInDelta = ontologyWideChangeInDelta;
+	}
+
+	/**
+	 * Clears the OWL axioms to free memory once they have been converted into the ontology and relationship representations.
+	 */
+	public void releaseAxioms() {
+		conceptAxiomMap.clear();
+		axiomsById.clear();
+	}
 	
 }
@@ -62,6 +62,8 @@ public class SnomedTaxonomyBuilder {
 			.withInactiveRelationships()
 			.withInactiveRefsetMembers();
 
+	private boolean indexInactiveInferredRelationshipsOnly;
+
 	public SnomedTaxonomy build(InputStreamSet snomedRf2SnapshotArchives, boolean includeFSNs) throws ReleaseImportException {
 		return build(snomedRf2SnapshotArchives, null, includeFSNs);
 	}
@@ -74,6 +76,14 @@ public class SnomedTaxonomyBuilder {
 		return build(snomedRf2SnapshotArchives, currentReleaseRf2DeltaArchive, null, null, includeFSNs);
 	}
 
+	/**
+	 * Streams concepts, including inactive concepts, and the OWL reference sets of the snapshot to the component factory without building a taxonomy.
+	 * Concepts are loaded before reference set members.
+	 */
+	public void loadAxiomRefset(InputStreamSet snomedRf2OwlSnapshotArchive, ComponentFactory componentFactory) throws ReleaseImportException {
+		new ReleaseImporter().loadEffectiveSnapshotReleaseFileStreams(snomedRf2OwlSnapshotArchive.getFileInputStreams(), OWL_SNAPSHOT_LOADING_PROFILE, componentFactory);
+	}
+
 	public SnomedTaxonomy buildWithAxiomRefset(InputStreamSet snomedRf2OwlSnapshotArchive) throws ReleaseImportException {
 		
 		StopWatch stopWatch = new StopWatch();
@@ -108,6 +118,7 @@ public class SnomedTaxonomyBuilder {
 		stopWatch.start();
 
 		SnomedTaxonomyLoader snomedTaxonomyLoader = new SnomedTaxonomyLoader(snapshotComponentFactoryTap, deltaComponentFactoryTap);
+		snomedTaxonomyLoader.getSnomedTaxonomy().setIndexInactiveInferredRelationshipsOnly(indexInactiveInferredRelationshipsOnly);
 		
 		ReleaseImporter releaseImporter = new ReleaseImporter();
 		releaseImporter.loadEffectiveSnapshotReleaseFileStreams(
@@ -139,4 +150,12 @@ public class SnomedTaxonomyBuilder {
 		logger.info("{} active axioms loaded", snomedTaxonomy.getAxiomCount());
 		return snomedTaxonomy;
 	}
+
+	/**
+	 * If set, the taxonomy keeps only the most recent inactive inferred relationship id for each source, group, type and destination
+	 * in {@link SnomedTaxonomy#getInactiveInferredRelationshipIndex()} rather than every inactive inferred relationship.
+	 */
+	public void setIndexInactiveInferredRelationshipsOnly(boolean indexInactiveInferredRelationshipsOnly) {
+		this.indexInactiveInferredRelationshipsOnly = indexInactiveInferredRelationshipsOnly;
+	}
 }
@@ -67,6 +67,9 @@ public class SnomedTaxonomyLoader extends ImpotentComponentFactory {
 
 	@Override
 	public void newConceptState(String conceptId, String effectiveTime, String active, String moduleId, String definitionStatusId) {
+		if (loadingDelta) {
+			snomedTaxonomy.getConceptsChangedInDelta().add(parseLong(conceptId));
+		}
 		if (ACTIVE.equals(active)) {
 			long id = parseLong(conceptId);
 			snomedTaxonomy.getAllConceptIds().add(id);
@@ -98,6 +101,9 @@ public class SnomedTaxonomyLoader extends ImpotentComponentFactory {
 	@Override
 	public void newRelationshipState(String id, String effectiveTime, String active, String moduleId, String sourceId, String destinationId, String relationshipGroup, String typeId, String characteristicTypeId, String modifierId) {
 		boolean stated = STATED_RELATIONSHIP.equals(characteristicTypeId);
+		if (loadingDelta) {
+			snomedTaxonomy.getConceptsChangedInDelta().add(parseLong(sourceId));
+		}
 
 		if (ACTIVE.equals(active) && !ADDITIONAL_RELATIONSHIP.equals(characteristicTypeId)) {// Ignore additional relationships
 
@@ -152,6 +158,13 @@ public class SnomedTaxonomyLoader extends ImpotentComponentFactory {
 
 	@Override
 	public void newReferenceSetMemberState(String[] fieldNames, String id, String effectiveTime, String active, String moduleId, String refsetId, String referencedComponentId, String... otherValues) {
+		if (loadingDelta) {
+			if (refsetId.equals(Concepts.OWL_AXIOM_REFERENCE_SET)) {
+				snomedTaxonomy.getConceptsChangedInDelta().add(parseLong(referencedComponentId));
+			} else if (refsetId.equals(Concepts.OWL_ONTOLOGY_REFERENCE_SET) || refsetId.equals(Concepts.MRCM_ATTRIBUTE_DOMAIN_INTERNATIONAL_REFERENCE_SET)) {
+				snomedTaxonomy.setOntologyWideChangeInDelta(true);
+			}
+		}
 		if (refsetId.equals(Concepts.OWL_AXIOM_REFERENCE_SET) && owlParsingExceptionThrown == null) {
 			if (ACTIVE.equals(active)) {
 				try {
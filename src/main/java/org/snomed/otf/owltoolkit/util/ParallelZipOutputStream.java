@@ -0,0 +1,447 @@
+package org.snomed.otf.owltoolkit.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Zip writer which deflates each entry in blocks using several threads, in the same way as pigz.
+ * Every block is primed with the last 32KB of the previous block and ends with a sync flush so that the compressed blocks
+ * joined in order form a single valid deflate stream. Compressed blocks are written in order as they complete.
+ *
+ * Entries are written with a data descriptor after the compressed data so that the output stream is written once, front to back.
+ * Compression level {@link #STORED} deflates using uncompressed blocks, this is as fast as copying while keeping entries readable
+ * by {@link java.util.zip.ZipInputStream}, which does not accept stored entries followed by a data descriptor.
+ * Zip64 fields are written only where an entry, the archive or the number of entries exceed the limits of the original format,
+ * in the same way as {@link java.util.zip.ZipOutputStream}.
+ *
+ * Not thread safe, only one thread may write to the stream.
+ */
+public class ParallelZipOutputStream extends OutputStream {
+
+	public static final int STORED = Deflater.NO_COMPRESSION;
+	public static final int DEFAULT_COMPRESSION = Deflater.DEFAULT_COMPRESSION;
+
+	private static final int BLOCK_SIZE = 128 * 1024;
+	private static final int DICTIONARY_SIZE = 32 * 1024;
+	private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+	private static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+	private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+	private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+	private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06064b50;
+	private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE = 0x07064b50;
+	private static final int ZIP64_EXTRA_FIELD_ID = 0x0001;
+	private static final int VERSION = 20;
+	private static final int ZIP64_VERSION = 45;
+	// Data descriptor follows the data, names are UTF-8
+	private static final int FLAGS = 0x0808;
+	// Values at or above these are written in zip64 fields
+	private static final int MAX_ENTRIES = 0xFFFF;
+	private static final long MAX_SIZE = 0xFFFFFFFFL;
+
+	private final OutputStream out;
+	private final int compressionLevel;
+	private final int threads;
+	private final ExecutorService pool;
+	private final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+	private final Deque<Future<byte[]>> pendingBlocks = new ArrayDeque<>();
+	private final List<EntryRecord> entries = new ArrayList<>();
+	private final Set<String> entryNames = new HashSet<>();
+	private final byte[] headerBuffer = new byte[76];
+
+	private long written;
+	private EntryRecord entry;
+	private final CRC32 crc = new CRC32();
+	private byte[] block;
+	private int blockLength;
+	private byte[] dictionary;
+	private boolean finished;
+	private boolean closed;
+
+	/**
+	 * @param out stream to write the archive to, closed when this stream is closed
+	 * @param compressionLevel deflate level from 0 to 9, {@link #STORED} or {@link #DEFAULT_COMPRESSION}
+	 * @param threads number of threads used to compress blocks, 1 compresses on the calling thread
+	 */
+	public ParallelZipOutputStream(OutputStream out, int compressionLevel, int threads) {
+		if (compressionLevel != DEFAULT_COMPRESSION && (compressionLevel < Deflater.NO_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION)) {
+			throw new IllegalArgumentException("Invalid compression level " + compressionLevel);
+		}
+		this.out = out;
+		this.compressionLevel = compressionLevel;
+		this.threads = Math.max(1, threads);
+		this.pool = this.threads > 1 ? Executors.newFixedThreadPool(this.threads, runnable -> {
+			Thread thread = new Thread(runnable, "zip-deflate");
+			thread.setDaemon(true);
+			return thread;
+		}) : null;
+	}
+
+	/**
+	 * Closes the current entry if there is one and starts a new entry. Only the name and time of the entry are used.
+	 */
+	public void putNextEntry(ZipEntry zipEntry) throws IOException {
+		ensureOpen();
+		closeEntry();
+		if (!entryNames.add(zipEntry.getName())) {
+			throw new ZipException("duplicate entry: " + zipEntry.getName());
+		}
+		entry = new EntryRecord(zipEntry.getName().getBytes(StandardCharsets.UTF_8),
+				toDosTime(zipEntry.getTime() != -1 ? zipEntry.getTime() : System.currentTimeMillis()), written);
+		crc.reset();
+		block = new byte[BLOCK_SIZE];
+		blockLength = 0;
+		dictionary = null;
+
+		int i = 0;
+		i = putInt(headerBuffer, i, LOCAL_HEADER_SIGNATURE);
+		i = putShort(headerBuffer, i, VERSION);
+		i = putShort(headerBuffer, i, FLAGS);
+		i = putShort(headerBuffer, i, ZipEntry.DEFLATED);
+		i = putInt(headerBuffer, i, entry.dosTime);
+		// CRC and sizes are in the data descriptor
+		i = putInt(headerBuffer, i, 0);
+		i = putInt(headerBuffer, i, 0);
+		i = putInt(headerBuffer, i, 0);
+		i = putShort(headerBuffer, i, entry.name.length);
+		i = putShort(headerBuffer, i, 0);
+		writeRaw(headerBuffer, 0, i);
+		writeRaw(entry.name, 0, entry.name.length);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		ensureOpen();
+		if (entry == null) {
+			throw new ZipException("no current ZIP entry");
+		}
+		crc.update(b);
+		entry.size++;
+		block[blockLength++] = (byte) b;
+		if (blockLength == BLOCK_SIZE) {
+			submitBlock(false);
+		}
+	}
+
+	@Override
+	public void write(byte[] bytes, int offset, int length) throws IOException {
+		ensureOpen();
+		if (entry == null) {
+			throw new ZipException("no current ZIP entry");
+		}
+		crc.update(bytes, offset, length);
+		entry.size += length;
+		while (length > 0) {
+			final int copy = Math.min(length, BLOCK_SIZE - blockLength);
+			System.arraycopy(bytes, offset, block, blockLength, copy);
+			blockLength += copy;
+			offset += copy;
+			length -= copy;
+			if (blockLength == BLOCK_SIZE) {
+				submitBlock(false);
+			}
+		}
+	}
+
+	/**
+	 * Compresses the remaining data of the current entry and writes the data descriptor.
+	 */
+	public void closeEntry() throws IOException {
+		ensureOpen();
+		if (entry == null) {
+			return;
+		}
+		submitBlock(true);
+		while (!pendingBlocks.isEmpty()) {
+			writeBlock(pendingBlocks.removeFirst());
+		}
+		entry.crc = crc.getValue();
+
+		int i = 0;
+		i = putInt(headerBuffer, i, DATA_DESCRIPTOR_SIGNATURE);
+		i = putInt(headerBuffer, i, entry.crc);
+		// Readers use 8 byte sizes when the data is larger than 4GB
+		if (entry.size >= MAX_SIZE || entry.compressedSize >= MAX_SIZE) {
+			i = putLong(headerBuffer, i, entry.compressedSize);
+			i = putLong(headerBuffer, i, entry.size);
+		} else {
+			i = putInt(headerBuffer, i, entry.compressedSize);
+			i = putInt(headerBuffer, i, entry.size);
+		}
+		writeRaw(headerBuffer, 0, i);
+
+		entries.add(entry);
+		entry = null;
+		block = null;
+		dictionary = null;
+	}
+
+	/**
+	 * Closes the current entry and writes the central directory without closing the underlying stream.
+	 */
+	public void finish() throws IOException {
+		ensureOpen();
+		if (finished) {
+			return;
+		}
+		closeEntry();
+		final long centralDirectoryOffset = written;
+		for (EntryRecord record : entries) {
+			// Values too large for the original fields are written in the zip64 extra field, in this order
+			final boolean zip64Size = record.size >= MAX_SIZE;
+			final boolean zip64CompressedSize = record.compressedSize >= MAX_SIZE;
+			final boolean zip64Offset = record.localHeaderOffset >= MAX_SIZE;
+			int zip64ExtraLength = (zip64Size ? 8 : 0) + (zip64CompressedSize ? 8 : 0) + (zip64Offset ? 8 : 0);
+			final boolean zip64 = zip64ExtraLength > 0;
+			if (zip64) {
+				zip64ExtraLength += 4;
+			}
+
+			int i = 0;
+			i = putInt(headerBuffer, i, CENTRAL_HEADER_SIGNATURE);
+			i = putShort(headerBuffer, i, zip64 ? ZIP64_VERSION : VERSION);
+			i = putShort(headerBuffer, i, zip64 ? ZIP64_VERSION : VERSION);
+			i = putShort(headerBuffer, i, FLAGS);
+			i = putShort(headerBuffer, i, ZipEntry.DEFLATED);
+			i = putInt(headerBuffer, i, record.dosTime);
+			i = putInt(headerBuffer, i, record.crc);
+			i = putInt(headerBuffer, i, zip64CompressedSize ? MAX_SIZE : record.compressedSize);
+			i = putInt(headerBuffer, i, zip64Size ? MAX_SIZE : record.size);
+			i = putShort(headerBuffer, i, record.name.length);
+			i = putShort(headerBuffer, i, zip64ExtraLength);
+			// Comment, disk number, internal and external attributes
+			i = putShort(headerBuffer, i, 0);
+			i = putShort(headerBuffer, i, 0);
+			i = putShort(headerBuffer, i, 0);
+			i = putInt(headerBuffer, i, 0);
+			i = putInt(headerBuffer, i, zip64Offset ? MAX_SIZE : record.localHeaderOffset);
+			writeRaw(headerBuffer, 0, i);
+			writeRaw(record.name, 0, record.name.length);
+
+			if (zip64) {
+				i = 0;
+				i = putShort(headerBuffer, i, ZIP64_EXTRA_FIELD_ID);
+				i = putShort(headerBuffer, i, zip64ExtraLength - 4);
+				if (zip64Size) {
+					i = putLong(headerBuffer, i, record.size);
+				}
+				if (zip64CompressedSize) {
+					i = putLong(headerBuffer, i, record.compressedSize);
+				}
+				if (zip64Offset) {
+					i = putLong(headerBuffer, i, record.localHeaderOffset);
+				}
+				writeRaw(headerBuffer, 0, i);
+			}
+		}
+		final long centralDirectorySize = written - centralDirectoryOffset;
+
+		int i = 0;
+		final boolean zip64 = entries.size() >= MAX_ENTRIES || centralDirectorySize >= MAX_SIZE || centralDirectoryOffset >= MAX_SIZE;
+		if (zip64) {
+			final long zip64EndOffset = written;
+			i = putInt(headerBuffer, i, ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+			// Size of the remaining record
+			i = putLong(headerBuffer, i, 44);
+			i = putShort(headerBuffer, i, ZIP64_VERSION);
+			i = putShort(headerBuffer, i, ZIP64_VERSION);
+			i = putInt(headerBuffer, i, 0);
+			i = putInt(headerBuffer, i, 0);
+			i = putLong(headerBuffer, i, entries.size());
+			i = putLong(headerBuffer, i, entries.size());
+			i = putLong(headerBuffer, i, centralDirectorySize);
+			i = putLong(headerBuffer, i, centralDirectoryOffset);
+
+			i = putInt(headerBuffer, i, ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE);
+			i = putInt(headerBuffer, i, 0);
+			i = putLong(headerBuffer, i, zip64EndOffset);
+			i = putInt(headerBuffer, i, 1);
+			writeRaw(headerBuffer, 0, i);
+			i = 0;
+		}
+		i = putInt(headerBuffer, i, END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+		i = putShort(headerBuffer, i, 0);
+		i = putShort(headerBuffer, i, 0);
+		i = putShort(headerBuffer, i, Math.min(entries.size(), MAX_ENTRIES));
+		i = putShort(headerBuffer, i, Math.min(entries.size(), MAX_ENTRIES));
+		i = putInt(headerBuffer, i, Math.min(centralDirectorySize, MAX_SIZE));
+		i = putInt(headerBuffer, i, Math.min(centralDirectoryOffset, MAX_SIZE));
+		i = putShort(headerBuffer, i, 0);
+		writeRaw(headerBuffer, 0, i);
+		out.flush();
+		finished = true;
+	}
+
+	/**
+	 * Flushes the underlying stream. Data in the current block is not compressed until the block is full or the entry is closed.
+	 */
+	@Override
+	public void flush() throws IOException {
+		ensureOpen();
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		try {
+			finish();
+			out.close();
+		} finally {
+			closed = true;
+			for (Future<byte[]> pendingBlock : pendingBlocks) {
+				pendingBlock.cancel(false);
+			}
+			pendingBlocks.clear();
+			if (pool != null) {
+				pool.shutdown();
+			}
+			Deflater deflater;
+			while ((deflater = deflaters.poll()) != null) {
+				deflater.end();
+			}
+		}
+	}
+
+	private void submitBlock(boolean last) throws IOException {
+		final byte[] input = block;
+		final int length = blockLength;
+		final byte[] blockDictionary = dictionary;
+		if (!last) {
+			dictionary = Arrays.copyOfRange(input, length - DICTIONARY_SIZE, length);
+			block = new byte[BLOCK_SIZE];
+			blockLength = 0;
+		}
+
+		if (pool == null) {
+			writeCompressed(deflate(input, length, blockDictionary, last));
+		} else {
+			pendingBlocks.addLast(pool.submit(() -> deflate(input, length, blockDictionary, last)));
+			// Limit the number of blocks held in memory
+			while (pendingBlocks.size() > threads * 2) {
+				writeBlock(pendingBlocks.removeFirst());
+			}
+		}
+	}
+
+	private byte[] deflate(byte[] input, int length, byte[] blockDictionary, boolean last) {
+		Deflater deflater = deflaters.poll();
+		if (deflater == null) {
+			deflater = new Deflater(compressionLevel, true);
+		}
+		try {
+			if (blockDictionary != null) {
+				deflater.setDictionary(blockDictionary);
+			}
+			deflater.setInput(input, 0, length);
+			final ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 2 + 64);
+			final byte[] buffer = new byte[BLOCK_SIZE / 4];
+			if (last) {
+				deflater.finish();
+				while (!deflater.finished()) {
+					compressed.write(buffer, 0, deflater.deflate(buffer));
+				}
+			} else {
+				// Sync flush ends the block on a byte boundary so that the next block can be appended
+				int count;
+				do {
+					count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+					compressed.write(buffer, 0, count);
+				} while (count == buffer.length);
+			}
+			return compressed.toByteArray();
+		} finally {
+			deflater.reset();
+			deflaters.add(deflater);
+		}
+	}
+
+	private void writeBlock(Future<byte[]> pendingBlock) throws IOException {
+		try {
+			writeCompressed(pendingBlock.get());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while compressing zip entry.");
+		} catch (ExecutionException e) {
+			throw new IOException("Failed to compress zip entry.", e.getCause());
+		}
+	}
+
+	private void writeCompressed(byte[] compressed) throws IOException {
+		writeRaw(compressed, 0, compressed.length);
+		entry.compressedSize += compressed.length;
+	}
+
+	private void writeRaw(byte[] bytes, int offset, int length) throws IOException {
+		out.write(bytes, offset, length);
+		written += length;
+	}
+
+	private void ensureOpen() throws IOException {
+		if (closed) {
+			throw new IOException("Stream closed");
+		}
+	}
+
+	private static int putShort(byte[] buffer, int offset, int value) {
+		buffer[offset] = (byte) value;
+		buffer[offset + 1] = (byte) (value >>> 8);
+		return offset + 2;
+	}
+
+	private static int putInt(byte[] buffer, int offset, long value) {
+		buffer[offset] = (byte) value;
+		buffer[offset + 1] = (byte) (value >>> 8);
+		buffer[offset + 2] = (byte) (value >>> 16);
+		buffer[offset + 3] = (byte) (value >>> 24);
+		return offset + 4;
+	}
+
+	private static int putLong(byte[] buffer, int offset, long value) {
+		putInt(buffer, offset, value);
+		return putInt(buffer, offset + 4, value >>> 32);
+	}
+
+	private static long toDosTime(long time) {
+		final LocalDateTime dateTime = LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault());
+		final int year = dateTime.getYear();
+		if (year < 1980) {
+			return (1 << 21) | (1 << 16);
+		}
+		return (long) (year - 1980) << 25
+				| dateTime.getMonthValue() << 21
+				| dateTime.getDayOfMonth() << 16
+				| dateTime.getHour() << 11
+				| dateTime.getMinute() << 5
+				| dateTime.getSecond() >> 1;
+	}
+
+	private static final class EntryRecord {
+
+		private final byte[] name;
+		private final long dosTime;
+		private final long localHeaderOffset;
+		private long crc;
+		private long size;
+		private long compressedSize;
+
+		private EntryRecord(byte[] name, long dosTime, long localHeaderOffset) {
+			this.name = name;
+			this.dosTime = dosTime;
+			this.localHeaderOffset = localHeaderOffset;
+		}
+	}
+}
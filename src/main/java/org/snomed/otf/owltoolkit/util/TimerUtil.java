@@ -1,10 +1,19 @@
 package org.snomed.otf.owltoolkit.util;
 
+import com.sun.management.GarbageCollectionNotificationInfo;
 import org.apache.log4j.Level;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Date;
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.*;
+import java.lang.ref.WeakReference;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class TimerUtil {
 
@@ -13,16 +22,29 @@ public class TimerUtil {
 	private long lastCheck;
 	private Logger logger = LoggerFactory.getLogger(getClass());
 	private final Level loggingLevel;
+	private final boolean logPeakHeap;
+	// Most heap used since the last checkpoint
+	private final AtomicLong stepPeakHeapBytes = new AtomicLong();
+	private HeapUsedListener heapUsedListener;
 
 	public TimerUtil(String timerName) {
 		this(timerName, Level.INFO);
 	}
 
 	public TimerUtil(String timerName, Level loggingLevel) {
+		this(timerName, loggingLevel, false);
+	}
+
+	public TimerUtil(String timerName, Level loggingLevel, boolean logPeakHeap) {
 		this.loggingLevel = loggingLevel;
 		this.timerName = timerName;
+		this.logPeakHeap = logPeakHeap;
 		this.start = new Date().getTime();
 		lastCheck = start;
+		if (logPeakHeap) {
+			stepPeakHeapBytes.set(getHeapUsedBytes());
+			heapUsedListener = new HeapUsedListener(this);
+		}
 		log("Timer {}: started", timerName);
 	}
 
@@ -30,13 +52,33 @@ public class TimerUtil {
 		final long now = new Date().getTime();
 		float millisTaken = now - lastCheck;
 		lastCheck = now;
-		log("Timer {}: {} took {} seconds", timerName, name, millisTaken / 1000f);
+		if (logPeakHeap) {
+			long heapUsedBytes = getHeapUsedBytes();
+			recordHeapUsed(heapUsedBytes);
+			long peakHeapBytes = stepPeakHeapBytes.getAndSet(heapUsedBytes);
+			log("Timer {}: {} took {} seconds, heap used peaked at {} MB, measured before each garbage collection during this step and at its end",
+					timerName, name, millisTaken / 1000f, peakHeapBytes / (1024 * 1024));
+		} else {
+			log("Timer {}: {} took {} seconds", timerName, name, millisTaken / 1000f);
+		}
+	}
+
+	private void recordHeapUsed(long heapUsedBytes) {
+		stepPeakHeapBytes.accumulateAndGet(heapUsedBytes, Math::max);
+	}
+
+	private static long getHeapUsedBytes() {
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
 	}
 
 	public void finish() {
 		final long now = new Date().getTime();
 		float millisTaken = now - start;
 		log("Timer {}: total took {} seconds", timerName, millisTaken / 1000f);
+		if (heapUsedListener != null) {
+			heapUsedListener.remove();
+			heapUsedListener = null;
+		}
 	}
 
 	private void log(String s, Object... o) {
@@ -60,4 +102,61 @@ public class TimerUtil {
 		}
 	}
 
+	/**
+	 * Records the heap used just before each garbage collection, when it is highest.
+	 * Only holds the timer weakly and removes itself once the timer is gone, in case the timer is never finished.
+	 */
+	private static final class HeapUsedListener implements NotificationListener {
+
+		private final WeakReference<TimerUtil> timer;
+		private final Set<String> heapPoolNames = new HashSet<>();
+		private final List<NotificationEmitter> emitters = new ArrayList<>();
+
+		private HeapUsedListener(TimerUtil timer) {
+			this.timer = new WeakReference<>(timer);
+			for (MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans()) {
+				if (memoryPool.getType() == MemoryType.HEAP) {
+					heapPoolNames.add(memoryPool.getName());
+				}
+			}
+			for (GarbageCollectorMXBean garbageCollector : ManagementFactory.getGarbageCollectorMXBeans()) {
+				if (garbageCollector instanceof NotificationEmitter) {
+					NotificationEmitter emitter = (NotificationEmitter) garbageCollector;
+					emitter.addNotificationListener(this, null, null);
+					emitters.add(emitter);
+				}
+			}
+		}
+
+		@Override
+		public void handleNotification(Notification notification, Object handback) {
+			if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+				return;
+			}
+			TimerUtil timerUtil = timer.get();
+			if (timerUtil == null) {
+				remove();
+				return;
+			}
+			GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+			long heapUsedBytes = 0;
+			for (Map.Entry<String, MemoryUsage> memoryPool : info.getGcInfo().getMemoryUsageBeforeGc().entrySet()) {
+				if (heapPoolNames.contains(memoryPool.getKey())) {
+					heapUsedBytes += memoryPool.getValue().getUsed();
+				}
+			}
+			timerUtil.recordHeapUsed(heapUsedBytes);
+		}
+
+		private synchronized void remove() {
+			for (NotificationEmitter emitter : emitters) {
+				try {
+					emitter.removeNotificationListener(this);
+				} catch (ListenerNotFoundException e) {
+					// Already removed
+				}
+			}
+			emitters.clear();
+		}
+	}
 }
@@ -43,6 +43,10 @@ public class ApplicationTest {
 			"                                         - Published OWL Axiom reference set uuid will be used for an updated axiom.\n" +
 			"\n" +
 
+			" -streaming-reconcile                   (Optional) Flag to reconcile one concept at a time in concept id order \n" +
+			"                                        rather than converting all concepts first. Uses less memory.\n" +
+			"\n" +
+
 			" -rf2-snapshot-archives <path>          Comma separated paths of zip files containing RF2 Snapshot files to be loaded. \n" +
 			"                                        At least one Snapshot archive is required.\n" +
 			"\n" +
@@ -52,6 +56,23 @@ public class ApplicationTest {
 			" -debug                                 Additional output for debugging.\n" +
 			"\n" +
 			"\n" +
+			"Optional parameters for classification:\n" +
+			" -reasoner-threads <threads>            (Optional) Number of reasoner worker threads.\n" +
+			"                                        Defaults to the number of available processors.\n" +
+			"\n" +
+			" -reasoner-timeout <seconds>            (Optional) Reasoner timeout, if supported by the reasoner.\n" +
+			"                                        Defaults to no timeout.\n" +
+			"\n" +
+			" -taxonomy-extraction-threads <threads> (Optional) Number of threads used to extract the inferred taxonomy from the reasoner.\n" +
+			"                                        Defaults to 1.\n" +
+			"\n" +
+			" -normal-form-threads <threads>         (Optional) Number of threads used to generate the relationship normal form.\n" +
+			"                                        Defaults to 1.\n" +
+			"\n" +
+			" -axiom-conversion-threads <threads>    (Optional) Number of threads used to convert axioms to relationships before generating the normal form.\n" +
+			"                                        Defaults to 1.\n" +
+			"\n" +
+			"\n" +
 			"Optional parameters for OWL conversion:\n" +
 			" -uri <uri>                             (Optional) URI for the ontology identifier.\n" +
 			"                                        Defaults to the id within the header entry of the OWL Ontology reference set.\n" +
@@ -98,6 +119,19 @@ public class ApplicationTest {
 		assertEquals("Expecting a value with parameter -rf2-snapshot-archives\n", errorStream.toString());
 	}
 
+	@Test
+	public void mainArgThreadsZero() throws Exception {
+		File baseRF2SnapshotZip = ZipUtil.zipDirectoryRemovingCommentsAndBlankLines("src/test/resources/SnomedCT_MiniRF2_Base_snapshot");
+		runApplication(new String[] {
+				"-classify",
+				"-rf2-snapshot-archives", baseRF2SnapshotZip.getAbsolutePath(),
+				"-reasoner-threads", "0"
+		});
+
+		assertEquals("\n\n" + HELP, outStream.toString());
+		assertEquals("Expecting a positive whole number with parameter -reasoner-threads\n", errorStream.toString());
+	}
+
 	@Test
 	public void mainArgsFileAndBadValue() throws Exception {
 		runApplication(new String[] {"-rf2-snapshot-archives", "dummy"});
@@ -3,14 +3,19 @@ package org.snomed.otf.owltoolkit;
 import com.google.common.collect.Sets;
 import org.junit.Before;
 import org.junit.Test;
+import org.semanticweb.owlapi.model.OWLAxiom;
 import org.snomed.otf.owltoolkit.constants.Concepts;
 import org.snomed.otf.owltoolkit.conversion.AxiomRelationshipConversionService;
+import org.snomed.otf.owltoolkit.conversion.AxiomRepresentationCache;
 import org.snomed.otf.owltoolkit.conversion.ConversionException;
+import org.snomed.otf.owltoolkit.conversion.ConversionResult;
 import org.snomed.otf.owltoolkit.domain.AxiomRepresentation;
 import org.snomed.otf.owltoolkit.domain.Relationship;
 import org.snomed.otf.owltoolkit.ontology.OntologyService;
+import org.snomed.otf.owltoolkit.taxonomy.SnomedTaxonomyLoader;
 
 import java.util.*;
+import java.util.concurrent.*;
 
 import static org.junit.Assert.*;
 
@@ -282,6 +287,204 @@ public class AxiomRelationshipConversionServiceTest {
 		assertEquals("EquivalentClasses(:9846003 ObjectIntersectionOf(:39132006 ObjectSomeValuesFrom(:272741003 :7771000)))", actual);
 	}
 
+	@Test
+	public void testBatchConversionResultsInInputOrder() throws ConversionException {
+		axiomRelationshipConversionService.setBatchConversionThreads(4);
+		List<String> axioms = new ArrayList<>();
+		for (int i = 0; i < 200; i++) {
+			axioms.add("SubClassOf(:" + (100000000 + i) + " ObjectIntersectionOf(:73211009 ObjectSomeValuesFrom(:609096000 ObjectSomeValuesFrom(:100105001 :100101001))))");
+		}
+		axioms.set(10, "SubClassOf(:8801005 ");
+		axioms.set(20, "TransitiveObjectProperty(:738774007)");
+		axioms.set(30, "SubClassOf(:8801005 ObjectUnionOf(:73211009 :100101001))");
+
+		List<ConversionResult<AxiomRepresentation>> results = axiomRelationshipConversionService.convertAxiomsToRelationships(axioms);
+
+		assertEquals(axioms.size(), results.size());
+		for (int i = 0; i < axioms.size(); i++) {
+			ConversionResult<AxiomRepresentation> result = results.get(i);
+			if (i == 10) {
+				assertFalse(result.isSuccess());
+				assertEquals("Failed to deserialise axiom expression 'SubClassOf(:8801005 '.", result.getError().getMessage());
+			} else if (i == 20) {
+				// Not supported, same as the single axiom method
+				assertTrue(result.isSuccess());
+				assertNull(result.getValue());
+			} else if (i == 30) {
+				assertFalse(result.isSuccess());
+				assertNull(result.getValue());
+				assertTrue(result.getError().getMessage().startsWith("Expecting ObjectIntersectionOf at first level of expression"));
+			} else {
+				assertTrue(result.isSuccess());
+				assertEquals(100000000L + i, result.getValue().getLeftHandSideNamedConcept().longValue());
+				assertEquals("1 100105001=100101001", toString(result.getValue().getRightHandSideRelationships()).split("\n")[1]);
+			}
+		}
+	}
+
+	@Test
+	public void testBatchConvertRelationshipsToAxioms() throws ConversionException {
+		axiomRelationshipConversionService.setBatchConversionThreads(4);
+		List<String> axioms = Arrays.asList(
+				"SubClassOf(:8801005 ObjectIntersectionOf(:73211009 ObjectSomeValuesFrom(:609096000 ObjectSomeValuesFrom(:100105001 :100101001))))",
+				"EquivalentClasses(:9846003 ObjectIntersectionOf(:39132006 ObjectSomeValuesFrom(:272741003 :7771000)))",
+				"SubClassOf(ObjectIntersectionOf(:73211009 ObjectSomeValuesFrom(:609096000 ObjectSomeValuesFrom(:100105001 :100101001))) :8801005)");
+		List<AxiomRepresentation> representations = new ArrayList<>();
+		for (ConversionResult<AxiomRepresentation> result : axiomRelationshipConversionService.convertAxiomsToRelationships(axioms)) {
+			representations.add(result.getValue());
+		}
+		// Nothing to convert
+		representations.add(1, new AxiomRepresentation());
+
+		List<ConversionResult<String>> results = axiomRelationshipConversionService.convertRelationshipsToAxioms(representations);
+
+		assertEquals(4, results.size());
+		assertEquals(axioms.get(0), results.get(0).getValue());
+		assertFalse(results.get(1).isSuccess());
+		assertEquals("Failed to convert relationships of concept null to an axiom.", results.get(1).getError().getMessage());
+		assertEquals(axioms.get(1), results.get(2).getValue());
+		assertEquals(axioms.get(2), results.get(3).getValue());
+	}
+
+	@Test
+	public void testConvertAxiomMapInParallel() throws Exception {
+		SnomedTaxonomyLoader axiomDeserialiser = new SnomedTaxonomyLoader();
+		Map<Long, Set<OWLAxiom>> conceptAxiomMap = new HashMap<>();
+		for (long conceptId = 100000000L; conceptId < 100000500L; conceptId++) {
+			conceptAxiomMap.put(conceptId, Sets.newHashSet(
+					axiomDeserialiser.deserialiseAxiom("SubClassOf(:" + conceptId + " ObjectIntersectionOf(:73211009 ObjectSomeValuesFrom(:609096000 ObjectSomeValuesFrom(:100105001 :" + (conceptId + 1) + "))))"),
+					axiomDeserialiser.deserialiseAxiom("SubClassOf(ObjectIntersectionOf(:73211009 ObjectSomeValuesFrom(:609096000 ObjectSomeValuesFrom(:100105001 :" + (conceptId + 2) + "))) :" + conceptId + ")")));
+		}
+		// Not supported so not in the result
+		conceptAxiomMap.put(738774007L, Sets.newHashSet(axiomDeserialiser.deserialiseAxiom("TransitiveObjectProperty(:738774007)")));
+
+		axiomRelationshipConversionService.setBatchConversionThreads(1);
+		Map<Long, Set<AxiomRepresentation>> expected = axiomRelationshipConversionService.convertAxiomsToRelationships(conceptAxiomMap);
+		axiomRelationshipConversionService.setBatchConversionThreads(4);
+		Map<Long, Set<AxiomRepresentation>> actual = axiomRelationshipConversionService.convertAxiomsToRelationships(conceptAxiomMap);
+		assertEquals(500, actual.size());
+		assertFalse(actual.containsKey(738774007L));
+		for (Long conceptId : expected.keySet()) {
+			Set<String> expectedAxioms = new HashSet<>();
+			expected.get(conceptId).forEach(representation -> expectedAxioms.add(axiomRelationshipConversionService.convertRelationshipsToAxiom(representation)));
+			Set<String> actualAxioms = new HashSet<>();
+			actual.get(conceptId).forEach(representation -> actualAxioms.add(axiomRelationshipConversionService.convertRelationshipsToAxiom(representation)));
+			assertEquals(expectedAxioms, actualAxioms);
+		}
+
+		// All failures are reported in concept id order
+		for (long conceptId : new long[] {100000400L, 100000007L, 100000250L}) {
+			conceptAxiomMap.get(conceptId).add(axiomDeserialiser.deserialiseAxiom("SubClassOf(:" + conceptId + " ObjectUnionOf(:73211009 :100101001))"));
+		}
+		for (int i = 0; i < 3; i++) {
+			try {
+				axiomRelationshipConversionService.convertAxiomsToRelationships(conceptAxiomMap);
+				fail("Expected ConversionException");
+			} catch (ConversionException e) {
+				assertTrue(e.getMessage(), e.getMessage().startsWith("Failed to convert axioms of concept 100000007. Expecting ObjectIntersectionOf at first level of expression"));
+				assertTrue(e.getMessage(), e.getMessage().endsWith(" Axioms of 2 other concepts also failed."));
+				assertEquals(2, e.getSuppressed().length);
+				assertTrue(e.getSuppressed()[0].getMessage().startsWith("Failed to convert axioms of concept 100000250."));
+				assertTrue(e.getSuppressed()[1].getMessage().startsWith("Failed to convert axioms of concept 100000400."));
+			}
+		}
+	}
+
+	@Test
+	public void testAxiomRepresentationCache() throws ConversionException {
+		AxiomRepresentationCache cache = new AxiomRepresentationCache(2);
+		axiomRelationshipConversionService.setAxiomRepresentationCache(cache);
+		String axiom = "SubClassOf(:8801005 ObjectIntersectionOf(:73211009 ObjectSomeValuesFrom(:609096000 ObjectSomeValuesFrom(:100105001 :100101001))))";
+
+		AxiomRepresentation representation = axiomRelationshipConversionService.convertAxiomToRelationships(axiom);
+		assertEquals(0, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+
+		// Same expression again is not parsed
+		AxiomRepresentation cachedRepresentation = axiomRelationshipConversionService.convertAxiomToRelationships(axiom);
+		assertSame(representation, cachedRepresentation);
+		assertEquals(1, cache.getHitCount());
+		assertEquals(0.5, cache.getHitRate(), 0);
+
+		// Same axiom rendered with the operands in a different order is cached separately
+		AxiomRepresentation reorderedRepresentation = axiomRelationshipConversionService.convertAxiomToRelationships(
+				"SubClassOf(:8801005 ObjectIntersectionOf(ObjectSomeValuesFrom(:609096000 ObjectSomeValuesFrom(:100105001 :100101001)) :73211009))");
+		assertNotSame(representation, reorderedRepresentation);
+		assertEquals(axiom, axiomRelationshipConversionService.convertRelationshipsToAxiom(reorderedRepresentation));
+		assertEquals(2, cache.size());
+		cache.clear();
+		assertEquals(axiom, axiomRelationshipConversionService.convertRelationshipsToAxiom(cachedRepresentation));
+		try {
+			cachedRepresentation.getRightHandSideRelationships().get(1).add(new Relationship(1, Concepts.LATERALITY_LONG, 7771000L));
+			fail("Cached relationships should not be modifiable.");
+		} catch (UnsupportedOperationException e) {
+			// Expected
+		}
+		try {
+			cachedRepresentation.setPrimitive(false);
+			fail("Cached representation should not be modifiable.");
+		} catch (UnsupportedOperationException e) {
+			// Expected
+		}
+
+		// Unsupported axiom types are not cached
+		assertNull(axiomRelationshipConversionService.convertAxiomToRelationships("TransitiveObjectProperty(:738774007)"));
+		assertEquals(0, cache.size());
+
+		axiomRelationshipConversionService.convertAxiomToRelationships("SubClassOf(:118956008 :123037004)");
+		axiomRelationshipConversionService.convertAxiomToRelationships("SubClassOf(:118956008 :123037005)");
+		axiomRelationshipConversionService.convertAxiomToRelationships("SubClassOf(:118956008 :123037006)");
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.getEvictionCount());
+	}
+
+	@Test
+	public void testSharedBetweenThreads() throws Exception {
+		AxiomRelationshipConversionService service = new AxiomRelationshipConversionService(Sets.newHashSet(Concepts.LATERALITY_LONG),
+				Sets.newHashSet(762705008L), Sets.newHashSet(762706009L));
+		List<String> axioms = new ArrayList<>();
+		for (int i = 0; i < 50; i++) {
+			long conceptId = 100000000L + i;
+			axioms.add("SubClassOf(:" + conceptId + " ObjectIntersectionOf(:73211009 ObjectSomeValuesFrom(:609096000 ObjectSomeValuesFrom(:100105001 :" + (200000000L + i) + "))))");
+			axioms.add("EquivalentClasses(:" + conceptId + " ObjectIntersectionOf(:39132006 ObjectSomeValuesFrom(:272741003 :" + (300000000L + i) + ")))");
+			axioms.add("SubClassOf(ObjectIntersectionOf(:73211009 ObjectSomeValuesFrom(:609096000 ObjectSomeValuesFrom(:100105001 :" + (400000000L + i) + "))) :" + conceptId + ")");
+			axioms.add("SubObjectPropertyOf(:" + conceptId + " :762705008)");
+		}
+		// Each expression converts to relationships and back to the same expression
+		for (String axiom : axioms) {
+			assertEquals(axiom, service.convertRelationshipsToAxiom(service.convertAxiomToRelationships(axiom)));
+		}
+
+		int threads = 8;
+		ExecutorService executorService = Executors.newFixedThreadPool(threads);
+		CountDownLatch start = new CountDownLatch(1);
+		Queue<String> failures = new ConcurrentLinkedQueue<>();
+		List<Future<?>> futures = new ArrayList<>();
+		for (int thread = 0; thread < threads; thread++) {
+			int offset = thread * 7;
+			futures.add(executorService.submit(() -> {
+				start.await();
+				for (int i = 0; i < 2_000; i++) {
+					String axiom = axioms.get((offset + i) % axioms.size());
+					String recreatedAxiom = service.convertRelationshipsToAxiom(service.convertAxiomToRelationships(axiom));
+					if (!axiom.equals(recreatedAxiom)) {
+						failures.add(axiom + " became " + recreatedAxiom);
+					}
+				}
+				return null;
+			}));
+		}
+		start.countDown();
+		try {
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			executorService.shutdown();
+		}
+		assertEquals(Collections.emptyList(), new ArrayList<>(failures));
+	}
+
 	private Map<Integer, List<Relationship>> toMap(Relationship... relationships) {
 		HashMap<Integer, List<Relationship>> relationshipMap = new HashMap<>();
 		for (Relationship relationship : relationships) {
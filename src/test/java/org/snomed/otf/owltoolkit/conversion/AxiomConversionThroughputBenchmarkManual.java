@@ -0,0 +1,94 @@
+package org.snomed.otf.owltoolkit.conversion;
+
+import com.google.common.collect.Sets;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.snomed.otf.owltoolkit.constants.Concepts;
+import org.snomed.otf.owltoolkit.taxonomy.SnomedTaxonomyLoader;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.*;
+
+// Utility class for manual testing
+// Measures the throughput of one AxiomRelationshipConversionService shared by several threads, each converting
+// axiom expressions to relationships and back as a web server request would.
+// The shared parser mode parses every expression with one SnomedTaxonomyLoader, the approach used before parsers were pooled, included for comparison.
+// Arguments: [seconds per run, default 5] [thread counts, default 1,2,4,8]
+public class AxiomConversionThroughputBenchmarkManual {
+
+	public static void main(String[] args) throws Exception {
+		int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+		String[] threadCounts = (args.length > 1 ? args[1] : "1,2,4,8").split(",");
+
+		AxiomRelationshipConversionService service = new AxiomRelationshipConversionService(Sets.newHashSet(Concepts.LATERALITY_LONG));
+		SnomedTaxonomyLoader sharedParser = new SnomedTaxonomyLoader();
+		List<String> axioms = createAxioms(1000);
+
+		// Warm up
+		for (int i = 0; i < 2; i++) {
+			run("Parser pool", service, null, axioms, 1, seconds, false);
+			run("Shared parser", service, sharedParser, axioms, 1, seconds, false);
+		}
+
+		for (String threadCount : threadCounts) {
+			int threads = Integer.parseInt(threadCount);
+			run("Parser pool", service, null, axioms, threads, seconds, true);
+			run("Shared parser", service, sharedParser, axioms, threads, seconds, true);
+		}
+	}
+
+	private static void run(String name, AxiomRelationshipConversionService service, SnomedTaxonomyLoader sharedParser, List<String> axioms,
+			int threads, int seconds, boolean print) throws Exception {
+
+		ExecutorService executorService = Executors.newFixedThreadPool(threads);
+		CountDownLatch start = new CountDownLatch(1);
+		long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds) + TimeUnit.MILLISECONDS.toNanos(100);
+		List<Future<Long>> futures = new ArrayList<>();
+		for (int thread = 0; thread < threads; thread++) {
+			int offset = thread * 101;
+			futures.add(executorService.submit(() -> {
+				start.await();
+				long conversions = 0;
+				while (System.nanoTime() < end) {
+					String axiom = axioms.get((int) ((offset + conversions) % axioms.size()));
+					if (sharedParser != null) {
+						OWLAxiom owlAxiom = sharedParser.deserialiseAxiom(axiom);
+						service.convertRelationshipsToAxiom(service.convertAxiomToRelationships(owlAxiom));
+					} else {
+						service.convertRelationshipsToAxiom(service.convertAxiomToRelationships(axiom));
+					}
+					conversions++;
+				}
+				return conversions;
+			}));
+		}
+		long startNanos = System.nanoTime();
+		start.countDown();
+		long conversions = 0;
+		for (Future<Long> future : futures) {
+			conversions += future.get();
+		}
+		long nanos = System.nanoTime() - startNanos;
+		executorService.shutdown();
+		if (print) {
+			System.out.println(String.format("%s, %d threads: %,10.0f round trips per second", name, threads, conversions / (nanos / 1_000_000_000.0)));
+		}
+	}
+
+	static List<String> createAxioms(int count) {
+		Random random = new Random(1234);
+		List<String> axioms = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			long conceptId = 100000000L + i;
+			long parentId = 100000000L + random.nextInt(count);
+			StringBuilder groups = new StringBuilder();
+			for (int group = 0; group < 1 + random.nextInt(3); group++) {
+				groups.append(" ObjectSomeValuesFrom(:609096000 ObjectIntersectionOf(ObjectSomeValuesFrom(:363698007 :").append(200000000L + random.nextInt(count))
+						.append(") ObjectSomeValuesFrom(:116676008 :").append(300000000L + random.nextInt(count)).append(")))");
+			}
+			axioms.add((i % 2 == 0 ? "SubClassOf(:" : "EquivalentClasses(:") + conceptId + " ObjectIntersectionOf(:" + parentId + groups + "))");
+		}
+		return axioms;
+	}
+}
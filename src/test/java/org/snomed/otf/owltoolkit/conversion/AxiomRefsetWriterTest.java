@@ -0,0 +1,100 @@
+package org.snomed.otf.owltoolkit.conversion;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyCreationException;
+import org.snomed.otf.owltoolkit.constants.Concepts;
+import org.snomed.otf.owltoolkit.domain.AxiomRepresentation;
+import org.snomed.otf.owltoolkit.domain.Relationship;
+import org.snomed.otf.owltoolkit.ontology.OntologyService;
+import org.snomed.otf.owltoolkit.taxonomy.SnomedTaxonomy;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AxiomRefsetWriterTest {
+
+	private OntologyService ontologyService;
+	private OWLOntology ontology;
+
+	@Before
+	public void setup() throws OWLOntologyCreationException {
+		ontologyService = new OntologyService(SnomedTaxonomy.DEFAULT_NEVER_GROUPED_ROLE_IDS);
+		ontology = ontologyService.createOntology(new SnomedTaxonomy());
+	}
+
+	@Test
+	public void testSameOutputForAnyThreadCount() throws IOException {
+		// Enough concepts for several batches
+		Random random = new Random(1);
+		Map<Long, Set<OWLAxiom>> changes = new HashMap<>();
+		Map<OWLAxiom, String> axiomsIdMap = new HashMap<>();
+		for (int i = 0; i < 3500; i++) {
+			long conceptId = 100000000L + random.nextInt(100_000_000);
+			Set<OWLAxiom> axioms = changes.computeIfAbsent(conceptId, id -> new HashSet<>());
+			int axiomCount = 1 + random.nextInt(3);
+			for (int a = 0; a < axiomCount; a++) {
+				OWLAxiom axiom = createAxiom(conceptId, random);
+				axioms.add(axiom);
+				if (random.nextInt(4) == 0) {
+					axiomsIdMap.put(axiom, UUID.randomUUID().toString());
+				}
+			}
+		}
+		Set<Long> inactiveConcepts = new HashSet<>();
+		for (Long conceptId : changes.keySet()) {
+			if (random.nextInt(10) == 0) {
+				inactiveConcepts.add(conceptId);
+			}
+		}
+
+		String single = write(axiomsIdMap, changes, inactiveConcepts, 1);
+		String[] rows = single.split(System.lineSeparator());
+		assertEquals(changes.values().stream().mapToInt(Set::size).sum(), rows.length);
+
+		// Rows in concept id order with sequential identifiers in row order for new axioms
+		long previousConceptId = 0;
+		int nextIdentifier = 1;
+		for (String row : rows) {
+			String[] columns = row.split("\t");
+			long conceptId = Long.parseLong(columns[5]);
+			assertTrue(conceptId >= previousConceptId);
+			previousConceptId = conceptId;
+			assertEquals(inactiveConcepts.contains(conceptId) ? "0" : "1", columns[2]);
+			if (!axiomsIdMap.containsValue(columns[0])) {
+				assertEquals(Integer.toString(nextIdentifier++), columns[0]);
+			}
+		}
+
+		assertEquals(single, write(axiomsIdMap, changes, inactiveConcepts, 2));
+		assertEquals(single, write(axiomsIdMap, changes, inactiveConcepts, 4));
+	}
+
+	private String write(Map<OWLAxiom, String> axiomsIdMap, Map<Long, Set<OWLAxiom>> changes, Set<Long> inactiveConcepts, int threads) throws IOException {
+		AtomicInteger sequentialTestId = new AtomicInteger(1);
+		AxiomRefsetWriter axiomRefsetWriter = new AxiomRefsetWriter(axiomsIdMap, changes, inactiveConcepts, Collections.singleton(Concepts.ROOT_LONG),
+				null, () -> sequentialTestId.getAndIncrement() + "", ontology);
+		StringWriter writer = new StringWriter();
+		axiomRefsetWriter.write(writer, threads);
+		return writer.toString();
+	}
+
+	private OWLAxiom createAxiom(long conceptId, Random random) {
+		AxiomRepresentation representation = new AxiomRepresentation();
+		representation.setPrimitive(random.nextBoolean());
+		representation.setLeftHandSideNamedConcept(conceptId);
+		Map<Integer, List<Relationship>> relationships = new HashMap<>();
+		relationships.put(0, new ArrayList<>(Collections.singletonList(new Relationship(0, Concepts.IS_A_LONG, 100000000L + random.nextInt(1000)))));
+		int group = 1 + random.nextInt(2);
+		relationships.put(group, new ArrayList<>(Collections.singletonList(new Relationship(group, 200000000L + random.nextInt(10), 100000000L + random.nextInt(1000)))));
+		representation.setRightHandSideRelationships(relationships);
+		return ontologyService.createOwlClassAxiom(representation);
+	}
+}
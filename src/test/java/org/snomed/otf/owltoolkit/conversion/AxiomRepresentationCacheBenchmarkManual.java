@@ -0,0 +1,44 @@
+package org.snomed.otf.owltoolkit.conversion;
+
+import com.google.common.collect.Sets;
+import org.snomed.otf.owltoolkit.constants.Concepts;
+
+import java.util.List;
+
+// Utility class for manual testing
+// Measures converting axiom expressions to relationships with and without an AxiomRepresentationCache.
+// The cache is filled before timing so every lookup is a hit, as for axioms unchanged since an earlier run.
+// Arguments: [number of axioms, default 100000] [passes, default 5]
+public class AxiomRepresentationCacheBenchmarkManual {
+
+	public static void main(String[] args) throws Exception {
+		int axiomCount = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+		int passes = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+		List<String> axiomExpressions = AxiomConversionThroughputBenchmarkManual.createAxioms(axiomCount);
+
+		AxiomRelationshipConversionService uncachedService = new AxiomRelationshipConversionService(Sets.newHashSet(Concepts.LATERALITY_LONG));
+		AxiomRelationshipConversionService cachedService = new AxiomRelationshipConversionService(Sets.newHashSet(Concepts.LATERALITY_LONG));
+		AxiomRepresentationCache cache = new AxiomRepresentationCache(axiomCount * 2L);
+		cachedService.setAxiomRepresentationCache(cache);
+
+		// Warm up, this also fills the cache
+		run(uncachedService, axiomExpressions);
+		run(cachedService, axiomExpressions);
+
+		for (int pass = 0; pass < passes; pass++) {
+			long uncachedNanos = run(uncachedService, axiomExpressions);
+			long cachedNanos = run(cachedService, axiomExpressions);
+			System.out.println(String.format("Pass %d: no cache %,d ms, cache %,d ms", pass + 1, uncachedNanos / 1_000_000, cachedNanos / 1_000_000));
+		}
+		System.out.println(String.format("Cache hit rate %.3f", cache.getHitRate()));
+	}
+
+	private static long run(AxiomRelationshipConversionService service, List<String> axiomExpressions) throws ConversionException {
+		long start = System.nanoTime();
+		for (String axiomExpression : axiomExpressions) {
+			service.convertAxiomToRelationships(axiomExpression);
+		}
+		return System.nanoTime() - start;
+	}
+}
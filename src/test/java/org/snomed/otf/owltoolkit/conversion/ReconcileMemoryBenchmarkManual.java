@@ -0,0 +1,211 @@
+package org.snomed.otf.owltoolkit.conversion;
+
+import org.snomed.otf.owltoolkit.constants.Concepts;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+// Utility class for manual testing
+// Compares the peak heap of the reconcile conversion with and without streaming reconcile using generated RF2 archives.
+// Two figures are sampled while each run is in progress: heap used, which depends on when the collector runs,
+// and heap used after the most recent collection, which is closer to the live data. Running with a fixed -Xmx gives more stable figures.
+// Arguments: [concepts, default 200000]
+public class ReconcileMemoryBenchmarkManual {
+
+	private static final String ROOT = Concepts.ROOT;
+	private static final String PRIMITIVE = "900000000000074008";
+	private static final String CORE_MODULE = Concepts.SNOMED_CT_CORE_MODULE;
+	private static final long FIRST_CONCEPT_ID = 100000000L;
+	private static final String[] ATTRIBUTE_IDS = {"363698007", "116676008", "246075003", "370135005"};
+
+	public static void main(String[] args) throws Exception {
+		int concepts = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+
+		File directory = Files.createTempDirectory("reconcile-benchmark").toFile();
+		File authoringSnapshot = new File(directory, "authoring-snapshot.zip");
+		File midCycleDelta = new File(directory, "mid-cycle-delta.zip");
+		File publishedSnapshot = new File(directory, "published-snapshot.zip");
+		createArchives(concepts, authoringSnapshot, midCycleDelta, publishedSnapshot);
+		System.out.println(String.format("%,d concepts, archives %,d, %,d and %,d bytes", concepts,
+				authoringSnapshot.length(), midCycleDelta.length(), publishedSnapshot.length()));
+
+		// Warm up
+		run(authoringSnapshot, midCycleDelta, publishedSnapshot, false, false);
+		run(authoringSnapshot, midCycleDelta, publishedSnapshot, true, false);
+
+		run(authoringSnapshot, midCycleDelta, publishedSnapshot, false, true);
+		run(authoringSnapshot, midCycleDelta, publishedSnapshot, true, true);
+
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+	private static void run(File authoringSnapshot, File midCycleDelta, File publishedSnapshot, boolean streaming, boolean print) throws Exception {
+		StatedRelationshipToOwlRefsetService service = new StatedRelationshipToOwlRefsetService();
+		service.setStreamingReconcile(streaming);
+		// Sequential identifiers so the output of both modes is the same
+		AtomicLong identifier = new AtomicLong();
+		service.setIdentifierSupplier(() -> Long.toString(identifier.incrementAndGet()));
+		System.gc();
+		HeapSampler heapSampler = new HeapSampler();
+		heapSampler.start();
+		long start = System.nanoTime();
+		CountingOutputStream out = new CountingOutputStream();
+		try (InputStream authoringSnapshotStream = new FileInputStream(authoringSnapshot);
+			InputStream midCycleDeltaStream = new FileInputStream(midCycleDelta);
+			InputStream publishedSnapshotStream = new FileInputStream(publishedSnapshot)) {
+			service.convertStatedRelationshipsToOwlReRefsetAndReconcileWithPublishedArchive(authoringSnapshotStream, midCycleDeltaStream, publishedSnapshotStream, out, "20190731");
+		}
+		long nanos = System.nanoTime() - start;
+		heapSampler.finish();
+		if (print) {
+			System.out.println(String.format("%-22s %6.1f s, peak heap used %,6d MB, peak heap after collection %,6d MB, output %,d bytes",
+					streaming ? "Streaming reconcile" : "Reconcile", nanos / 1_000_000_000.0,
+					heapSampler.peakUsed / (1024 * 1024), heapSampler.peakUsedAfterCollection / (1024 * 1024), out.count));
+		}
+	}
+
+	// Authoring snapshot with a hierarchy and one grouped attribute per concept.
+	// The published snapshot has the same axioms apart from some modified, missing and inactivated concepts.
+	private static void createArchives(int concepts, File authoringSnapshot, File midCycleDelta, File publishedSnapshot) throws IOException {
+		Random random = new Random(1234);
+		StringBuilder authoringConcepts = new StringBuilder("id\teffectiveTime\tactive\tmoduleId\tdefinitionStatusId\n");
+		StringBuilder authoringRelationships = new StringBuilder("id\teffectiveTime\tactive\tmoduleId\tsourceId\tdestinationId\trelationshipGroup\ttypeId\tcharacteristicTypeId\tmodifierId\n");
+		StringBuilder publishedConcepts = new StringBuilder(authoringConcepts);
+		StringBuilder publishedAxioms = new StringBuilder("id\teffectiveTime\tactive\tmoduleId\trefsetId\treferencedComponentId\towlExpression\n");
+		StringBuilder deltaConcepts = new StringBuilder(authoringConcepts);
+
+		appendConcept(authoringConcepts, ROOT, true);
+		appendConcept(publishedConcepts, ROOT, true);
+		long relationshipId = 1000000L;
+		for (int i = 0; i < concepts; i++) {
+			String conceptId = Long.toString(FIRST_CONCEPT_ID + i);
+			String parentId = i == 0 ? ROOT : Long.toString(FIRST_CONCEPT_ID + random.nextInt(i));
+			String attributeId = ATTRIBUTE_IDS[random.nextInt(ATTRIBUTE_IDS.length)];
+			String valueId = Long.toString(FIRST_CONCEPT_ID + random.nextInt(concepts));
+			int change = random.nextInt(100);
+
+			// 1% inactivated since publishing
+			boolean active = change != 0;
+			appendConcept(authoringConcepts, conceptId, active);
+			if (active) {
+				appendStatedRelationship(authoringRelationships, relationshipId++, conceptId, parentId, 0, Concepts.IS_A);
+				appendStatedRelationship(authoringRelationships, relationshipId++, conceptId, valueId, 1, attributeId);
+			}
+
+			// 5% new since publishing
+			if (change < 95) {
+				appendConcept(publishedConcepts, conceptId, true);
+				// 5% modified since publishing
+				String publishedValueId = change >= 90 ? Long.toString(FIRST_CONCEPT_ID + random.nextInt(concepts)) : valueId;
+				publishedAxioms.append(new UUID(random.nextLong(), random.nextLong())).append("\t20190131\t1\t").append(CORE_MODULE).append('\t')
+						.append(Concepts.OWL_AXIOM_REFERENCE_SET).append('\t').append(conceptId).append('\t')
+						.append("SubClassOf(:").append(conceptId).append(" ObjectIntersectionOf(:").append(parentId)
+						.append(" ObjectSomeValuesFrom(:609096000 ObjectSomeValuesFrom(:").append(attributeId).append(" :").append(publishedValueId).append("))))\n");
+			}
+		}
+		// A few concepts changed during the authoring cycle
+		for (int i = 0; i < concepts; i += 1000) {
+			appendConcept(deltaConcepts, Long.toString(FIRST_CONCEPT_ID + i), true);
+		}
+
+		writeArchive(authoringSnapshot, "sct2_Concept_Snapshot_INT_20190731.txt", authoringConcepts,
+				"sct2_StatedRelationship_Snapshot_INT_20190731.txt", authoringRelationships);
+		writeArchive(midCycleDelta, "sct2_Concept_Delta_INT_20190731.txt", deltaConcepts);
+		writeArchive(publishedSnapshot, "sct2_Concept_Snapshot_INT_20190131.txt", publishedConcepts,
+				"sct2_sRefset_OWLAxiomSnapshot_INT_20190131.txt", publishedAxioms);
+	}
+
+	private static void appendConcept(StringBuilder builder, String conceptId, boolean active) {
+		builder.append(conceptId).append("\t20190131\t").append(active ? '1' : '0').append('\t').append(CORE_MODULE).append('\t').append(PRIMITIVE).append('\n');
+	}
+
+	private static void appendStatedRelationship(StringBuilder builder, long id, String sourceId, String destinationId, int group, String typeId) {
+		builder.append(id).append("\t20190131\t1\t").append(CORE_MODULE).append('\t').append(sourceId).append('\t').append(destinationId).append('\t')
+				.append(group).append('\t').append(typeId).append('\t').append(Concepts.STATED_RELATIONSHIP).append("\t900000000000451002\n");
+	}
+
+	private static void writeArchive(File file, Object... namesAndContents) throws IOException {
+		try (ZipOutputStream zipOutputStream = new ZipOutputStream(new FileOutputStream(file))) {
+			for (int i = 0; i < namesAndContents.length; i += 2) {
+				zipOutputStream.putNextEntry(new ZipEntry("SnomedCT/Snapshot/Terminology/" + namesAndContents[i]));
+				zipOutputStream.write(namesAndContents[i + 1].toString().getBytes(StandardCharsets.UTF_8));
+				zipOutputStream.closeEntry();
+			}
+		}
+	}
+
+	private static final class HeapSampler extends Thread {
+
+		private final List<MemoryPoolMXBean> memoryPools = ManagementFactory.getMemoryPoolMXBeans();
+		private volatile boolean running = true;
+		private long peakUsed;
+		private long peakUsedAfterCollection;
+
+		private HeapSampler() {
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			while (running) {
+				sample();
+				try {
+					Thread.sleep(5);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}
+
+		private void sample() {
+			long used = 0;
+			long usedAfterCollection = 0;
+			for (MemoryPoolMXBean memoryPool : memoryPools) {
+				if (memoryPool.getType() == MemoryType.HEAP) {
+					used += memoryPool.getUsage().getUsed();
+					MemoryUsage collectionUsage = memoryPool.getCollectionUsage();
+					if (collectionUsage != null) {
+						usedAfterCollection += collectionUsage.getUsed();
+					}
+				}
+			}
+			peakUsed = Math.max(peakUsed, used);
+			peakUsedAfterCollection = Math.max(peakUsedAfterCollection, usedAfterCollection);
+		}
+
+		private void finish() throws InterruptedException {
+			running = false;
+			join();
+			sample();
+		}
+	}
+
+	private static final class CountingOutputStream extends OutputStream {
+
+		private long count;
+
+		@Override
+		public void write(int b) {
+			count++;
+		}
+
+		@Override
+		public void write(byte[] bytes, int offset, int length) {
+			count += length;
+		}
+	}
+}
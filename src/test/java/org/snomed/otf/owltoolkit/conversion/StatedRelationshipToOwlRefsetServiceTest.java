@@ -4,7 +4,10 @@ import org.junit.Before;
 import org.junit.Test;
 import org.semanticweb.owlapi.model.OWLAxiom;
 import org.semanticweb.owlapi.model.OWLOntologyCreationException;
+import org.ihtsdo.otf.snomedboot.factory.ImpotentComponentFactory;
 import org.snomed.otf.owltoolkit.conversion.StatedRelationshipToOwlRefsetService.AxiomChangesGenerator;
+import org.snomed.otf.owltoolkit.ontology.OntologyService;
+import org.snomed.otf.owltoolkit.taxonomy.SnomedTaxonomy;
 import org.snomed.otf.owltoolkit.taxonomy.SnomedTaxonomyLoader;
 import org.snomed.otf.owltoolkit.util.InputStreamSet;
 import org.snomed.otf.owltoolkit.util.OptionalFileInputStream;
@@ -13,10 +16,7 @@ import org.springframework.util.StreamUtils;
 
 import java.io.*;
 import java.nio.charset.Charset;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
@@ -64,18 +64,18 @@ public class StatedRelationshipToOwlRefsetServiceTest {
 		// Sequential identifiers used in this test rather than random UUIDs
 		assertEquals(
 				"id\teffectiveTime\tactive\tmoduleId\trefsetId\treferencedComponentId\towlExpression\n" +
-				"1\t\t1\t900000000000012004\t733073007\t410662002\tSubClassOf(:410662002 :900000000000441003)\n" +
-				"2\t\t1\t900000000000012004\t733073007\t116680003\tSubClassOf(:116680003 :900000000000441003)\n" +
-				"3\t\t1\t900000000000012004\t733073007\t723594008\tSubClassOf(:723594008 :900000000000441003)\n" +
-				"4\t\t1\t900000000000012004\t733073007\t762705008\tSubClassOf(:762705008 :410662002)\n" +
-				"5\t\t1\t900000000000207008\t733073007\t73211009\tSubClassOf(:73211009 :362969004)\n" +
-				"6\t\t1\t900000000000012004\t733073007\t900000000000441003\tSubClassOf(:900000000000441003 :138875005)\n" +
-				"7\t\t1\t900000000000207008\t733073007\t362969004\tEquivalentClasses(:362969004 ObjectIntersectionOf(:404684003 ObjectSomeValuesFrom(:609096000 ObjectSomeValuesFrom(:363698007 :113331007))))\n" +
-				"8\t\t1\t900000000000012004\t733073007\t723596005\tSubClassOf(:723596005 :723594008)\n" +
-				"9\t\t1\t900000000000012004\t733073007\t762706009\tSubClassOf(:762706009 :410662002)\n" +
-				"10\t\t1\t900000000000207008\t733073007\t404684003\tSubClassOf(:404684003 :138875005)\n" +
-				"11\t\t1\t900000000000012004\t733073007\t363698007\tSubObjectPropertyOf(:363698007 :762705008)\n" +
-				"12\t\t1\t900000000000207008\t733073007\t113331007\tSubClassOf(:113331007 :138875005)\n",
+				"1\t\t1\t900000000000207008\t733073007\t73211009\tSubClassOf(:73211009 :362969004)\n" +
+				"2\t\t1\t900000000000207008\t733073007\t113331007\tSubClassOf(:113331007 :138875005)\n" +
+				"3\t\t1\t900000000000012004\t733073007\t116680003\tSubClassOf(:116680003 :900000000000441003)\n" +
+				"4\t\t1\t900000000000207008\t733073007\t362969004\tEquivalentClasses(:362969004 ObjectIntersectionOf(:404684003 ObjectSomeValuesFrom(:609096000 ObjectSomeValuesFrom(:363698007 :113331007))))\n" +
+				"5\t\t1\t900000000000012004\t733073007\t363698007\tSubObjectPropertyOf(:363698007 :762705008)\n" +
+				"6\t\t1\t900000000000207008\t733073007\t404684003\tSubClassOf(:404684003 :138875005)\n" +
+				"7\t\t1\t900000000000012004\t733073007\t410662002\tSubClassOf(:410662002 :900000000000441003)\n" +
+				"8\t\t1\t900000000000012004\t733073007\t723594008\tSubClassOf(:723594008 :900000000000441003)\n" +
+				"9\t\t1\t900000000000012004\t733073007\t723596005\tSubClassOf(:723596005 :723594008)\n" +
+				"10\t\t1\t900000000000012004\t733073007\t762705008\tSubClassOf(:762705008 :410662002)\n" +
+				"11\t\t1\t900000000000012004\t733073007\t762706009\tSubClassOf(:762706009 :410662002)\n" +
+				"12\t\t1\t900000000000012004\t733073007\t900000000000441003\tSubClassOf(:900000000000441003 :138875005)\n",
 				owlRefset);
 
 		assertEquals(
@@ -151,9 +151,9 @@ public class StatedRelationshipToOwlRefsetServiceTest {
 		assertEquals(
 				"id\teffectiveTime\tactive\tmoduleId\trefsetId\treferencedComponentId\towlExpression\n" +
 				"c569b572-1197-49a6-84b6-c44e98f0c0b6\t\t1\t900101001\t733073007\t555321000005104\tSubClassOf(:555321000005104 :385207009)\n" + 
-				"1\t\t1\t900101001\t733073007\t900101001\tSubClassOf(:900101001 :900000000000441003)\n" + 
-				"2\t\t1\t900101001\t733073007\t18736003\tSubClassOf(:18736003 ObjectIntersectionOf(:12481008 :76145000 ObjectSomeValuesFrom(:609096000 ObjectIntersectionOf(ObjectSomeValuesFrom(:260686004 :129287005) ObjectSomeValuesFrom(:405813007 :84301002))) ObjectSomeValuesFrom(:609096000 ObjectIntersectionOf(ObjectSomeValuesFrom(:260686004 :281615006) ObjectSomeValuesFrom(:405813007 :25342003)))))\n" +
-				"3\t\t1\t900101001\t733073007\t18736004\tSubClassOf(:18736004 :76145000)\n",
+				"1\t\t1\t900101001\t733073007\t18736003\tSubClassOf(:18736003 ObjectIntersectionOf(:12481008 :76145000 ObjectSomeValuesFrom(:609096000 ObjectIntersectionOf(ObjectSomeValuesFrom(:260686004 :129287005) ObjectSomeValuesFrom(:405813007 :84301002))) ObjectSomeValuesFrom(:609096000 ObjectIntersectionOf(ObjectSomeValuesFrom(:260686004 :281615006) ObjectSomeValuesFrom(:405813007 :25342003)))))\n" +
+				"2\t\t1\t900101001\t733073007\t18736004\tSubClassOf(:18736004 :76145000)\n" +
+				"3\t\t1\t900101001\t733073007\t900101001\tSubClassOf(:900101001 :900000000000441003)\n",
 				owlRefset);
 		
 		assertEquals(
@@ -174,6 +174,66 @@ public class StatedRelationshipToOwlRefsetServiceTest {
 				statedRelationshipsNotConverted);
 	}
 	
+	@Test
+	public void testStreamingReconcileSameOutput() throws Exception {
+		File baseRf2SnapshoZip = ZipUtil.zipDirectoryRemovingCommentsAndBlankLines("src/test/resources/SnomedCT_MiniRF2_Base_snapshot");
+		File midCycleDeltaZip = ZipUtil.zipDirectoryRemovingCommentsAndBlankLines("src/test/resources/SnomedCT_MiniRF2_MidAuthoringCycle_delta");
+		File compleOwlSnapshotZip = ZipUtil.zipDirectoryRemovingCommentsAndBlankLines("src/test/resources/SnomedCT_MiniRF2_Base_CompleteOwl_snapshot");
+
+		Map<String, String> expected = new HashMap<>();
+		Map<String, String> actual = new HashMap<>();
+		for (boolean streaming : new boolean[] {false, true}) {
+			setUp();
+			service.setStreamingReconcile(streaming);
+			ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+			service.convertStatedRelationshipsToOwlReRefsetAndReconcileWithPublishedArchive(new FileInputStream(baseRf2SnapshoZip), new FileInputStream(midCycleDeltaZip),
+					new FileInputStream(compleOwlSnapshotZip), byteArrayOutputStream, "20190731");
+			readEntries("", byteArrayOutputStream, streaming ? actual : expected);
+		}
+		assertEquals(1, expected.size());
+		assertEquals(expected, actual);
+	}
+
+	@Test
+	public void testStreamingChangesInConceptOrderBatches() throws Exception {
+		File baseRf2SnapshoZip = ZipUtil.zipDirectoryRemovingCommentsAndBlankLines("src/test/resources/SnomedCT_MiniRF2_Base_snapshot");
+		File midCycleDeltaZip = ZipUtil.zipDirectoryRemovingCommentsAndBlankLines("src/test/resources/SnomedCT_MiniRF2_MidAuthoringCycle_delta");
+		File compleOwlSnapshotZip = ZipUtil.zipDirectoryRemovingCommentsAndBlankLines("src/test/resources/SnomedCT_MiniRF2_Base_CompleteOwl_snapshot");
+		SnomedTaxonomy snomedTaxonomy = service.readSnomedTaxonomy(new FileInputStream(baseRf2SnapshoZip), new FileInputStream(midCycleDeltaZip), new ImpotentComponentFactory());
+		OntologyService ontologyService = new OntologyService(SnomedTaxonomy.DEFAULT_NEVER_GROUPED_ROLE_IDS);
+
+		AxiomChangesGenerator generator = new AxiomChangesGenerator();
+		generator.generate(snomedTaxonomy, ontologyService, new FileInputStream(compleOwlSnapshotZip));
+
+		// One concept per batch
+		AxiomChangesGenerator streamingGenerator = new AxiomChangesGenerator();
+		Map<Long, Set<OWLAxiom>> streamedChanges = new LinkedHashMap<>();
+		Map<OWLAxiom, String> streamedAxiomsIdMap = new HashMap<>();
+		streamingGenerator.generate(snomedTaxonomy, ontologyService, new FileInputStream(compleOwlSnapshotZip), 1, () -> {
+			assertEquals(1, streamingGenerator.getChanges().size());
+			streamedChanges.putAll(streamingGenerator.getChanges());
+			streamedAxiomsIdMap.putAll(streamingGenerator.getAxiomsIdMap());
+		});
+
+		assertEquals(3, generator.getChanges().values().stream().mapToInt(Set::size).sum());
+		assertEquals(generator.getChanges(), streamedChanges);
+		assertEquals(generator.getAxiomsIdMap(), streamedAxiomsIdMap);
+		assertEquals(generator.getConceptsInactivated(), streamingGenerator.getConceptsInactivated());
+		List<Long> conceptIds = new ArrayList<>(streamedChanges.keySet());
+		List<Long> sortedConceptIds = new ArrayList<>(conceptIds);
+		Collections.sort(sortedConceptIds);
+		assertEquals(sortedConceptIds, conceptIds);
+	}
+
+	private void readEntries(String prefix, ByteArrayOutputStream byteArrayOutputStream, Map<String, String> entries) throws IOException {
+		try (ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(byteArrayOutputStream.toByteArray()))) {
+			ZipEntry nextEntry;
+			while ((nextEntry = zipInputStream.getNextEntry()) != null) {
+				entries.put(prefix + nextEntry.getName(), StreamUtils.copyToString(zipInputStream, Charset.forName("UTF-8")));
+			}
+		}
+	}
+
 	@Test
 	public void testChangesWithTwoAxioms() throws Exception {
 		AxiomChangesGenerator generator = new AxiomChangesGenerator();
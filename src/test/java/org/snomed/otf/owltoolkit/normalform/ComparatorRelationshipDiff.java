@@ -0,0 +1,104 @@
+package org.snomed.otf.owltoolkit.normalform;
+
+import org.snomed.otf.owltoolkit.constants.Concepts;
+import org.snomed.otf.owltoolkit.domain.Relationship;
+
+import java.util.*;
+
+/**
+ * The comparator and binary search based diff used by {@link RelationshipChangeProcessor} before relationship keys were sorted once and merged.
+ * Kept to check that the decisions have not changed and for benchmarking.
+ */
+class ComparatorRelationshipDiff {
+
+	private static final Comparator<Relationship> RELATIONSHIP_COMPARATOR_ALL_FIELDS = Comparator
+			.comparing(Relationship::getTypeId)
+			.thenComparing(Relationship::getDestinationId)
+			.thenComparing(Relationship::getGroup)
+			.thenComparing(Relationship::getUnionGroup)
+			.thenComparing(Relationship::isUniversal)
+			.thenComparing(Relationship::isDestinationNegated);
+
+	private static final Comparator<Relationship> RELATIONSHIP_COMPARATOR_WITH_MODULE_ID = Comparator
+			.comparing(Relationship::getTypeId)
+			.thenComparing(Relationship::getDestinationId)
+			.thenComparing(Relationship::getGroup)
+			.thenComparing(Relationship::getUnionGroup)
+			.thenComparing(Relationship::isUniversal)
+			.thenComparing(Relationship::isDestinationNegated)
+			.thenComparing(Relationship::getModuleId, Comparator.reverseOrder());
+
+	private static final Comparator<Relationship> RELATIONSHIP_COMPARATOR_WITHOUT_GROUP = Comparator
+			.comparing(Relationship::getTypeId)
+			.thenComparing(Relationship::getDestinationId)
+			.thenComparing(Relationship::getUnionGroup)
+			.thenComparing(Relationship::isUniversal)
+			.thenComparing(Relationship::isDestinationNegated);
+
+	final Set<Relationship> addedOrUpdated = new HashSet<>();
+	final Set<Relationship> removed = new HashSet<>();
+	long addedCount;
+	long updatedCount;
+
+	void apply(final Collection<Relationship> existingRelationships, final Collection<Relationship> newRelationships) {
+
+		final List<Relationship> sortedOld = newSortedList(existingRelationships, RELATIONSHIP_COMPARATOR_ALL_FIELDS);
+		final List<Relationship> sortedNew = newSortedList(newRelationships, RELATIONSHIP_COMPARATOR_ALL_FIELDS);
+
+		final Map<Relationship, Relationship> updatedRelationshipNewOldMap = new HashMap<>();
+		final Set<Integer> uniqueIndex = new HashSet<>();
+
+		for (final Relationship oldSubject : newSortedList(existingRelationships, RELATIONSHIP_COMPARATOR_WITH_MODULE_ID)) {
+			final int i = Collections.binarySearch(sortedNew, oldSubject, RELATIONSHIP_COMPARATOR_ALL_FIELDS);
+			if (i < 0) {
+				if (oldSubject.getGroup() == 0 && oldSubject.getTypeId() != Concepts.IS_A_LONG) {
+					final int y = Collections.binarySearch(sortedNew, oldSubject, RELATIONSHIP_COMPARATOR_WITHOUT_GROUP);
+					if (y >= 0) {
+						int newGroup = sortedNew.get(y).getGroup();
+						int relationshipsInGroupCount = 0;
+						for (Relationship relationship : sortedNew) {
+							if (relationship.getGroup() == newGroup) {
+								relationshipsInGroupCount++;
+							}
+						}
+						if (relationshipsInGroupCount == 1) {
+							int z = Collections.binarySearch(sortedOld, sortedNew.get(y), RELATIONSHIP_COMPARATOR_ALL_FIELDS);
+							if (z < 0) {
+								updatedRelationshipNewOldMap.put(sortedNew.get(y), oldSubject);
+								continue;
+							}
+						}
+					}
+				}
+				handleRedundantRelationship(oldSubject);
+			} else if (!uniqueIndex.add(i)) {
+				handleRedundantRelationship(oldSubject);
+			}
+		}
+
+		for (final Relationship newMini : sortedNew) {
+			if (updatedRelationshipNewOldMap.containsKey(newMini)) {
+				Relationship existingRelationship = updatedRelationshipNewOldMap.get(newMini);
+				existingRelationship.setGroup(newMini.getGroup());
+				addedOrUpdated.add(existingRelationship);
+				updatedCount++;
+			} else if (Collections.binarySearch(sortedOld, newMini, RELATIONSHIP_COMPARATOR_ALL_FIELDS) < 0) {
+				newMini.clearId();
+				addedOrUpdated.add(newMini);
+				addedCount++;
+			}
+		}
+	}
+
+	private List<Relationship> newSortedList(Collection<Relationship> relationships, Comparator<Relationship> comparator) {
+		final List<Relationship> sortedOld = new ArrayList<>(relationships);
+		sortedOld.sort(comparator);
+		return sortedOld;
+	}
+
+	private void handleRedundantRelationship(Relationship removedSubject) {
+		if (removedSubject.getCharacteristicTypeId() == -1 || removedSubject.getCharacteristicTypeId() != Concepts.ADDITIONAL_RELATIONSHIP_LONG) {
+			removed.add(removedSubject);
+		}
+	}
+}
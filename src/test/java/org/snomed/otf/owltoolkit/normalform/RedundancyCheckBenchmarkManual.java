@@ -0,0 +1,109 @@
+package org.snomed.otf.owltoolkit.normalform;
+
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import org.snomed.otf.owltoolkit.classification.ReasonerTaxonomy;
+import org.snomed.otf.owltoolkit.classification.ReasonerTaxonomyEntry;
+import org.snomed.otf.owltoolkit.domain.Relationship;
+import org.snomed.otf.owltoolkit.normalform.internal.RelationshipFragment;
+import org.snomed.otf.owltoolkit.taxonomy.SnomedTaxonomy;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+// Utility class for manual testing
+// Measures the bytes allocated and time taken by fragment redundancy checks over a deep synthetic hierarchy.
+// The copying closure check is the approach used before closures were checked in place, included for comparison.
+// Arguments: [comparisons, default 5000000] [hierarchy depth, default 30]
+public class RedundancyCheckBenchmarkManual {
+
+	private static final long ROOT = 100000000L;
+	private static final int WIDTH = 50;
+	private static final int ATTRIBUTE_COUNT = 20;
+	private static final long ATTRIBUTE_BASE = 900000000L;
+
+	public static void main(String[] args) {
+		int comparisons = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+		int depth = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+
+		ReasonerTaxonomy reasonerTaxonomy = createTaxonomy(depth, new Random(1234));
+		RelationshipNormalFormGenerator generator = new RelationshipNormalFormGenerator(reasonerTaxonomy, new SnomedTaxonomy(), new HashMap<>(), new HashSet<>());
+
+		List<Long> conceptIds = reasonerTaxonomy.getConceptIds();
+		Random random = new Random(5678);
+		RelationshipFragment[] fragments = new RelationshipFragment[1000];
+		for (int i = 0; i < fragments.length; i++) {
+			long typeId = ATTRIBUTE_BASE + random.nextInt(ATTRIBUTE_COUNT);
+			long destinationId = conceptIds.get(random.nextInt(conceptIds.size()));
+			fragments[i] = new RelationshipFragment(generator, new Relationship(typeId, destinationId));
+		}
+
+		// Warm up
+		run("in place", comparisons / 10, fragments, (a, b) -> a.isSameOrStrongerThan(b), false);
+		run("copying", comparisons / 10, fragments, (a, b) -> isSameOrStrongerThanCopyingClosures(reasonerTaxonomy, a, b), false);
+
+		run("in place", comparisons, fragments, (a, b) -> a.isSameOrStrongerThan(b), true);
+		run("copying", comparisons, fragments, (a, b) -> isSameOrStrongerThanCopyingClosures(reasonerTaxonomy, a, b), true);
+	}
+
+	private static void run(String name, int comparisons, RelationshipFragment[] fragments, Comparison comparison, boolean print) {
+		com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+		long allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+		long start = System.nanoTime();
+		int redundant = 0;
+		for (int i = 0; i < comparisons; i++) {
+			if (comparison.isSameOrStrongerThan(fragments[i % fragments.length], fragments[(i * 31 + 7) % fragments.length])) {
+				redundant++;
+			}
+		}
+		long nanos = System.nanoTime() - start;
+		long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+		if (print) {
+			System.out.println(String.format("%s: %d comparisons, %d redundant, %.1f ms, %.1f bytes allocated per comparison",
+					name, comparisons, redundant, nanos / 1_000_000f, allocated / (float) comparisons));
+		}
+	}
+
+	private static boolean isSameOrStrongerThanCopyingClosures(ReasonerTaxonomy reasonerTaxonomy, RelationshipFragment b, RelationshipFragment a) {
+		if (a.equals(b)) {
+			return true;
+		}
+		Set<Long> attributeClosure = new LongOpenHashSet(reasonerTaxonomy.getAncestors(b.getTypeId()));
+		attributeClosure.add(b.getTypeId());
+		Set<Long> valueClosure = new LongOpenHashSet(reasonerTaxonomy.getAncestors(b.getDestinationId()));
+		valueClosure.add(b.getDestinationId());
+		return attributeClosure.contains(a.getTypeId()) && valueClosure.contains(a.getDestinationId());
+	}
+
+	/**
+	 * Builds a hierarchy of the given depth where each concept has a parent in the level above and some have a second parent.
+	 */
+	private static ReasonerTaxonomy createTaxonomy(int depth, Random random) {
+		ReasonerTaxonomy reasonerTaxonomy = new ReasonerTaxonomy();
+		reasonerTaxonomy.addEntry(new ReasonerTaxonomyEntry(ROOT, Collections.emptySet()));
+		List<Long> previousLevel = Collections.singletonList(ROOT);
+		long nextId = ROOT + 1;
+		for (int level = 0; level < depth; level++) {
+			List<Long> currentLevel = new ArrayList<>();
+			for (int i = 0; i < WIDTH; i++) {
+				Set<Long> parents = new HashSet<>();
+				parents.add(previousLevel.get(random.nextInt(previousLevel.size())));
+				if (random.nextInt(4) == 0) {
+					parents.add(previousLevel.get(random.nextInt(previousLevel.size())));
+				}
+				reasonerTaxonomy.addEntry(new ReasonerTaxonomyEntry(nextId, parents));
+				currentLevel.add(nextId++);
+			}
+			previousLevel = currentLevel;
+		}
+		for (int i = 0; i < ATTRIBUTE_COUNT; i++) {
+			Set<Long> parents = i == 0 ? Collections.emptySet() : Collections.singleton(ATTRIBUTE_BASE + random.nextInt(i));
+			reasonerTaxonomy.addEntry(new ReasonerTaxonomyEntry(ATTRIBUTE_BASE + i, parents));
+		}
+		return reasonerTaxonomy;
+	}
+
+	private interface Comparison {
+		boolean isSameOrStrongerThan(RelationshipFragment a, RelationshipFragment b);
+	}
+}
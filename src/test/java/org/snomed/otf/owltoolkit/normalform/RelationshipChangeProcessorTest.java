@@ -0,0 +1,85 @@
+package org.snomed.otf.owltoolkit.normalform;
+
+import org.junit.Test;
+import org.snomed.otf.owltoolkit.constants.Concepts;
+import org.snomed.otf.owltoolkit.domain.Relationship;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+
+public class RelationshipChangeProcessorTest {
+
+	private static final long[] TYPES = {Concepts.IS_A_LONG, 1000L, 2000L, 3000L};
+	private static final long[] CHARACTERISTIC_TYPES = {-1, Concepts.ADDITIONAL_RELATIONSHIP_LONG, Long.parseLong(Concepts.INFERRED_RELATIONSHIP)};
+
+	@Test
+	public void testGroupMovedOutOfGroupZeroIsUpdated() {
+		List<Relationship> existing = Collections.singletonList(new Relationship(100L, 0, 1L, 1000L, 10L, false, 0, 0, false, -1));
+		List<Relationship> generated = Collections.singletonList(new Relationship(1000L, 10L));
+		generated.get(0).setGroup(1);
+
+		List<Set<Relationship>> changes = new ArrayList<>();
+		RelationshipChangeProcessor processor = new RelationshipChangeProcessor((conceptId, addedOrUpdated, removed) -> {
+			changes.add(addedOrUpdated);
+			changes.add(removed);
+		});
+		processor.apply(1L, existing, generated);
+
+		assertEquals(1L, (long) processor.getUpdatedCount());
+		assertEquals(0L, (long) processor.getAddedCount());
+		assertEquals(0L, (long) processor.getRedundantCount());
+		Relationship updated = changes.get(0).iterator().next();
+		assertEquals(100L, updated.getRelationshipId());
+		assertEquals(1, updated.getGroup());
+	}
+
+	@Test
+	public void testApplyMatchesComparatorDiff() {
+		Random seeds = new Random(1234);
+		for (int run = 0; run < 5000; run++) {
+			long seed = seeds.nextLong();
+
+			ComparatorRelationshipDiff expected = new ComparatorRelationshipDiff();
+			Random random = new Random(seed);
+			expected.apply(createRandomRelationships(random, true), createRandomRelationships(random, false));
+
+			List<Set<Relationship>> changes = new ArrayList<>();
+			RelationshipChangeProcessor processor = new RelationshipChangeProcessor((conceptId, addedOrUpdated, removed) -> {
+				changes.add(addedOrUpdated);
+				changes.add(removed);
+			});
+			random = new Random(seed);
+			processor.apply(1L, createRandomRelationships(random, true), createRandomRelationships(random, false));
+
+			String message = "Seed " + seed;
+			assertEquals(message, expected.addedCount, (long) processor.getAddedCount());
+			assertEquals(message, expected.updatedCount, (long) processor.getUpdatedCount());
+			assertEquals(message, expected.removed.size(), (long) processor.getRedundantCount());
+			assertEquals(message, expected.addedOrUpdated, changes.isEmpty() ? Collections.emptySet() : changes.get(0));
+			assertEquals(message, expected.removed, changes.isEmpty() ? Collections.emptySet() : changes.get(1));
+		}
+	}
+
+	/**
+	 * Relationships over a small number of values so that matches, duplicates and group changes are common.
+	 */
+	private List<Relationship> createRandomRelationships(Random random, boolean existing) {
+		List<Relationship> relationships = new ArrayList<>();
+		int count = random.nextInt(12);
+		for (int i = 0; i < count; i++) {
+			relationships.add(new Relationship(
+					existing ? 100 + random.nextInt(20) : -1,
+					0,
+					1 + random.nextInt(2),
+					TYPES[random.nextInt(TYPES.length)],
+					10 + random.nextInt(3),
+					random.nextInt(20) == 0,
+					random.nextInt(3) == 0 ? 0 : random.nextInt(4),
+					random.nextInt(5) == 0 ? 1 : 0,
+					random.nextInt(20) == 0,
+					existing ? CHARACTERISTIC_TYPES[random.nextInt(CHARACTERISTIC_TYPES.length)] : -1));
+		}
+		return relationships;
+	}
+}
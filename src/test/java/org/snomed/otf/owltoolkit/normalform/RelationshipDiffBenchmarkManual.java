@@ -0,0 +1,87 @@
+package org.snomed.otf.owltoolkit.normalform;
+
+import org.snomed.otf.owltoolkit.constants.Concepts;
+import org.snomed.otf.owltoolkit.domain.Relationship;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Utility class for manual testing
+// Measures the time taken and bytes allocated comparing existing and generated relationships of many concepts.
+// The comparator based diff is the approach used before relationship keys were sorted once and merged, included for comparison.
+// Arguments: [concepts, default 200000] [relationships per concept, default 20]
+public class RelationshipDiffBenchmarkManual {
+
+	public static void main(String[] args) {
+		int concepts = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+		int relationshipsPerConcept = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+		Random random = new Random(1234);
+		List<List<Relationship>> existing = new ArrayList<>();
+		List<List<Relationship>> generated = new ArrayList<>();
+		for (int i = 0; i < concepts; i++) {
+			List<Relationship> existingRelationships = new ArrayList<>();
+			List<Relationship> generatedRelationships = new ArrayList<>();
+			for (int r = 0; r < relationshipsPerConcept; r++) {
+				long typeId = r == 0 ? Concepts.IS_A_LONG : 900000000L + random.nextInt(30);
+				long destinationId = 100000000L + random.nextInt(1_000_000);
+				int group = r == 0 ? 0 : 1 + r / 3;
+				existingRelationships.add(new Relationship(200000000L + i * 100L + r, 20180131, 900000000000207008L, typeId, destinationId, false, group, 0, false,
+						Long.parseLong(Concepts.INFERRED_RELATIONSHIP)));
+				// Most generated relationships match an existing one
+				if (random.nextInt(10) == 0) {
+					destinationId++;
+				}
+				generatedRelationships.add(new Relationship(-1, -1, -1, typeId, destinationId, false, group, 0, false, -1));
+			}
+			existing.add(existingRelationships);
+			generated.add(generatedRelationships);
+		}
+
+		// Warm up
+		runProcessor(existing, generated, false);
+		runComparatorDiff(existing, generated, false);
+
+		runProcessor(existing, generated, true);
+		runComparatorDiff(existing, generated, true);
+	}
+
+	private static void runProcessor(List<List<Relationship>> existing, List<List<Relationship>> generated, boolean print) {
+		Measurement measurement = new Measurement();
+		RelationshipChangeProcessor processor = new RelationshipChangeProcessor((conceptId, addedOrUpdated, removed) -> {});
+		for (int i = 0; i < existing.size(); i++) {
+			processor.apply(i, existing.get(i), generated.get(i));
+		}
+		measurement.print("sorted keys", existing.size(), processor.getAddedCount() + processor.getRedundantCount(), print);
+	}
+
+	private static void runComparatorDiff(List<List<Relationship>> existing, List<List<Relationship>> generated, boolean print) {
+		Measurement measurement = new Measurement();
+		long changes = 0;
+		for (int i = 0; i < existing.size(); i++) {
+			ComparatorRelationshipDiff diff = new ComparatorRelationshipDiff();
+			diff.apply(existing.get(i), generated.get(i));
+			changes += diff.addedCount + diff.removed.size();
+		}
+		measurement.print("comparators", existing.size(), changes, print);
+	}
+
+	private static final class Measurement {
+
+		private final com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		private final long threadId = Thread.currentThread().getId();
+		private final long allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+		private final long start = System.nanoTime();
+
+		private void print(String name, int concepts, long changes, boolean print) {
+			long nanos = System.nanoTime() - start;
+			long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+			if (print) {
+				System.out.println(String.format("%s: %d concepts, %d changes, %.1f ms, %.1f bytes allocated per concept",
+						name, concepts, changes, nanos / 1_000_000f, allocated / (float) concepts));
+			}
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package org.snomed.otf.owltoolkit.normalform.internal;
+
+import com.google.common.collect.Lists;
+import org.junit.Test;
+import org.snomed.otf.owltoolkit.classification.ReasonerTaxonomy;
+import org.snomed.otf.owltoolkit.classification.ReasonerTaxonomyEntry;
+import org.snomed.otf.owltoolkit.domain.Relationship;
+import org.snomed.otf.owltoolkit.normalform.RelationshipNormalFormGenerator;
+import org.snomed.otf.owltoolkit.ontology.PropertyChain;
+import org.snomed.otf.owltoolkit.taxonomy.SnomedTaxonomy;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class GroupSetTest {
+
+	private static final long ATTRIBUTE_ROOT = 900000000L;
+	private static final int ATTRIBUTE_COUNT = 12;
+	private static final long VALUE_ROOT = 100000000L;
+	private static final int VALUE_COUNT = 40;
+
+	@Test
+	public void testAddMatchesUnindexedRedundancyCheck() {
+		Random random = new Random(1234);
+		ReasonerTaxonomy reasonerTaxonomy = new ReasonerTaxonomy();
+		// The chain attributes are kept at the top level of the attribute hierarchy so that the chain is needed to find redundancy
+		addRandomHierarchy(reasonerTaxonomy, ATTRIBUTE_ROOT, ATTRIBUTE_COUNT, 4, random);
+		addRandomHierarchy(reasonerTaxonomy, VALUE_ROOT, VALUE_COUNT, 1, random);
+
+		// Chain 'attribute 2 o attribute 3 -> attribute 1' with some attribute 3 edges in the transitive graph
+		Set<PropertyChain> propertyChains = Collections.singleton(new PropertyChain(ATTRIBUTE_ROOT + 2, ATTRIBUTE_ROOT + 3, ATTRIBUTE_ROOT + 1));
+		RelationshipNormalFormGenerator generator = new RelationshipNormalFormGenerator(reasonerTaxonomy, new SnomedTaxonomy(), new HashMap<>(), propertyChains);
+		for (int i = 0; i < 20; i++) {
+			generator.getTransitiveNodeGraphs().get(ATTRIBUTE_ROOT + 3).addParent(VALUE_ROOT + 1 + random.nextInt(VALUE_COUNT - 1), VALUE_ROOT + 1 + random.nextInt(VALUE_COUNT - 1));
+		}
+
+		for (int run = 0; run < 500; run++) {
+			GroupSet groupSet = new GroupSet();
+			List<Group> expected = Lists.newArrayList();
+			int groupCount = 1 + random.nextInt(40);
+			for (int i = 0; i < groupCount; i++) {
+				Group group = createRandomGroup(generator, random);
+				if (random.nextInt(10) == 0) {
+					groupSet.addUnique(group);
+					expected.add(group);
+				} else {
+					assertEquals(addUnindexed(expected, group), groupSet.add(group));
+				}
+			}
+
+			List<Group> actual = Lists.newArrayList(groupSet);
+			assertEquals(expected.size(), actual.size());
+			for (int i = 0; i < expected.size(); i++) {
+				assertSame(expected.get(i), actual.get(i));
+			}
+		}
+	}
+
+	/**
+	 * Redundancy check comparing the new group with every existing group, as GroupSet did before attribute type indexing.
+	 */
+	private boolean addUnindexed(List<Group> groups, Group e) {
+		final List<Group> redundant = Lists.newArrayList();
+		for (final Group existingGroup : groups) {
+			if (existingGroup.isSameOrStrongerThan(e)) {
+				return false;
+			} else if (e.isSameOrStrongerThan(existingGroup)) {
+				redundant.add(existingGroup);
+			}
+		}
+		groups.removeAll(redundant);
+		groups.add(e);
+		return true;
+	}
+
+	private Group createRandomGroup(RelationshipNormalFormGenerator generator, Random random) {
+		List<UnionGroup> unionGroups = new ArrayList<>();
+		int unionGroupCount = random.nextInt(20) == 0 ? 0 : 1 + random.nextInt(3);
+		for (int u = 0; u < unionGroupCount; u++) {
+			List<RelationshipFragment> fragments = new ArrayList<>();
+			int fragmentCount = random.nextInt(30) == 0 ? 0 : 1 + (random.nextInt(4) == 0 ? 1 : 0);
+			for (int f = 0; f < fragmentCount; f++) {
+				long typeId = ATTRIBUTE_ROOT + 1 + (random.nextBoolean() ? random.nextInt(2) : random.nextInt(ATTRIBUTE_COUNT - 1));
+				long destinationId = VALUE_ROOT + 1 + random.nextInt(VALUE_COUNT - 1);
+				boolean negated = random.nextInt(40) == 0;
+				fragments.add(new RelationshipFragment(generator, new Relationship(-1, -1, -1, typeId, destinationId, negated, 0, 0, false, -1)));
+			}
+			unionGroups.add(new UnionGroup(fragments));
+		}
+		return new Group(unionGroups);
+	}
+
+	private void addRandomHierarchy(ReasonerTaxonomy reasonerTaxonomy, long rootId, int count, int topLevelCount, Random random) {
+		reasonerTaxonomy.addEntry(new ReasonerTaxonomyEntry(rootId, Collections.emptySet()));
+		for (int i = 1; i < topLevelCount; i++) {
+			reasonerTaxonomy.addEntry(new ReasonerTaxonomyEntry(rootId + i, Collections.singleton(rootId)));
+		}
+		for (int i = topLevelCount; i < count; i++) {
+			Set<Long> parents = new HashSet<>();
+			parents.add(rootId + random.nextInt(i));
+			if (random.nextInt(3) == 0) {
+				parents.add(rootId + random.nextInt(i));
+			}
+			reasonerTaxonomy.addEntry(new ReasonerTaxonomyEntry(rootId + i, parents));
+		}
+	}
+}
@@ -0,0 +1,48 @@
+package org.snomed.otf.owltoolkit.normalform.transitive;
+
+import com.google.common.collect.Sets;
+import org.junit.Test;
+import org.snomed.otf.owltoolkit.classification.ReasonerTaxonomy;
+import org.snomed.otf.owltoolkit.classification.ReasonerTaxonomyEntry;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+public class NodeGraphTest {
+
+	@Test
+	public void testGetAncestorsWithCycle() {
+		NodeGraph nodeGraph = new NodeGraph();
+		nodeGraph.addParent(1, 2);
+		nodeGraph.addParent(2, 3);
+		nodeGraph.addParent(3, 1);
+
+		assertEquals(Sets.newHashSet(1L, 2L, 3L), nodeGraph.getAncestors(1));
+	}
+
+	@Test
+	public void testCachedClosuresDroppedWhenGraphChanges() {
+		NodeGraph nodeGraph = new NodeGraph(1);
+		nodeGraph.addParent(1, 2);
+		assertEquals(Sets.newHashSet(2L), nodeGraph.getAncestors(1));
+		assertEquals(Collections.emptySet(), nodeGraph.getAncestors(2));
+
+		nodeGraph.addParent(2, 3);
+		assertEquals(Sets.newHashSet(2L, 3L), nodeGraph.getAncestors(1));
+	}
+
+	@Test
+	public void testGetChainClosure() {
+		ReasonerTaxonomy reasonerTaxonomy = new ReasonerTaxonomy();
+		reasonerTaxonomy.addEntry(new ReasonerTaxonomyEntry(10, Collections.emptySet()));
+		reasonerTaxonomy.addEntry(new ReasonerTaxonomyEntry(2, Collections.singleton(10L)));
+		reasonerTaxonomy.addEntry(new ReasonerTaxonomyEntry(1, Collections.emptySet()));
+
+		NodeGraph nodeGraph = new NodeGraph();
+		nodeGraph.addParent(1, 2);
+
+		assertEquals(Sets.newHashSet(1L, 2L, 10L), nodeGraph.getChainClosure(1, reasonerTaxonomy));
+		assertEquals(Sets.newHashSet(2L, 10L), nodeGraph.getChainClosure(2, reasonerTaxonomy));
+	}
+}
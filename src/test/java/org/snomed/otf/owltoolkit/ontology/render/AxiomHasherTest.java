@@ -0,0 +1,56 @@
+package org.snomed.otf.owltoolkit.ontology.render;
+
+import org.junit.Test;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLOntologyCreationException;
+import org.snomed.otf.owltoolkit.taxonomy.SnomedTaxonomyLoader;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class AxiomHasherTest {
+
+	private final SnomedTaxonomyLoader snomedTaxonomyLoader = new SnomedTaxonomyLoader();
+	private final AxiomHasher axiomHasher = new AxiomHasher();
+
+	@Test
+	public void testEqualAxiomsHaveSameHash() throws OWLOntologyCreationException {
+		// Same axiom with operands in a different order and using the full identifier form
+		OWLAxiom axiom = deserialise("EquivalentClasses(:1 ObjectIntersectionOf(:2 :3 ObjectSomeValuesFrom(:609096000 ObjectIntersectionOf(ObjectSomeValuesFrom(:7 :8) ObjectSomeValuesFrom(:6 :9)))))");
+		OWLAxiom sameAxiom = deserialise("EquivalentClasses(ObjectIntersectionOf(ObjectSomeValuesFrom(:609096000 ObjectIntersectionOf(ObjectSomeValuesFrom(:6 :9) ObjectSomeValuesFrom(:7 :8))) :3 :2) <http://snomed.info/id/1>)");
+		assertEquals(axiom, sameAxiom);
+		assertEquals(axiomHasher.hash(axiom), axiomHasher.hash(sameAxiom));
+
+		OWLAxiom annotated = deserialise("SubClassOf(Annotation(rdfs:comment \"comment\") :1 :2)");
+		assertEquals(axiomHasher.hash(annotated), axiomHasher.hash(deserialise("SubClassOf(Annotation(rdfs:comment \"comment\") :1 :2)")));
+	}
+
+	@Test
+	public void testDifferentAxiomsHaveDifferentHash() throws OWLOntologyCreationException {
+		String[] axioms = {
+				"SubClassOf(:1 :2)",
+				"SubClassOf(:2 :1)",
+				"SubClassOf(:1 :21)",
+				"SubClassOf(:12 :1)",
+				"EquivalentClasses(:1 :2)",
+				"SubClassOf(:1 ObjectIntersectionOf(:2 ObjectSomeValuesFrom(:3 :4)))",
+				"SubClassOf(:1 ObjectIntersectionOf(:2 ObjectSomeValuesFrom(:609096000 ObjectSomeValuesFrom(:3 :4))))",
+				"SubClassOf(Annotation(rdfs:comment \"comment\") :1 :2)",
+				"SubObjectPropertyOf(:1 :2)",
+				"SubDataPropertyOf(:1 :2)",
+		};
+		Set<AxiomHash> hashes = new HashSet<>();
+		for (String axiom : axioms) {
+			hashes.add(axiomHasher.hash(deserialise(axiom)));
+		}
+		assertEquals(axioms.length, hashes.size());
+		assertNotEquals(axiomHasher.hash(deserialise("SubClassOf(:1 :2)")), axiomHasher.hash(deserialise("SubClassOf(:1 :3)")));
+	}
+
+	private OWLAxiom deserialise(String axiom) throws OWLOntologyCreationException {
+		return snomedTaxonomyLoader.deserialiseAxiom(axiom);
+	}
+}
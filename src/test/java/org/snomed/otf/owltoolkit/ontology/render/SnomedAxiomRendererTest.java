@@ -0,0 +1,138 @@
+package org.snomed.otf.owltoolkit.ontology.render;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.semanticweb.owlapi.functional.renderer.FunctionalSyntaxObjectRenderer;
+import org.semanticweb.owlapi.model.*;
+import org.snomed.otf.owltoolkit.constants.Concepts;
+import org.snomed.otf.owltoolkit.domain.AxiomRepresentation;
+import org.snomed.otf.owltoolkit.domain.Relationship;
+import org.snomed.otf.owltoolkit.ontology.OntologyService;
+import org.snomed.otf.owltoolkit.taxonomy.SnomedTaxonomy;
+import org.snomed.otf.owltoolkit.taxonomy.SnomedTaxonomyLoader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.snomed.otf.owltoolkit.ontology.OntologyService.CORE_COMPONENT_NAMESPACE_PATTERN;
+
+public class SnomedAxiomRendererTest {
+
+	private static final String[] AXIOMS = {
+			"SubClassOf(:1 :2)",
+			"SubClassOf(:100 owl:Thing)",
+			"EquivalentClasses(:10 :2)",
+			"EquivalentClasses(:1 ObjectIntersectionOf(:2 :3 ObjectSomeValuesFrom(:609096000 ObjectSomeValuesFrom(:4 :5)) " +
+					"ObjectSomeValuesFrom(:609096000 ObjectIntersectionOf(ObjectSomeValuesFrom(:7 :8) ObjectSomeValuesFrom(:6 :9)))))",
+			"SubClassOf(ObjectIntersectionOf(:73211009 ObjectSomeValuesFrom(:609096000 ObjectSomeValuesFrom(:100105001 :100101001))) :8801005)",
+			"SubObjectPropertyOf(:127489000 :762705008)",
+			"SubDataPropertyOf(:1142135004 :762706009)",
+			"TransitiveObjectProperty(:733928003)",
+			"ReflexiveObjectProperty(:733928003)",
+			"SubObjectPropertyOf(ObjectPropertyChain(:127489000 :738774007) :127489000)",
+			// Outside of the profile
+			"SubClassOf(Annotation(rdfs:comment \"comment\") :1 :2)",
+			"SubClassOf(:1 ObjectUnionOf(:2 :3))",
+			"SubClassOf(:1 ObjectIntersectionOf(:2 DataHasValue(:3 \"500\"^^xsd:decimal)))",
+			"SubClassOf(:1 ObjectSomeValuesFrom(ObjectInverseOf(:2) :3))",
+			"SubClassOf(<http://example.org/a> :2)",
+			"SubClassOf(:1 owl:Nothing)",
+			"DisjointClasses(:1 :2 :3)",
+	};
+
+	private OntologyService ontologyService;
+	private OWLOntology ontology;
+	private SnomedTaxonomyLoader snomedTaxonomyLoader;
+
+	@Before
+	public void setup() throws OWLOntologyCreationException {
+		ontologyService = new OntologyService(SnomedTaxonomy.DEFAULT_NEVER_GROUPED_ROLE_IDS);
+		ontology = ontologyService.createOntology(new SnomedTaxonomy());
+		snomedTaxonomyLoader = new SnomedTaxonomyLoader();
+	}
+
+	@Test
+	public void testSameOutputAsOwlApi() throws OWLOntologyCreationException, IOException {
+		List<OWLAxiom> axioms = new ArrayList<>();
+		for (String axiom : AXIOMS) {
+			axioms.add(snomedTaxonomyLoader.deserialiseAxiom(axiom));
+		}
+		assertSameOutputAsOwlApi(axioms);
+	}
+
+	@Test
+	public void testSameOutputAsOwlApiForAxiomsCreatedFromRelationships() throws IOException {
+		Random random = new Random(1);
+		List<OWLAxiom> axioms = new ArrayList<>();
+		for (int i = 0; i < 2000; i++) {
+			AxiomRepresentation representation = new AxiomRepresentation();
+			representation.setPrimitive(random.nextBoolean());
+			if (random.nextInt(5) == 0) {
+				// General concept inclusion
+				representation.setLeftHandSideRelationships(createRelationships(random));
+				representation.setRightHandSideNamedConcept(randomConceptId(random));
+			} else {
+				representation.setLeftHandSideNamedConcept(randomConceptId(random));
+				if (random.nextInt(10) == 0) {
+					representation.setRightHandSideNamedConcept(randomConceptId(random));
+				} else {
+					representation.setRightHandSideRelationships(createRelationships(random));
+				}
+			}
+			axioms.add(ontologyService.createOwlClassAxiom(representation));
+			axioms.add(ontologyService.createOwlSubObjectPropertyOfAxiom(randomConceptId(random), randomConceptId(random)));
+			axioms.add(ontologyService.createOwlSubDataPropertyOfAxiom(randomConceptId(random), randomConceptId(random)));
+		}
+		assertSameOutputAsOwlApi(axioms);
+	}
+
+	private void assertSameOutputAsOwlApi(List<OWLAxiom> axioms) throws IOException {
+		ByteArrayOutputStream functionalSyntaxOutputStream = new ByteArrayOutputStream();
+		OutputStreamWriter functionalSyntaxWriter = new OutputStreamWriter(functionalSyntaxOutputStream, Charset.forName("UTF-8"));
+		FunctionalSyntaxObjectRenderer functionalSyntaxObjectRenderer = new FunctionalSyntaxObjectRenderer(ontology, functionalSyntaxWriter);
+		functionalSyntaxObjectRenderer.setPrefixManager(ontologyService.getSnomedPrefixManager());
+
+		SnomedAxiomRenderer toStringRenderer = new SnomedAxiomRenderer();
+		SnomedAxiomRenderer functionalSyntaxRenderer = new SnomedAxiomRenderer(ontology);
+		StringBuilder builder = new StringBuilder();
+		StringWriter writer = new StringWriter();
+		for (OWLAxiom axiom : axioms) {
+			axiom.accept(functionalSyntaxObjectRenderer);
+			functionalSyntaxWriter.flush();
+			String expectedFunctionalSyntax = functionalSyntaxOutputStream.toString("UTF-8");
+			functionalSyntaxOutputStream.reset();
+
+			writer.getBuffer().setLength(0);
+			functionalSyntaxRenderer.write(axiom, writer);
+			assertEquals(expectedFunctionalSyntax, writer.toString());
+
+			builder.setLength(0);
+			functionalSyntaxRenderer.render(axiom, builder);
+			assertEquals(expectedFunctionalSyntax, builder.toString());
+
+			builder.setLength(0);
+			toStringRenderer.render(axiom, builder);
+			assertEquals(axiom.toString().replaceAll(CORE_COMPONENT_NAMESPACE_PATTERN, ":$1").replace(") )", "))"), builder.toString());
+		}
+	}
+
+	private Map<Integer, List<Relationship>> createRelationships(Random random) {
+		Map<Integer, List<Relationship>> relationships = new HashMap<>();
+		int count = random.nextInt(8);
+		for (int i = 0; i < count; i++) {
+			int group = random.nextInt(4);
+			long typeId = random.nextInt(3) == 0 ? Concepts.IS_A_LONG : randomConceptId(random);
+			relationships.computeIfAbsent(group, g -> new ArrayList<>()).add(new Relationship(group, typeId, randomConceptId(random)));
+		}
+		return relationships;
+	}
+
+	private long randomConceptId(Random random) {
+		return 100000000L + random.nextInt(1000) * 1000L + random.nextInt(3);
+	}
+}
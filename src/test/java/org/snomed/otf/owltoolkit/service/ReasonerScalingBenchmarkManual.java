@@ -0,0 +1,136 @@
+package org.snomed.otf.owltoolkit.service;
+
+import org.semanticweb.elk.owlapi.ElkReasonerFactory;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.*;
+import org.semanticweb.owlapi.reasoner.InferenceType;
+import org.semanticweb.owlapi.reasoner.OWLReasoner;
+import org.semanticweb.owlapi.reasoner.OWLReasonerFactory;
+import org.snomed.otf.owltoolkit.ontology.OntologyService;
+
+import java.util.*;
+
+// Utility class for manual testing
+// Times the 'Inference computation' stage at a range of reasoner thread counts using a synthetic ontology of SNOMED CT scale.
+// Arguments: [concept count, default 350000] [comma separated thread counts, default 1,2,4,8,N]
+public class ReasonerScalingBenchmarkManual {
+
+	private static final int ATTRIBUTE_COUNT = 80;
+	private static final int RUNS_PER_THREAD_COUNT = 3;
+
+	public static void main(String[] args) throws OWLOntologyCreationException {
+		int conceptCount = args.length > 0 ? Integer.parseInt(args[0]) : 350_000;
+		List<Integer> threadCounts = new ArrayList<>();
+		if (args.length > 1) {
+			for (String threads : args[1].split(",")) {
+				threadCounts.add(Integer.parseInt(threads));
+			}
+		} else {
+			threadCounts.addAll(Arrays.asList(1, 2, 4, 8, Runtime.getRuntime().availableProcessors()));
+		}
+
+		System.out.println("Creating synthetic ontology with " + conceptCount + " concepts");
+		OWLOntology ontology = createSyntheticOntology(conceptCount, new Random(1234));
+		System.out.println("Ontology has " + ontology.getAxiomCount() + " axioms");
+
+		OWLReasonerFactory reasonerFactory = new ElkReasonerFactory();
+
+		// Warm up
+		inferenceMillis(reasonerFactory, ontology, Runtime.getRuntime().availableProcessors());
+
+		Map<Integer, Long> results = new LinkedHashMap<>();
+		for (Integer threads : threadCounts) {
+			long best = Long.MAX_VALUE;
+			for (int run = 0; run < RUNS_PER_THREAD_COUNT; run++) {
+				best = Math.min(best, inferenceMillis(reasonerFactory, ontology, threads));
+			}
+			results.put(threads, best);
+		}
+
+		long singleThreadMillis = results.getOrDefault(1, results.values().iterator().next());
+		System.out.println();
+		System.out.println("threads\tbest seconds\tspeedup");
+		for (Map.Entry<Integer, Long> result : results.entrySet()) {
+			System.out.println(String.format("%d\t%.2f\t%.2f", result.getKey(), result.getValue() / 1000f, singleThreadMillis / (float) result.getValue()));
+		}
+	}
+
+	private static long inferenceMillis(OWLReasonerFactory reasonerFactory, OWLOntology ontology, int threads) {
+		ClassificationOptions options = new ClassificationOptions();
+		options.setReasonerWorkerThreads(threads);
+		options.setReasonerProgressMonitor(false);
+
+		OWLReasoner reasoner = reasonerFactory.createReasoner(ontology, new SnomedReasonerService(options).createReasonerConfiguration(reasonerFactory));
+		try {
+			long start = System.currentTimeMillis();
+			reasoner.flush();
+			reasoner.precomputeInferences(InferenceType.CLASS_HIERARCHY);
+			long millis = System.currentTimeMillis() - start;
+			System.out.println(threads + " threads: " + millis + "ms");
+			return millis;
+		} finally {
+			reasoner.dispose();
+		}
+	}
+
+	/**
+	 * Builds a polyhierarchy where each concept has one to three parents drawn mostly from recently created concepts,
+	 * giving a depth similar to SNOMED CT. Roughly a third of concepts are fully defined and most have grouped attributes.
+	 */
+	private static OWLOntology createSyntheticOntology(int conceptCount, Random random) throws OWLOntologyCreationException {
+		OWLOntologyManager manager = OWLManager.createOWLOntologyManager();
+		OWLDataFactory factory = manager.getOWLDataFactory();
+		OWLOntology ontology = manager.createOntology(IRI.create(OntologyService.SNOMED_INTERNATIONAL_EDITION_URI));
+
+		OWLObjectProperty roleGroup = factory.getOWLObjectProperty(IRI.create(OntologyService.SNOMED_ROLE_GROUP_FULL_URI));
+		OWLObjectProperty[] attributes = new OWLObjectProperty[ATTRIBUTE_COUNT];
+		for (int i = 0; i < ATTRIBUTE_COUNT; i++) {
+			attributes[i] = factory.getOWLObjectProperty(IRI.create(OntologyService.SNOMED_CORE_COMPONENTS_URI + (900000000L + i)));
+		}
+		// A few transitive attributes similar to 'Part of'
+		for (int i = 0; i < 3; i++) {
+			manager.addAxiom(ontology, factory.getOWLTransitiveObjectPropertyAxiom(attributes[i]));
+		}
+
+		OWLClass[] classes = new OWLClass[conceptCount];
+		List<OWLAxiom> axioms = new ArrayList<>();
+		for (int i = 0; i < conceptCount; i++) {
+			classes[i] = factory.getOWLClass(IRI.create(OntologyService.SNOMED_CORE_COMPONENTS_URI + (100000000L + i)));
+			if (i == 0) {
+				continue;
+			}
+
+			Set<OWLClassExpression> expressions = new HashSet<>();
+			int parentCount = 1 + (random.nextInt(10) == 0 ? random.nextInt(3) : 0);
+			for (int p = 0; p < parentCount; p++) {
+				expressions.add(classes[pickEarlierConcept(i, random)]);
+			}
+
+			int groupCount = random.nextInt(4);
+			for (int g = 0; g < groupCount; g++) {
+				Set<OWLClassExpression> groupExpressions = new HashSet<>();
+				int attributeCount = 1 + random.nextInt(3);
+				for (int a = 0; a < attributeCount; a++) {
+					groupExpressions.add(factory.getOWLObjectSomeValuesFrom(attributes[random.nextInt(ATTRIBUTE_COUNT)], classes[random.nextInt(i)]));
+				}
+				OWLClassExpression group = groupExpressions.size() == 1 ? groupExpressions.iterator().next() : factory.getOWLObjectIntersectionOf(groupExpressions);
+				expressions.add(factory.getOWLObjectSomeValuesFrom(roleGroup, group));
+			}
+
+			OWLClassExpression definition = expressions.size() == 1 ? expressions.iterator().next() : factory.getOWLObjectIntersectionOf(expressions);
+			if (groupCount > 0 && random.nextInt(3) == 0) {
+				axioms.add(factory.getOWLEquivalentClassesAxiom(classes[i], definition));
+			} else {
+				axioms.add(factory.getOWLSubClassOfAxiom(classes[i], definition));
+			}
+		}
+		manager.addAxioms(ontology, new HashSet<>(axioms));
+		return ontology;
+	}
+
+	private static int pickEarlierConcept(int conceptIndex, Random random) {
+		int window = Math.min(conceptIndex, 2000);
+		return random.nextInt(5) == 0 ? random.nextInt(conceptIndex) : conceptIndex - 1 - random.nextInt(window);
+	}
+
+}
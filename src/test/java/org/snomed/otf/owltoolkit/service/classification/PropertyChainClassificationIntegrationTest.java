@@ -18,12 +18,14 @@ package org.snomed.otf.owltoolkit.service.classification;
 import org.ihtsdo.otf.snomedboot.ReleaseImportException;
 import org.junit.Test;
 import org.semanticweb.owlapi.model.OWLOntologyCreationException;
+import org.snomed.otf.owltoolkit.service.ClassificationOptions;
 import org.snomed.otf.owltoolkit.service.ReasonerServiceException;
 import org.snomed.otf.owltoolkit.service.SnomedReasonerService;
 import org.snomed.otf.snomedboot.testutil.ZipUtil;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.HashSet;
 import java.util.List;
 
 import static org.junit.Assert.*;
@@ -97,4 +99,20 @@ public class PropertyChainClassificationIntegrationTest {
 				lines.contains("200213021\t\t0\t900000000000207008\t100206001\t100302001\t3\t762949000\t900000000000011006\t900000000000451002"));
 	}
 
+	@Test
+	public void testClassifyPropertyChainWithParallelNormalForm() throws IOException, ReasonerServiceException {
+		File baseRF2SnapshotZip = ZipUtil.zipDirectoryRemovingCommentsAndBlankLines("src/test/resources/SnomedCT_MiniRF2_Base_snapshot");
+		File deltaZip = ZipUtil.zipDirectoryRemovingCommentsAndBlankLines("src/test/resources/SnomedCT_MiniRF2_Active_Ingredient_Property_Chain_delta");
+
+		File results = TestFileUtil.newTemporaryFile();
+		snomedReasonerService.classify("", baseRF2SnapshotZip, deltaZip, results, ELK_REASONER_FACTORY, false);
+
+		ClassificationOptions options = new ClassificationOptions();
+		options.setNormalFormThreads(4);
+		File parallelResults = TestFileUtil.newTemporaryFile();
+		new SnomedReasonerService(options).classify("", baseRF2SnapshotZip, deltaZip, parallelResults, ELK_REASONER_FACTORY, false);
+
+		assertEquals(new HashSet<>(readInferredRelationshipLinesTrim(results)), new HashSet<>(readInferredRelationshipLinesTrim(parallelResults)));
+	}
+
 }
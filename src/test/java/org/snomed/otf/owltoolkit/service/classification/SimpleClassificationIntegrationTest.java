@@ -20,12 +20,15 @@ import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.snomed.otf.owltoolkit.constants.Concepts;
+import org.snomed.otf.owltoolkit.service.ClassificationOptions;
 import org.snomed.otf.owltoolkit.service.ReasonerServiceException;
 import org.snomed.otf.owltoolkit.service.SnomedReasonerService;
+import org.snomed.otf.owltoolkit.util.InputStreamSet;
 import org.snomed.otf.snomedboot.testutil.ZipUtil;
 
-import java.io.File;
-import java.io.IOException;
+import java.io.*;
+import java.nio.file.Files;
+import java.util.HashSet;
 import java.util.List;
 
 import static org.junit.Assert.*;
@@ -78,6 +81,206 @@ public class SimpleClassificationIntegrationTest {
 		assertTrue(lines.contains("1\t\t73211009\t113331007\t0\t" + FINDING_SITE + "\t900000000000011006\t900000000000451002"));
 	}
 
+	@Test
+	public void testClassifyNewConceptResumingFromCheckpoint() throws IOException, ReasonerServiceException {
+		File baseRF2SnapshotZip = ZipUtil.zipDirectoryRemovingCommentsAndBlankLines("src/test/resources/SnomedCT_MiniRF2_Base_snapshot");
+		File deltaZip = ZipUtil.zipDirectoryRemovingCommentsAndBlankLines("src/test/resources/SnomedCT_MiniRF2_Add_Diabetes_delta");
+		File checkpointFile = TestFileUtil.newTemporaryFile();
+		assertTrue(checkpointFile.delete());
+		ClassificationOptions options = new ClassificationOptions();
+		options.setCheckpointFile(checkpointFile);
+		options.setResumeFromCheckpoint(true);
+
+		// First run writes the checkpoint
+		File results = TestFileUtil.newTemporaryFile();
+		new SnomedReasonerService(options).classify("", baseRF2SnapshotZip, deltaZip, results, ELK_REASONER_FACTORY, false);
+		assertTrue(checkpointFile.isFile());
+		List<String> lines = readInferredRelationshipLinesTrim(results);
+
+		// Second run resumes from the checkpoint
+		File resumedResults = TestFileUtil.newTemporaryFile();
+		new SnomedReasonerService(options).classify("", baseRF2SnapshotZip, deltaZip, resumedResults, ELK_REASONER_FACTORY, false);
+		List<String> resumedLines = readInferredRelationshipLinesTrim(resumedResults);
+
+		assertEquals(3, resumedLines.size());
+		assertEquals(lines, resumedLines);
+		assertTrue(resumedLines.contains("1\t\t73211009\t362969004\t0\t" + Concepts.IS_A + "\t900000000000011006\t900000000000451002"));
+
+		// Resuming with different input is rejected
+		File otherDeltaZip = ZipUtil.zipDirectoryRemovingCommentsAndBlankLines("src/test/resources/SnomedCT_MiniRF2_Empty_delta");
+		try {
+			new SnomedReasonerService(options).classify("", baseRF2SnapshotZip, otherDeltaZip, TestFileUtil.newTemporaryFile(), ELK_REASONER_FACTORY, false);
+			fail("Expected ReasonerServiceException");
+		} catch (ReasonerServiceException e) {
+			assertTrue(e.getMessage().contains("created from different input"));
+		}
+		checkpointFile.delete();
+	}
+
+	@Test
+	public void testClassifyNewConceptUsingResultCache() throws IOException, ReasonerServiceException {
+		File baseRF2SnapshotZip = ZipUtil.zipDirectoryRemovingCommentsAndBlankLines("src/test/resources/SnomedCT_MiniRF2_Base_snapshot");
+		File deltaZip = ZipUtil.zipDirectoryRemovingCommentsAndBlankLines("src/test/resources/SnomedCT_MiniRF2_Add_Diabetes_delta");
+		File cacheDirectory = Files.createTempDirectory("classification-cache").toFile();
+		ClassificationOptions options = new ClassificationOptions();
+		options.setResultCacheDirectory(cacheDirectory);
+
+		File results = TestFileUtil.newTemporaryFile();
+		new SnomedReasonerService(options).classify("", baseRF2SnapshotZip, deltaZip, results, ELK_REASONER_FACTORY, false);
+		File[] cachedArchives = cacheDirectory.listFiles();
+		assertNotNull(cachedArchives);
+		assertEquals(1, cachedArchives.length);
+
+		// Same input is served from the cache
+		File cachedResults = TestFileUtil.newTemporaryFile();
+		new SnomedReasonerService(options).classify("", baseRF2SnapshotZip, deltaZip, cachedResults, ELK_REASONER_FACTORY, false);
+		assertArrayEquals(Files.readAllBytes(results.toPath()), Files.readAllBytes(cachedResults.toPath()));
+
+		// Different input is classified and added to the cache, evicting the least recently used results to keep within the size limit
+		assertTrue(cachedArchives[0].setLastModified(System.currentTimeMillis() - 60_000));
+		options.setResultCacheMaxSizeBytes(cachedArchives[0].length());
+		File otherDeltaZip = ZipUtil.zipDirectoryRemovingCommentsAndBlankLines("src/test/resources/SnomedCT_MiniRF2_Empty_delta");
+		new SnomedReasonerService(options).classify("", baseRF2SnapshotZip, otherDeltaZip, TestFileUtil.newTemporaryFile(), ELK_REASONER_FACTORY, false);
+		File[] cachedArchivesAfterEviction = cacheDirectory.listFiles();
+		assertNotNull(cachedArchivesAfterEviction);
+		assertEquals(1, cachedArchivesAfterEviction.length);
+		assertNotEquals(cachedArchives[0].getName(), cachedArchivesAfterEviction[0].getName());
+	}
+
+	@Test
+	public void testResultCacheKeyIncludesOutputOptions() throws IOException, ReasonerServiceException {
+		File baseRF2SnapshotZip = ZipUtil.zipDirectoryRemovingCommentsAndBlankLines("src/test/resources/SnomedCT_MiniRF2_Base_snapshot");
+		File deltaZip = ZipUtil.zipDirectoryRemovingCommentsAndBlankLines("src/test/resources/SnomedCT_MiniRF2_Add_Diabetes_delta");
+		File cacheDirectory = Files.createTempDirectory("classification-cache").toFile();
+		ClassificationOptions options = new ClassificationOptions();
+		options.setResultCacheDirectory(cacheDirectory);
+
+		new SnomedReasonerService(options).classify("", baseRF2SnapshotZip, deltaZip, TestFileUtil.newTemporaryFile(), ELK_REASONER_FACTORY, false);
+
+		// Results written with a different compression level are not served from the cache
+		options.setResultsCompressionLevel(0);
+		new SnomedReasonerService(options).classify("", baseRF2SnapshotZip, deltaZip, TestFileUtil.newTemporaryFile(), ELK_REASONER_FACTORY, false);
+		File[] cachedArchives = cacheDirectory.listFiles();
+		assertNotNull(cachedArchives);
+		assertEquals(2, cachedArchives.length);
+	}
+
+	@Test
+	public void testResultsNotCachedWhenResumingFromUnverifiedCheckpoint() throws IOException, ReasonerServiceException {
+		File baseRF2SnapshotZip = ZipUtil.zipDirectoryRemovingCommentsAndBlankLines("src/test/resources/SnomedCT_MiniRF2_Base_snapshot");
+		File deltaZip = ZipUtil.zipDirectoryRemovingCommentsAndBlankLines("src/test/resources/SnomedCT_MiniRF2_Add_Diabetes_delta");
+		File checkpointFile = TestFileUtil.newTemporaryFile();
+		assertTrue(checkpointFile.delete());
+		File cacheDirectory = Files.createTempDirectory("classification-cache").toFile();
+		ClassificationOptions options = new ClassificationOptions();
+		options.setCheckpointFile(checkpointFile);
+		options.setResumeFromCheckpoint(true);
+
+		// Checkpoint written when classifying streams has no content hash
+		try (InputStreamSet snapshots = new InputStreamSet(baseRF2SnapshotZip);
+			 InputStream delta = new FileInputStream(deltaZip);
+			 OutputStream results = new FileOutputStream(TestFileUtil.newTemporaryFile())) {
+			new SnomedReasonerService(options).classify("", snapshots, delta, results, ELK_REASONER_FACTORY, false);
+		}
+		assertTrue(checkpointFile.isFile());
+
+		options.setResultCacheDirectory(cacheDirectory);
+		new SnomedReasonerService(options).classify("", baseRF2SnapshotZip, deltaZip, TestFileUtil.newTemporaryFile(), ELK_REASONER_FACTORY, false);
+		File[] cachedArchives = cacheDirectory.listFiles();
+		assertTrue(cachedArchives == null || cachedArchives.length == 0);
+		checkpointFile.delete();
+	}
+
+	@Test
+	public void testClassifyNewConceptWithParallelTaxonomyExtraction() throws IOException, ReasonerServiceException {
+		File baseRF2SnapshotZip = ZipUtil.zipDirectoryRemovingCommentsAndBlankLines("src/test/resources/SnomedCT_MiniRF2_Base_snapshot");
+		File deltaZip = ZipUtil.zipDirectoryRemovingCommentsAndBlankLines("src/test/resources/SnomedCT_MiniRF2_Add_Diabetes_delta");
+		ClassificationOptions options = new ClassificationOptions();
+		options.setTaxonomyExtractionThreads(4);
+		SnomedReasonerService parallelReasonerService = new SnomedReasonerService(options);
+
+		// Run classification
+		File results = TestFileUtil.newTemporaryFile();
+		parallelReasonerService.classify("", baseRF2SnapshotZip, deltaZip, results, ELK_REASONER_FACTORY, false);
+
+		// Assert results
+		List<String> lines = readInferredRelationshipLinesTrim(results);
+		assertEquals(3, lines.size());
+		assertTrue(lines.contains("1\t\t73211009\t362969004\t0\t" + Concepts.IS_A + "\t900000000000011006\t900000000000451002"));
+		assertTrue(lines.contains("1\t\t73211009\t113331007\t0\t" + FINDING_SITE + "\t900000000000011006\t900000000000451002"));
+	}
+
+	@Test
+	public void testClassifyWithIncrementalNormalFormMatchesFullNormalForm() throws IOException, ReasonerServiceException {
+		File baseRF2SnapshotZip = ZipUtil.zipDirectoryRemovingCommentsAndBlankLines("src/test/resources/SnomedCT_MiniRF2_Base_snapshot");
+		ClassificationOptions options = new ClassificationOptions();
+		options.setIncrementalNormalForm(true);
+		SnomedReasonerService incrementalReasonerService = new SnomedReasonerService(options);
+
+		for (String delta : new String[] {"Empty", "Add_Diabetes", "Add_Attribute", "Add_Laterality", "Change_Axiom_Parents", "Secondary_Diabetes_GCI"}) {
+			File deltaZip = ZipUtil.zipDirectoryRemovingCommentsAndBlankLines("src/test/resources/SnomedCT_MiniRF2_" + delta + "_delta");
+
+			File fullResults = TestFileUtil.newTemporaryFile();
+			snomedReasonerService.classify("", baseRF2SnapshotZip, deltaZip, fullResults, ELK_REASONER_FACTORY, false);
+			File incrementalResults = TestFileUtil.newTemporaryFile();
+			incrementalReasonerService.classify("", baseRF2SnapshotZip, deltaZip, incrementalResults, ELK_REASONER_FACTORY, false);
+
+			assertEquals(delta, new HashSet<>(readInferredRelationshipLinesTrim(fullResults)), new HashSet<>(readInferredRelationshipLinesTrim(incrementalResults)));
+		}
+	}
+
+	@Test
+	public void testClassifyWithStreamedRelationshipChangesMatchesCollectedChanges() throws IOException, ReasonerServiceException {
+		ClassificationOptions options = new ClassificationOptions();
+		options.setStreamRelationshipChanges(true);
+		SnomedReasonerService streamingReasonerService = new SnomedReasonerService(options);
+
+		String[][] snapshotDeltaPairs = {
+				{"Base_snapshot", "Add_Diabetes_delta"},
+				{"Base_snapshot", "Change_Axiom_Parents_delta"},
+				{"Concept_Inactivation_snapshot", "Concept_Inactivation_delta"},
+				{"Concept_Inactivation_snapshot", "Concept_Reactivation_delta"}};
+		for (String[] snapshotDeltaPair : snapshotDeltaPairs) {
+			File snapshotZip = ZipUtil.zipDirectoryRemovingCommentsAndBlankLines("src/test/resources/SnomedCT_MiniRF2_" + snapshotDeltaPair[0]);
+			File deltaZip = ZipUtil.zipDirectoryRemovingCommentsAndBlankLines("src/test/resources/SnomedCT_MiniRF2_" + snapshotDeltaPair[1]);
+
+			File collectedResults = TestFileUtil.newTemporaryFile();
+			snomedReasonerService.classify("", snapshotZip, deltaZip, collectedResults, ELK_REASONER_FACTORY, false);
+			File streamedResults = TestFileUtil.newTemporaryFile();
+			streamingReasonerService.classify("", snapshotZip, deltaZip, streamedResults, ELK_REASONER_FACTORY, false);
+
+			String name = snapshotDeltaPair[1];
+			assertEquals(name, new HashSet<>(readInferredRelationshipLinesTrim(collectedResults)), new HashSet<>(readInferredRelationshipLinesTrim(streamedResults)));
+			assertEquals(name, readEquivalentConceptLinesTrim(collectedResults).size(), readEquivalentConceptLinesTrim(streamedResults).size());
+		}
+	}
+
+
+	@Test
+	public void testClassifyWithStreamedRelationshipChangesInParallelSameOrderEachRun() throws IOException, ReasonerServiceException {
+		ClassificationOptions options = new ClassificationOptions();
+		options.setStreamRelationshipChanges(true);
+		options.setNormalFormThreads(4);
+
+		String[][] snapshotDeltaPairs = {
+				{"Base_snapshot", "Add_Diabetes_delta"},
+				{"Base_snapshot", "Change_Axiom_Parents_delta"},
+				{"Concept_Inactivation_snapshot", "Concept_Inactivation_delta"}};
+		for (String[] snapshotDeltaPair : snapshotDeltaPairs) {
+			File snapshotZip = ZipUtil.zipDirectoryRemovingCommentsAndBlankLines("src/test/resources/SnomedCT_MiniRF2_" + snapshotDeltaPair[0]);
+			File deltaZip = ZipUtil.zipDirectoryRemovingCommentsAndBlankLines("src/test/resources/SnomedCT_MiniRF2_" + snapshotDeltaPair[1]);
+
+			File firstResults = TestFileUtil.newTemporaryFile();
+			new SnomedReasonerService(options).classify("", snapshotZip, deltaZip, firstResults, ELK_REASONER_FACTORY, false);
+			File secondResults = TestFileUtil.newTemporaryFile();
+			new SnomedReasonerService(options).classify("", snapshotZip, deltaZip, secondResults, ELK_REASONER_FACTORY, false);
+
+			// Relationship rows are compared in file order, zip entry times differ between runs
+			List<String> firstLines = readInferredRelationshipLinesTrim(firstResults);
+			assertFalse(firstLines.isEmpty());
+			assertEquals(snapshotDeltaPair[1], firstLines, readInferredRelationshipLinesTrim(secondResults));
+		}
+	}
 
 	@Test
 	public void testClassifyConceptInactivation() throws IOException, ReasonerServiceException {
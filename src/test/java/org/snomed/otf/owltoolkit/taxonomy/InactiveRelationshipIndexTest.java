@@ -0,0 +1,69 @@
+package org.snomed.otf.owltoolkit.taxonomy;
+
+import org.junit.Test;
+import org.snomed.otf.owltoolkit.domain.Relationship;
+
+import static org.junit.Assert.assertEquals;
+
+public class InactiveRelationshipIndexTest {
+
+	@Test
+	public void testMostRecentRowKept() {
+		InactiveRelationshipIndex index = new InactiveRelationshipIndex();
+		index.add(100L, 1L, 20170731, 1, 200L, 300L);
+		index.add(100L, 2L, 20180131, 1, 200L, 300L);
+		index.add(100L, 3L, 20170131, 1, 200L, 300L);
+		assertEquals(1, index.size());
+		assertEquals(2L, index.getRelationshipId(100L, 1, 200L, 300L));
+
+		// Same effective time, last row added wins
+		index.add(100L, 4L, 20180131, 1, 200L, 300L);
+		assertEquals(4L, index.getRelationshipId(100L, 1, 200L, 300L));
+	}
+
+	@Test
+	public void testAllKeyFieldsUsed() {
+		InactiveRelationshipIndex index = new InactiveRelationshipIndex();
+		index.add(100L, 1L, 20180131, 1, 200L, 300L);
+		assertEquals(1L, index.getRelationshipId(100L, 1, 200L, 300L));
+		assertEquals(-1L, index.getRelationshipId(101L, 1, 200L, 300L));
+		assertEquals(-1L, index.getRelationshipId(100L, 2, 200L, 300L));
+		assertEquals(-1L, index.getRelationshipId(100L, 1, 201L, 300L));
+		assertEquals(-1L, index.getRelationshipId(100L, 1, 200L, 301L));
+	}
+
+	@Test
+	public void testManyRows() {
+		InactiveRelationshipIndex index = new InactiveRelationshipIndex();
+		for (int i = 0; i < 10_000; i++) {
+			index.add(100L + i / 10, 1000L + i, 20180131, i % 3, 200L, 300L + i % 10);
+		}
+		assertEquals(10_000, index.size());
+		for (int i = 0; i < 10_000; i++) {
+			assertEquals(1000L + i, index.getRelationshipId(100L + i / 10, i % 3, 200L, 300L + i % 10));
+		}
+	}
+
+	@Test
+	public void testTaxonomyIndexBuiltWhenRequested() {
+		SnomedTaxonomy snomedTaxonomy = new SnomedTaxonomy();
+		snomedTaxonomy.addInactiveInferredRelationship(100L, newInactiveRelationship(1L, 20170731));
+		snomedTaxonomy.addInactiveInferredRelationship(100L, newInactiveRelationship(2L, 20180131));
+		assertEquals(2, snomedTaxonomy.getInactiveInferredRelationships(100L).size());
+		assertEquals(2L, snomedTaxonomy.getInactiveInferredRelationshipIndex().getRelationshipId(100L, 1, 200L, 300L));
+
+		// Relationships added after the index was built are indexed on the next request
+		snomedTaxonomy.addInactiveInferredRelationship(100L, newInactiveRelationship(3L, 20190131));
+		assertEquals(3L, snomedTaxonomy.getInactiveInferredRelationshipIndex().getRelationshipId(100L, 1, 200L, 300L));
+
+		SnomedTaxonomy indexOnlyTaxonomy = new SnomedTaxonomy();
+		indexOnlyTaxonomy.setIndexInactiveInferredRelationshipsOnly(true);
+		indexOnlyTaxonomy.addInactiveInferredRelationship(100L, newInactiveRelationship(1L, 20170731));
+		assertEquals(0, indexOnlyTaxonomy.getInactiveInferredRelationships(100L).size());
+		assertEquals(1L, indexOnlyTaxonomy.getInactiveInferredRelationshipIndex().getRelationshipId(100L, 1, 200L, 300L));
+	}
+
+	private Relationship newInactiveRelationship(long relationshipId, int effectiveTime) {
+		return new Relationship(relationshipId, effectiveTime, 900000000000207008L, 200L, 300L, false, 1, 0, false, 900000000000011006L);
+	}
+}
@@ -0,0 +1,160 @@
+package org.snomed.otf.owltoolkit.util;
+
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.Assert.*;
+
+public class ParallelZipOutputStreamTest {
+
+	@Test
+	public void testEntriesReadableWithEachLevelAndThreadCount() throws IOException {
+		Map<String, byte[]> entries = new LinkedHashMap<>();
+		entries.put("RF2/empty.txt", new byte[0]);
+		entries.put("RF2/small.txt", "id\teffectiveTime\tactive\n".getBytes("UTF-8"));
+		// Larger than several blocks, with repeated text so that the dictionary is used across blocks
+		entries.put("RF2/rows.txt", createRows(200_000));
+		entries.put("RF2/random.bin", createRandomBytes(700_000));
+		entries.put("RF2/naïve.txt", createRows(10));
+
+		for (int level : new int[] {ParallelZipOutputStream.STORED, 1, ParallelZipOutputStream.DEFAULT_COMPRESSION, 9}) {
+			for (int threads : new int[] {1, 4}) {
+				byte[] archive = writeArchive(entries, level, threads);
+				assertEntriesEqual(entries, readWithZipInputStream(archive));
+				assertEntriesEqual(entries, readWithZipFile(archive));
+			}
+		}
+	}
+
+	@Test
+	public void testSameOutputForAnyThreadCount() throws IOException {
+		Map<String, byte[]> entries = Collections.singletonMap("rows.txt", createRows(100_000));
+		byte[] single = writeArchive(entries, ParallelZipOutputStream.DEFAULT_COMPRESSION, 1);
+		byte[] parallel = writeArchive(entries, ParallelZipOutputStream.DEFAULT_COMPRESSION, 3);
+		assertArrayEquals(single, parallel);
+	}
+
+	@Test
+	public void testCompression() throws IOException {
+		byte[] rows = createRows(100_000);
+		Map<String, byte[]> entries = Collections.singletonMap("rows.txt", rows);
+		assertTrue(writeArchive(entries, ParallelZipOutputStream.DEFAULT_COMPRESSION, 4).length < rows.length / 4);
+		assertTrue(writeArchive(entries, ParallelZipOutputStream.STORED, 4).length > rows.length);
+	}
+
+	@Test
+	public void testZip64EntryCount() throws IOException {
+		Map<String, byte[]> entries = new LinkedHashMap<>();
+		byte[] bytes = "1\n".getBytes("UTF-8");
+		for (int i = 0; i < 70_000; i++) {
+			entries.put("RF2/" + i + ".txt", bytes);
+		}
+		byte[] archive = writeArchive(entries, ParallelZipOutputStream.DEFAULT_COMPRESSION, 1);
+		assertEntriesEqual(entries, readWithZipInputStream(archive));
+		assertEntriesEqual(entries, readWithZipFile(archive));
+	}
+
+	@Test(expected = ZipException.class)
+	public void testDuplicateEntry() throws IOException {
+		try (ParallelZipOutputStream zipOutputStream = new ParallelZipOutputStream(new ByteArrayOutputStream(), ParallelZipOutputStream.DEFAULT_COMPRESSION, 1)) {
+			zipOutputStream.putNextEntry(new ZipEntry("a.txt"));
+			zipOutputStream.putNextEntry(new ZipEntry("a.txt"));
+		}
+	}
+
+	private void assertEntriesEqual(Map<String, byte[]> expected, Map<String, byte[]> actual) {
+		assertEquals(new ArrayList<>(expected.keySet()), new ArrayList<>(actual.keySet()));
+		for (String name : expected.keySet()) {
+			assertArrayEquals(name, expected.get(name), actual.get(name));
+		}
+	}
+
+	private byte[] writeArchive(Map<String, byte[]> entries, int level, int threads) throws IOException {
+		ByteArrayOutputStream archive = new ByteArrayOutputStream();
+		try (ParallelZipOutputStream zipOutputStream = new ParallelZipOutputStream(archive, level, threads)) {
+			for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+				ZipEntry zipEntry = new ZipEntry(entry.getKey());
+				zipEntry.setTime(1514764800000L);
+				zipOutputStream.putNextEntry(zipEntry);
+				// Mix of single byte and array writes of different lengths
+				byte[] bytes = entry.getValue();
+				Random random = new Random(bytes.length);
+				int offset = 0;
+				while (offset < bytes.length) {
+					if (random.nextInt(10) == 0) {
+						zipOutputStream.write(bytes[offset++]);
+					} else {
+						int length = Math.min(bytes.length - offset, random.nextInt(300_000));
+						zipOutputStream.write(bytes, offset, length);
+						offset += length;
+					}
+				}
+			}
+		}
+		return archive.toByteArray();
+	}
+
+	private Map<String, byte[]> readWithZipInputStream(byte[] archive) throws IOException {
+		Map<String, byte[]> entries = new LinkedHashMap<>();
+		try (ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(archive))) {
+			ZipEntry zipEntry;
+			while ((zipEntry = zipInputStream.getNextEntry()) != null) {
+				entries.put(zipEntry.getName(), readFully(zipInputStream));
+			}
+		}
+		return entries;
+	}
+
+	private Map<String, byte[]> readWithZipFile(byte[] archive) throws IOException {
+		File file = File.createTempFile("parallel-zip", ".zip");
+		try {
+			Files.write(file.toPath(), archive);
+			Map<String, byte[]> entries = new LinkedHashMap<>();
+			try (ZipFile zipFile = new ZipFile(file)) {
+				for (ZipEntry zipEntry : Collections.list(zipFile.entries())) {
+					try (InputStream inputStream = zipFile.getInputStream(zipEntry)) {
+						byte[] bytes = readFully(inputStream);
+						assertEquals(bytes.length, zipEntry.getSize());
+						entries.put(zipEntry.getName(), bytes);
+					}
+				}
+			}
+			return entries;
+		} finally {
+			assertTrue(file.delete());
+		}
+	}
+
+	private byte[] readFully(InputStream inputStream) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int read;
+		while ((read = inputStream.read(buffer)) != -1) {
+			bytes.write(buffer, 0, read);
+		}
+		return bytes.toByteArray();
+	}
+
+	private byte[] createRows(int rows) throws UnsupportedEncodingException {
+		Random random = new Random(rows);
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < rows; i++) {
+			builder.append(200000000L + i).append("\t\t1\t\t").append(100000000L + random.nextInt(1000)).append('\t')
+					.append(300000000L + random.nextInt(100)).append("\t0\t116680003\t900000000000011006\t900000000000451002\n");
+		}
+		return builder.toString().getBytes("UTF-8");
+	}
+
+	private byte[] createRandomBytes(int length) {
+		byte[] bytes = new byte[length];
+		new Random(length).nextBytes(bytes);
+		return bytes;
+	}
+}
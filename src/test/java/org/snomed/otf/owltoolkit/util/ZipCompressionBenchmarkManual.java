@@ -0,0 +1,96 @@
+package org.snomed.otf.owltoolkit.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+// Utility class for manual testing
+// Measures the throughput of writing RF2 style rows to a zip archive using ZipOutputStream and ParallelZipOutputStream
+// at several compression levels and thread counts. Output is counted and discarded so only compression is measured.
+// Arguments: [rows, default 5000000] [max threads, default number of processors]
+public class ZipCompressionBenchmarkManual {
+
+	public static void main(String[] args) throws IOException {
+		int rows = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+		int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+		byte[] data = createRows(rows);
+		System.out.println(String.format("%,d rows, %,d bytes", rows, data.length));
+
+		// Warm up
+		runZipOutputStream(data, false);
+		runParallelZipOutputStream(data, ParallelZipOutputStream.DEFAULT_COMPRESSION, maxThreads, false);
+
+		runZipOutputStream(data, true);
+		for (int level : new int[] {ParallelZipOutputStream.STORED, 1, ParallelZipOutputStream.DEFAULT_COMPRESSION}) {
+			for (int threads = 1; threads <= maxThreads; threads *= 2) {
+				runParallelZipOutputStream(data, level, threads, true);
+			}
+		}
+	}
+
+	private static void runZipOutputStream(byte[] data, boolean print) throws IOException {
+		CountingOutputStream out = new CountingOutputStream();
+		long start = System.nanoTime();
+		try (ZipOutputStream zipOutputStream = new ZipOutputStream(out)) {
+			zipOutputStream.putNextEntry(new ZipEntry("rows.txt"));
+			write(zipOutputStream, data);
+		}
+		print("ZipOutputStream", data.length, out.count, System.nanoTime() - start, print);
+	}
+
+	private static void runParallelZipOutputStream(byte[] data, int level, int threads, boolean print) throws IOException {
+		CountingOutputStream out = new CountingOutputStream();
+		long start = System.nanoTime();
+		try (ParallelZipOutputStream zipOutputStream = new ParallelZipOutputStream(out, level, threads)) {
+			zipOutputStream.putNextEntry(new ZipEntry("rows.txt"));
+			write(zipOutputStream, data);
+		}
+		print(String.format("ParallelZipOutputStream level %d, %d threads", level, threads), data.length, out.count, System.nanoTime() - start, print);
+	}
+
+	// Writes in chunks of the size used by BufferedWriter
+	private static void write(OutputStream outputStream, byte[] data) throws IOException {
+		for (int offset = 0; offset < data.length; offset += 8192) {
+			outputStream.write(data, offset, Math.min(8192, data.length - offset));
+		}
+	}
+
+	private static void print(String name, long bytes, long compressedBytes, long nanos, boolean print) {
+		if (print) {
+			System.out.println(String.format("%-50s %8.1f MB/s, %5.1f%% of input size",
+					name, bytes / (nanos / 1_000_000_000.0) / (1024 * 1024), compressedBytes * 100.0 / bytes));
+		}
+	}
+
+	private static byte[] createRows(int rows) {
+		Random random = new Random(1234);
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < rows; i++) {
+			builder.append(200000000L + i * 10L + random.nextInt(10)).append("\t\t1\t\t")
+					.append(100000000L + random.nextInt(1_000_000)).append('\t')
+					.append(100000000L + random.nextInt(1_000_000)).append('\t')
+					.append(random.nextInt(4)).append('\t')
+					.append(900000000L + random.nextInt(30)).append("\t900000000000011006\t900000000000451002\n");
+		}
+		return builder.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static final class CountingOutputStream extends OutputStream {
+
+		private long count;
+
+		@Override
+		public void write(int b) {
+			count++;
+		}
+
+		@Override
+		public void write(byte[] bytes, int offset, int length) {
+			count += length;
+		}
+	}
+}